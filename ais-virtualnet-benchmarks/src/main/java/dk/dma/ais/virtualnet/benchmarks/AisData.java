@@ -0,0 +1,127 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import dk.dma.ais.message.AisMessage;
+import dk.dma.ais.packet.AisPacket;
+
+/**
+ * Packets from the sample file bundled with the server, used as input to the benchmarks
+ */
+public final class AisData {
+
+    private static final String RESOURCE = "/ais.txt.gz";
+
+    private static List<String> packetStrings;
+
+    private static List<AisPacket> packets;
+
+    private AisData() {
+
+    }
+
+    /**
+     * Get packets as received from the network, one string per packet with proprietary tags and all sentences
+     * 
+     * @return
+     */
+    public static synchronized List<String> getPacketStrings() {
+        if (packetStrings == null) {
+            try {
+                packetStrings = Collections.unmodifiableList(load());
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read " + RESOURCE, e);
+            }
+        }
+        return packetStrings;
+    }
+
+    /**
+     * Get packets that can be parsed into AIS messages
+     * 
+     * @return
+     */
+    public static synchronized List<AisPacket> getPackets() {
+        if (packets == null) {
+            List<AisPacket> list = new ArrayList<>();
+            for (String str : getPacketStrings()) {
+                AisPacket packet = AisPacket.from(str);
+                if (packet.tryGetAisMessage() != null) {
+                    list.add(packet);
+                }
+            }
+            packets = Collections.unmodifiableList(list);
+        }
+        return packets;
+    }
+
+    /**
+     * Get distinct MMSI numbers of the targets in the packets
+     * 
+     * @return
+     */
+    public static List<Integer> getMmsis() {
+        List<Integer> mmsis = new ArrayList<>();
+        for (AisPacket packet : getPackets()) {
+            AisMessage message = packet.tryGetAisMessage();
+            if (!mmsis.contains(message.getUserId())) {
+                mmsis.add(message.getUserId());
+            }
+        }
+        return mmsis;
+    }
+
+    private static List<String> load() throws IOException {
+        List<String> list = new ArrayList<>();
+        InputStream in = AisData.class.getResourceAsStream(RESOURCE);
+        if (in == null) {
+            throw new IOException("Resource not found");
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(in)))) {
+            StringBuilder buf = new StringBuilder();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                if (buf.length() > 0) {
+                    buf.append("\r\n");
+                }
+                buf.append(line);
+                // Proprietary sentences and leading fragments belong to the following sentence
+                if (line.charAt(0) == '!' && isLastFragment(line)) {
+                    list.add(buf.toString());
+                    buf.setLength(0);
+                }
+            }
+        }
+        return list;
+    }
+
+    private static boolean isLastFragment(String sentence) {
+        String[] fields = sentence.split(",", 4);
+        return fields.length < 3 || fields[1].equals(fields[2]);
+    }
+
+}
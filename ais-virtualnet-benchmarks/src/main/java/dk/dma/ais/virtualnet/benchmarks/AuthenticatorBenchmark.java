@@ -0,0 +1,90 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.dma.ais.virtualnet.common.security.Password;
+import dk.dma.ais.virtualnet.server.Authenticator;
+
+/**
+ * Token validation with many issued tokens. The tokens are issued through
+ * {@link Authenticator#authenticate(String, String)} with the same credentials, so only the first one checks a BCrypt
+ * hash.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuthenticatorBenchmark {
+
+    @Param({ "100", "10000", "100000" })
+    public int tokens;
+
+    private Authenticator authenticator;
+
+    private String[] issued;
+
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        File usersFile = File.createTempFile("users", ".txt");
+        usersFile.deleteOnExit();
+        try (PrintWriter writer = new PrintWriter(usersFile)) {
+            writer.println("benchmark:benchmark");
+        }
+        authenticator = new Authenticator(usersFile.getAbsolutePath());
+        String hashed = Password.hashPassword("benchmark");
+        issued = new String[tokens];
+        for (int i = 0; i < tokens; i++) {
+            issued[i] = authenticator.authenticate("benchmark", hashed);
+            if (issued[i] == null) {
+                throw new IllegalStateException("Authentication failed");
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean validate() {
+        if (++next >= issued.length) {
+            next = 0;
+        }
+        return authenticator.validate(issued[next]);
+    }
+
+    @Benchmark
+    public boolean validateUnknown() {
+        return authenticator.validate("unknown");
+    }
+
+}
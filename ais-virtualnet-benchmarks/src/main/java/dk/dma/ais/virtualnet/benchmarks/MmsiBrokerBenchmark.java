@@ -0,0 +1,106 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.dma.ais.virtualnet.common.message.ReserveMmsiReplyMessage.ReserveResult;
+import dk.dma.ais.virtualnet.server.MmsiBroker;
+
+/**
+ * Reservation and release of MMSI numbers with a number of reservations already held by other transponders
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MmsiBrokerBenchmark {
+
+    @Param({ "100", "10000" })
+    public int reserved;
+
+    private final MmsiBroker broker = new MmsiBroker();
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < reserved; i++) {
+            String authToken = "held-" + i;
+            broker.reserve(200000000 + i, authToken);
+            broker.activate(authToken);
+        }
+    }
+
+    /**
+     * MMSI numbers and tokens of a single thread acting as transponder
+     */
+    @State(Scope.Thread)
+    public static class Client {
+
+        private int base;
+
+        private int next;
+
+        private String[] authTokens = new String[1000];
+
+        @Setup
+        public void setup(MmsiBrokerBenchmark benchmark) {
+            int thread = benchmark.threadCount.getAndIncrement();
+            base = 300000000 + thread * authTokens.length;
+            for (int i = 0; i < authTokens.length; i++) {
+                authTokens[i] = "thread-" + thread + "-" + i;
+            }
+        }
+    }
+
+    private ReserveResult reserveAndRelease(Client client) {
+        int i = client.next++ % client.authTokens.length;
+        String authToken = client.authTokens[i];
+        ReserveResult result = broker.reserve(client.base + i, authToken);
+        broker.activate(authToken);
+        broker.release(authToken);
+        return result;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ReserveResult reserveRelease(Client client) {
+        return reserveAndRelease(client);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ReserveResult reserveReleaseContended(Client client) {
+        return reserveAndRelease(client);
+    }
+
+}
@@ -0,0 +1,106 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.virtualnet.common.table.TargetTable;
+
+/**
+ * Updating a target table shared by several threads, as the server does from the bus and the REST service
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TargetTableBenchmark {
+
+    private final TargetTable targetTable = new TargetTable();
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    private List<AisPacket> packets;
+
+    @Setup
+    public void setup() {
+        packets = AisData.getPackets();
+        for (AisPacket packet : packets) {
+            targetTable.update(packet);
+        }
+    }
+
+    /**
+     * Packet cursor of a single thread. Threads start at different offsets to update different targets.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next;
+
+        @Setup
+        public void setup(TargetTableBenchmark benchmark) {
+            next = benchmark.threadCount.getAndIncrement() * 97;
+        }
+
+        AisPacket next(List<AisPacket> packets) {
+            if (next >= packets.size()) {
+                next %= packets.size();
+            }
+            return packets.get(next++);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void update(Cursor cursor) {
+        targetTable.update(cursor.next(packets));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void updateContended(Cursor cursor) {
+        targetTable.update(cursor.next(packets));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object updateWithReader(Cursor cursor) {
+        // One packet out of 64 is a full table read, like a REST request for the table
+        AisPacket packet = cursor.next(packets);
+        if ((cursor.next & 63) == 0) {
+            return targetTable.getAliveTargetTableMessage();
+        }
+        targetTable.update(packet);
+        return packet;
+    }
+
+}
@@ -0,0 +1,99 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.dma.ais.message.AisMessage;
+import dk.dma.ais.message.IVesselPositionMessage;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.virtualnet.transponder.Transponder;
+import dk.dma.ais.virtualnet.transponder.TransponderConfiguration;
+
+/**
+ * Handling of packets received from the server by a transponder without a connected client. A receive radius of 0
+ * disables filtering.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransponderBenchmark {
+
+    @Param({ "0", "10000", "75000" })
+    public int receiveRadius;
+
+    private Transponder transponder;
+
+    private List<String> packets;
+
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        packets = AisData.getPacketStrings();
+        // Use the first target with a valid position as own ship
+        AisPacket own = null;
+        for (AisPacket packet : AisData.getPackets()) {
+            AisMessage message = packet.tryGetAisMessage();
+            if (message instanceof IVesselPositionMessage
+                    && ((IVesselPositionMessage) message).isPositionValid()) {
+                own = packet;
+                break;
+            }
+        }
+        if (own == null) {
+            throw new IllegalStateException("No position reports in sample data");
+        }
+        TransponderConfiguration conf = new TransponderConfiguration();
+        conf.setOwnMmsi(own.tryGetAisMessage().getUserId());
+        conf.setReceiveRadius(receiveRadius);
+        // Any free port, no client will connect
+        conf.setPort(0);
+        transponder = new Transponder(conf);
+        transponder.receive(own.getStringMessage());
+    }
+
+    @TearDown
+    public void tearDown() {
+        transponder.shutdown();
+    }
+
+    @Benchmark
+    public void receive() {
+        if (++next >= packets.size()) {
+            next = 0;
+        }
+        transponder.receive(packets.get(next));
+    }
+
+}
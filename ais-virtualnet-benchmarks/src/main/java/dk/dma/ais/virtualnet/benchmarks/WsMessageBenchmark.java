@@ -0,0 +1,121 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.virtualnet.common.message.WsMessage;
+import dk.dma.ais.virtualnet.common.websocket.WsBinaryCodec;
+
+/**
+ * Encoding and decoding of web socket messages. The binary codec is included for comparison with Gson.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WsMessageBenchmark {
+
+    private static final int BATCH_SIZE = 50;
+
+    private final Gson gson = new Gson();
+
+    private List<AisPacket> packets;
+
+    private int next;
+
+    private List<String> json;
+
+    private List<ByteBuffer> binary;
+
+    private WsMessage batch;
+
+    private String batchJson;
+
+    @Setup
+    public void setup() {
+        packets = AisData.getPackets();
+        json = new ArrayList<>();
+        binary = new ArrayList<>();
+        for (AisPacket packet : packets) {
+            WsMessage message = new WsMessage(packet);
+            json.add(gson.toJson(message));
+            binary.add(WsBinaryCodec.encode(message));
+        }
+        batch = new WsMessage();
+        batch.setPackets(new ArrayList<String>());
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.getPackets().add(packets.get(i % packets.size()).getStringMessage());
+        }
+        batchJson = gson.toJson(batch);
+    }
+
+    private int next() {
+        if (++next >= packets.size()) {
+            next = 0;
+        }
+        return next;
+    }
+
+    @Benchmark
+    public String encodeGson() {
+        return gson.toJson(new WsMessage(packets.get(next())));
+    }
+
+    @Benchmark
+    public WsMessage decodeGson() {
+        return gson.fromJson(json.get(next()), WsMessage.class);
+    }
+
+    @Benchmark
+    public String encodeGsonBatch() {
+        return gson.toJson(batch);
+    }
+
+    @Benchmark
+    public WsMessage decodeGsonBatch() {
+        return gson.fromJson(batchJson, WsMessage.class);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeBinary() {
+        return WsBinaryCodec.encode(new WsMessage(packets.get(next())));
+    }
+
+    @Benchmark
+    public WsMessage decodeBinary() {
+        return WsBinaryCodec.decode(binary.get(next()).duplicate());
+    }
+
+}
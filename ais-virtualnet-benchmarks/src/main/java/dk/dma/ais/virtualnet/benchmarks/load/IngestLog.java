@@ -0,0 +1,181 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.benchmarks.load;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Record of the packets accepted by the server and the time they were accepted. Clients find the packets they receive
+ * in the log to get the latency. The log is written by a single thread.
+ * <p>
+ * Only the most recent entries are kept, so the memory used does not depend on the rate or the duration of the test.
+ * Entries are chained by the hash of the packet, so a packet is found without scanning the entries in between.
+ * Readers need no locking: an entry is replaced as a whole, and a reader stops at the first entry no longer in the
+ * log.
+ */
+@ThreadSafe
+public class IngestLog {
+
+    /**
+     * Default number of entries kept
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 18;
+
+    private final int mask;
+
+    private final AtomicReferenceArray<Entry> entries;
+
+    /**
+     * Index of the newest entry for each hash bucket, or -1
+     */
+    private final AtomicLongArray heads;
+
+    /**
+     * Number of entries appended, written after the entry itself
+     */
+    private volatile long size;
+
+    /**
+     * First entry in the measurement window
+     */
+    private volatile long measureStart = Long.MAX_VALUE;
+
+    /**
+     * Entry after the last in the measurement window
+     */
+    private volatile long measureEnd = Long.MAX_VALUE;
+
+    /**
+     * Entry of the log
+     */
+    @Immutable
+    static final class Entry {
+        final long index;
+        final String packet;
+        final long nanoTime;
+        /**
+         * Index of the previous entry in the same hash bucket, or -1
+         */
+        final long previous;
+
+        Entry(long index, String packet, long nanoTime, long previous) {
+            this.index = index;
+            this.packet = packet;
+            this.nanoTime = nanoTime;
+            this.previous = previous;
+        }
+    }
+
+    public IngestLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity
+     *            number of entries kept, rounded up to a power of two
+     */
+    public IngestLog(int capacity) {
+        int n = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.mask = n - 1;
+        this.entries = new AtomicReferenceArray<>(n);
+        long[] none = new long[n];
+        Arrays.fill(none, -1);
+        this.heads = new AtomicLongArray(none);
+    }
+
+    /**
+     * Add packet to the log, replacing the oldest entry if the log is full. Must only be called by a single thread.
+     * 
+     * @param packet
+     * @param nanoTime
+     */
+    public void append(String packet, long nanoTime) {
+        long i = size;
+        int bucket = bucket(packet);
+        entries.set((int) i & mask, new Entry(i, packet, nanoTime, heads.get(bucket)));
+        heads.set(bucket, i);
+        size = i + 1;
+    }
+
+    /**
+     * Find the first entry at or after an index with the given packet
+     * 
+     * @param packet
+     * @param from
+     * @return the entry or null if not found in the entries kept
+     */
+    Entry find(String packet, long from) {
+        long oldest = Math.max(from, size - mask - 1);
+        Entry found = null;
+        long i = heads.get(bucket(packet));
+        while (i >= oldest) {
+            Entry entry = entries.get((int) i & mask);
+            if (entry == null || entry.index != i) {
+                // Replaced along with every older entry
+                break;
+            }
+            if (packet.equals(entry.packet)) {
+                found = entry;
+            }
+            i = entry.previous;
+        }
+        return found;
+    }
+
+    private int bucket(String packet) {
+        int h = packet.hashCode() * 0x9E3779B9;
+        return (h ^ h >>> 16) & mask;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Start measuring from the next entry
+     * 
+     * @return the index of the first entry measured
+     */
+    public long startMeasurement() {
+        measureStart = size;
+        return measureStart;
+    }
+
+    /**
+     * Stop measuring after the last entry
+     * 
+     * @return the index after the last entry measured
+     */
+    public long stopMeasurement() {
+        measureEnd = size;
+        return measureEnd;
+    }
+
+    /**
+     * Return if the entry is within the measurement window
+     * 
+     * @param index
+     * @return
+     */
+    public boolean isMeasured(long index) {
+        return index >= measureStart && index < measureEnd;
+    }
+
+}
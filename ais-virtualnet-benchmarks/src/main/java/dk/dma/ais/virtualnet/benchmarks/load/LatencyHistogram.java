@@ -0,0 +1,108 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.benchmarks.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Histogram of latencies in microseconds. Values below 64 are counted exactly, larger values in buckets of 1/32 of
+ * their power of two, so percentiles are within about 3%.
+ */
+@ThreadSafe
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+
+    private static final int LINEAR = 2 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR + (63 - SUB_BITS) * (1 << SUB_BITS));
+
+    /**
+     * Record a latency
+     * 
+     * @param nanos
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(index(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos))));
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Get latency at a percentile
+     * 
+     * @param percentile
+     *            between 0 and 100
+     * @return the upper bound of the bucket with the percentile in microseconds, 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= Math.max(1, rank)) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(counts.length() - 1);
+    }
+
+    /**
+     * Get the largest latency recorded
+     * 
+     * @return the upper bound of the highest bucket in microseconds
+     */
+    public long getMax() {
+        for (int i = counts.length() - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return upperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+        return LINEAR + (exponent - SUB_BITS - 1) * (1 << SUB_BITS) + sub;
+    }
+
+    static long upperBound(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int exponent = (index - LINEAR) / (1 << SUB_BITS) + SUB_BITS + 1;
+        int sub = (index - LINEAR) % (1 << SUB_BITS);
+        long width = 1L << (exponent - SUB_BITS);
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+
+}
@@ -0,0 +1,91 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.benchmarks.load;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+import dk.dma.ais.virtualnet.transponder.Transponder;
+import dk.dma.ais.virtualnet.transponder.TransponderConfiguration;
+
+/**
+ * Simulated transponder going through the normal authenticate, reserve and connect flow. Packets received from the
+ * server are looked up in the ingest log instead of being parsed and passed on to a client.
+ * <p>
+ * The server sends packets to a session in the order they were accepted, so the log is searched forward from the
+ * last packet found. Entries skipped on the way have been dropped. If a client drops a whole pass of the sample file,
+ * a packet is matched with an earlier copy of itself, which overstates the latency. Packets from a client lagging
+ * further behind than the log reaches are counted as unmatched.
+ */
+@ThreadSafe
+public class LoadClient extends Transponder {
+
+    private final IngestLog ingestLog;
+
+    private final LatencyHistogram histogram;
+
+    /**
+     * Next log entry to search from. Only used by the thread receiving from the web socket.
+     */
+    private long cursor;
+
+    private final AtomicLong received = new AtomicLong();
+
+    private final AtomicLong unmatched = new AtomicLong();
+
+    public LoadClient(TransponderConfiguration conf, IngestLog ingestLog, LatencyHistogram histogram)
+            throws IOException {
+        super(conf);
+        this.ingestLog = ingestLog;
+        this.histogram = histogram;
+        // Nothing accepted before now can be sent to this client
+        this.cursor = ingestLog.size();
+    }
+
+    @Override
+    public void receive(String strPacket) {
+        long now = System.nanoTime();
+        IngestLog.Entry entry = ingestLog.find(strPacket, cursor);
+        if (entry == null) {
+            unmatched.incrementAndGet();
+            return;
+        }
+        cursor = entry.index + 1;
+        if (ingestLog.isMeasured(entry.index)) {
+            received.incrementAndGet();
+            histogram.record(now - entry.nanoTime);
+        }
+    }
+
+    /**
+     * Number of packets received from the measurement window
+     * 
+     * @return
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * Number of packets received that were not found in the log, including packets no longer kept
+     * 
+     * @return
+     */
+    public long getUnmatched() {
+        return unmatched.get();
+    }
+
+}
@@ -0,0 +1,209 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.benchmarks.load;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.beust.jcommander.Parameter;
+import com.google.inject.Injector;
+
+import dk.dma.ais.configuration.bus.AisBusConfiguration;
+import dk.dma.ais.configuration.bus.provider.RepeatingFileReaderProviderConfiguration;
+import dk.dma.ais.virtualnet.server.ServerConfiguration;
+import dk.dma.ais.virtualnet.transponder.TransponderConfiguration;
+import dk.dma.commons.app.AbstractCommandLineTool;
+
+/**
+ * Load test of a server with many transponders. An embedded server replays the sample file bundled with the server
+ * and simulated transponders connect to it over the loopback interface. Reports the throughput, the share of packets
+ * dropped on the way to the clients and the latency from the server accepting a packet to a client receiving it.
+ */
+public class LoadTest extends AbstractCommandLineTool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTest.class);
+
+    private static final String USERNAME = "loadtest";
+
+    private static final int FIRST_MMSI = 111000000;
+
+    @Parameter(names = "-clients", description = "Number of simulated transponders")
+    int clients = 100;
+
+    @Parameter(names = "-rate", description = "Packets per second accepted by the server, 0 for as fast as the file can be read")
+    int rate = 1000;
+
+    @Parameter(names = "-warmup", description = "Seconds to run before measuring")
+    int warmup = 10;
+
+    @Parameter(names = "-duration", description = "Seconds to measure")
+    int duration = 60;
+
+    @Parameter(names = "-connectTimeout", description = "Seconds to wait for all transponders to connect")
+    int connectTimeout = 120;
+
+    @Parameter(names = "-logSize", description = "Accepted packets kept for matching the packets received")
+    int logSize = IngestLog.DEFAULT_CAPACITY;
+
+    @Parameter(names = "-port", description = "Port of the embedded server")
+    int port = 18080;
+
+    @Parameter(names = "-writerThreads", description = "Server writer threads, 0 for one per processor")
+    int writerThreads;
+
+    @Parameter(names = "-binary", description = "Use the binary subprotocol")
+    boolean binary;
+
+    @Parameter(names = "-batched", description = "Request batched frames")
+    boolean batched;
+
+    @Parameter(names = "-compression", description = "Deflate level requested by the transponders, 0 for no compression")
+    int compression;
+
+    @Override
+    protected void run(Injector injector) throws Exception {
+        File dataFile = extract("/ais.txt.gz");
+        File usersFile = File.createTempFile("users", ".txt");
+        usersFile.deleteOnExit();
+        try (PrintWriter writer = new PrintWriter(usersFile)) {
+            writer.println(USERNAME + ":" + USERNAME);
+        }
+
+        // Embedded server replaying the sample file
+        ServerConfiguration conf = new ServerConfiguration();
+        conf.setPort(port);
+        conf.setWriterThreads(writerThreads);
+        AisBusConfiguration aisBusConf = new AisBusConfiguration();
+        RepeatingFileReaderProviderConfiguration reader = new RepeatingFileReaderProviderConfiguration();
+        reader.setFilename(dataFile.getAbsolutePath());
+        reader.setGzip(true);
+        aisBusConf.getProviders().add(reader);
+        conf.setAisbusConfiguration(aisBusConf);
+
+        IngestLog ingestLog = new IngestLog(logSize);
+        LatencyHistogram histogram = new LatencyHistogram();
+        LoadTestServer server = new LoadTestServer(conf, usersFile.getAbsolutePath(), ingestLog, rate);
+        server.start();
+
+        // Transponders receiving everything
+        List<LoadClient> loadClients = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            TransponderConfiguration transponderConf = new TransponderConfiguration();
+            transponderConf.setServerHost("localhost");
+            transponderConf.setServerPort(port);
+            transponderConf.setUsername(USERNAME);
+            transponderConf.setPassword(USERNAME);
+            transponderConf.setOwnMmsi(FIRST_MMSI + i);
+            transponderConf.setPort(0);
+            transponderConf.setReceiveRadius(0);
+            transponderConf.setBinaryProtocol(binary);
+            transponderConf.setBatchedFrames(batched);
+            transponderConf.setCompressionLevel(compression);
+            transponderConf.setConflatePositions(false);
+            LoadClient client = new LoadClient(transponderConf, ingestLog, histogram);
+            client.start();
+            loadClients.add(client);
+        }
+
+        int connected = awaitConnected(loadClients);
+        LOG.info(connected + " of " + clients + " transponders connected");
+        TimeUnit.SECONDS.sleep(warmup);
+
+        // Measure
+        long start = ingestLog.startMeasurement();
+        long startTime = System.nanoTime();
+        TimeUnit.SECONDS.sleep(duration);
+        long end = ingestLog.stopMeasurement();
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        // Let the packets in flight arrive
+        TimeUnit.SECONDS.sleep(5);
+
+        long received = 0;
+        long unmatched = 0;
+        for (LoadClient client : loadClients) {
+            received += client.getReceived();
+            unmatched += client.getUnmatched();
+        }
+        long accepted = end - start;
+        long expected = accepted * connected;
+
+        System.out.println("Transponders connected  : " + connected + " of " + clients);
+        System.out.printf("Packets accepted        : %d (%.0f/s), %d throttled%n", accepted, accepted / seconds,
+                server.getThrottled());
+        System.out.printf("Packets delivered       : %d (%.0f/s)%n", received, received / seconds);
+        System.out.printf("Drop rate               : %.4f%%%n", expected == 0 ? 0.0 : 100.0 * (expected - received)
+                / expected);
+        System.out.println("Unmatched packets       : " + unmatched);
+        System.out.println("Latency p50 (us)        : " + histogram.getPercentile(50));
+        System.out.println("Latency p99 (us)        : " + histogram.getPercentile(99));
+        System.out.println("Latency p999 (us)       : " + histogram.getPercentile(99.9));
+        System.out.println("Latency max (us)        : " + histogram.getMax());
+
+        for (LoadClient client : loadClients) {
+            client.shutdown();
+        }
+        server.shutdown();
+    }
+
+    private int awaitConnected(List<LoadClient> loadClients) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(connectTimeout);
+        while (true) {
+            int connected = 0;
+            for (LoadClient client : loadClients) {
+                if (client.getStatus().isServerConnected()) {
+                    connected++;
+                }
+            }
+            if (connected == loadClients.size() || System.currentTimeMillis() > deadline) {
+                return connected;
+            }
+            TimeUnit.MILLISECONDS.sleep(500);
+        }
+    }
+
+    /**
+     * Copy resource to a temporary file as the file reader needs a file name
+     */
+    private static File extract(String resource) throws IOException {
+        File file = File.createTempFile("ais", ".txt.gz");
+        file.deleteOnExit();
+        try (InputStream in = LoadTest.class.getResourceAsStream(resource);
+                OutputStream out = new FileOutputStream(file)) {
+            if (in == null) {
+                throw new IOException("Resource not found: " + resource);
+            }
+            byte[] buf = new byte[8192];
+            for (int n = in.read(buf); n > 0; n = in.read(buf)) {
+                out.write(buf, 0, n);
+            }
+        }
+        return file;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadTest().execute(args);
+    }
+
+}
@@ -0,0 +1,81 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.benchmarks.load;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.virtualnet.server.AisVirtualNetServer;
+import dk.dma.ais.virtualnet.server.ServerConfiguration;
+
+/**
+ * Server recording when packets are accepted from the bus. The file reader delivers packets as fast as it can, so
+ * packets are throttled to the requested rate before they reach the server.
+ */
+@ThreadSafe
+public class LoadTestServer extends AisVirtualNetServer {
+
+    private final IngestLog ingestLog;
+
+    /**
+     * Packets per second, 0 for no limit
+     */
+    private final int rate;
+
+    private final AtomicLong throttled = new AtomicLong();
+
+    private long lastAccept;
+
+    private double allowance;
+
+    public LoadTestServer(ServerConfiguration conf, String usersFile, IngestLog ingestLog, int rate) throws Exception {
+        super(conf, usersFile);
+        this.ingestLog = ingestLog;
+        this.rate = rate;
+    }
+
+    /**
+     * Accept packet from the bus. Called by a single thread.
+     */
+    @Override
+    public void accept(AisPacket packet) {
+        long now = System.nanoTime();
+        if (rate > 0) {
+            // Token bucket allowing bursts of up to one second
+            if (lastAccept != 0) {
+                allowance = Math.min(rate, allowance + (now - lastAccept) * rate / 1e9);
+            }
+            lastAccept = now;
+            if (allowance < 1) {
+                throttled.incrementAndGet();
+                return;
+            }
+            allowance -= 1;
+        }
+        ingestLog.append(packet.getStringMessage(), now);
+        super.accept(packet);
+    }
+
+    /**
+     * Number of packets from the file not passed to the server
+     * 
+     * @return
+     */
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+}
@@ -0,0 +1,101 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.message;
+
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Subscription sent by a client. The server only forwards packets from targets within the radius of the position or
+ * from watched MMSI, packets from the client's own MMSI and packets addressed to it. Without a position only own,
+ * watched and addressed packets are forwarded. Without a radius and watched MMSI all locations are forwarded.
+ * Message types limit all but own and addressed packets.
+ */
+@XmlRootElement
+public class FilterMessage {
+
+    private Double lat;
+    private Double lon;
+    private int radius;
+    private List<Integer> msgTypes;
+    private List<Integer> mmsis;
+
+    public FilterMessage() {
+
+    }
+
+    public FilterMessage(Double lat, Double lon, int radius) {
+        this.lat = lat;
+        this.lon = lon;
+        this.radius = radius;
+    }
+
+    public Double getLat() {
+        return lat;
+    }
+
+    public void setLat(Double lat) {
+        this.lat = lat;
+    }
+
+    public Double getLon() {
+        return lon;
+    }
+
+    public void setLon(Double lon) {
+        this.lon = lon;
+    }
+
+    /**
+     * Radius in meters, 0 for no area filtering
+     * 
+     * @return
+     */
+    public int getRadius() {
+        return radius;
+    }
+
+    public void setRadius(int radius) {
+        this.radius = radius;
+    }
+
+    /**
+     * Message types to receive, null or empty for all types
+     * 
+     * @return
+     */
+    public List<Integer> getMsgTypes() {
+        return msgTypes;
+    }
+
+    public void setMsgTypes(List<Integer> msgTypes) {
+        this.msgTypes = msgTypes;
+    }
+
+    /**
+     * MMSI to receive packets from wherever they are
+     * 
+     * @return
+     */
+    public List<Integer> getMmsis() {
+        return mmsis;
+    }
+
+    public void setMmsis(List<Integer> mmsis) {
+        this.mmsis = mmsis;
+    }
+
+}
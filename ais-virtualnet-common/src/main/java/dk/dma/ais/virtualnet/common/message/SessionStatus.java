@@ -0,0 +1,105 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.message;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Status of a single web socket session
+ */
+@XmlRootElement
+public class SessionStatus {
+
+    private String id;
+    private boolean binary;
+    private boolean compressed;
+    private long framesSent;
+    private double compressionRatio = 1;
+    private double compressionNanosPerByte;
+    private long dropped;
+
+    public SessionStatus() {
+
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * True if permessage-deflate has been negotiated
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    public void setFramesSent(long framesSent) {
+        this.framesSent = framesSent;
+    }
+
+    /**
+     * Estimated compressed size relative to uncompressed size
+     */
+    public double getCompressionRatio() {
+        return compressionRatio;
+    }
+
+    public void setCompressionRatio(double compressionRatio) {
+        this.compressionRatio = compressionRatio;
+    }
+
+    /**
+     * Estimated CPU time in nanoseconds spent compressing a byte
+     */
+    public double getCompressionNanosPerByte() {
+        return compressionNanosPerByte;
+    }
+
+    public void setCompressionNanosPerByte(double compressionNanosPerByte) {
+        this.compressionNanosPerByte = compressionNanosPerByte;
+    }
+
+    /**
+     * Number of packets dropped because the client fell too far behind
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public void setDropped(long dropped) {
+        this.dropped = dropped;
+    }
+
+}
@@ -14,6 +14,9 @@
  */
 package dk.dma.ais.virtualnet.common.message;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.xml.bind.annotation.XmlRootElement;
 
 @XmlRootElement
@@ -21,6 +24,16 @@ public class StatusMessage {
     
     private double messageRate;
     private int connectedClients;
+    private double encodeRate;
+    private double sendRate;
+    private double frameRate;
+    private double encodesAvoidedRate;
+    private double conflateRate;
+    private int authenticationQueue;
+    private double authenticationRate;
+    private double authenticationRejectRate;
+    private double authenticationMillis;
+    private List<SessionStatus> sessions = new ArrayList<>();
     
     public StatusMessage() {
         
@@ -40,6 +53,86 @@ public class StatusMessage {
 
     public void setConnectedClients(int connectedClients) {
         this.connectedClients = connectedClients;
-    }    
+    }
+
+    public double getEncodeRate() {
+        return encodeRate;
+    }
+
+    public void setEncodeRate(double encodeRate) {
+        this.encodeRate = encodeRate;
+    }
+
+    public double getSendRate() {
+        return sendRate;
+    }
+
+    public void setSendRate(double sendRate) {
+        this.sendRate = sendRate;
+    }
+
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    public void setFrameRate(double frameRate) {
+        this.frameRate = frameRate;
+    }
+
+    public double getEncodesAvoidedRate() {
+        return encodesAvoidedRate;
+    }
+
+    public void setEncodesAvoidedRate(double encodesAvoidedRate) {
+        this.encodesAvoidedRate = encodesAvoidedRate;
+    }
+
+    public double getConflateRate() {
+        return conflateRate;
+    }
+
+    public void setConflateRate(double conflateRate) {
+        this.conflateRate = conflateRate;
+    }
+
+    public int getAuthenticationQueue() {
+        return authenticationQueue;
+    }
+
+    public void setAuthenticationQueue(int authenticationQueue) {
+        this.authenticationQueue = authenticationQueue;
+    }
+
+    public double getAuthenticationRate() {
+        return authenticationRate;
+    }
+
+    public void setAuthenticationRate(double authenticationRate) {
+        this.authenticationRate = authenticationRate;
+    }
+
+    public double getAuthenticationRejectRate() {
+        return authenticationRejectRate;
+    }
+
+    public void setAuthenticationRejectRate(double authenticationRejectRate) {
+        this.authenticationRejectRate = authenticationRejectRate;
+    }
+
+    public double getAuthenticationMillis() {
+        return authenticationMillis;
+    }
+
+    public void setAuthenticationMillis(double authenticationMillis) {
+        this.authenticationMillis = authenticationMillis;
+    }
+
+    public List<SessionStatus> getSessions() {
+        return sessions;
+    }
+
+    public void setSessions(List<SessionStatus> sessions) {
+        this.sessions = sessions;
+    }
 
 }
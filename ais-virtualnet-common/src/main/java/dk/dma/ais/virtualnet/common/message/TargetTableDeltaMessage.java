@@ -0,0 +1,87 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import dk.dma.ais.virtualnet.common.table.TargetTableEntry;
+
+/**
+ * Changes to the target table since a version. Removals should be applied before the targets, as a removed target
+ * may have been added again. If full is set the targets are the whole table and the client should drop what it has.
+ */
+@XmlRootElement
+public class TargetTableDeltaMessage {
+
+    private long version;
+
+    private boolean full;
+
+    private List<TargetTableEntry> targets = new ArrayList<>();
+
+    private List<Integer> removed = new ArrayList<>();
+
+    public TargetTableDeltaMessage() {
+
+    }
+
+    /**
+     * Version of the table including these changes, to be used as since in the next request
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * True if the changes could not be found and the targets are the whole table
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    public void setFull(boolean full) {
+        this.full = full;
+    }
+
+    /**
+     * Targets added or changed
+     */
+    public List<TargetTableEntry> getTargets() {
+        return targets;
+    }
+
+    public void setTargets(List<TargetTableEntry> targets) {
+        this.targets = targets;
+    }
+
+    /**
+     * MMSI numbers of targets removed
+     */
+    public List<Integer> getRemoved() {
+        return removed;
+    }
+
+    public void setRemoved(List<Integer> removed) {
+        this.removed = removed;
+    }
+
+}
@@ -0,0 +1,145 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.message;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import dk.dma.ais.virtualnet.common.table.TargetTableEntry;
+
+/**
+ * Streaming JSON form of {@link TargetTableMessage}. Targets are written one at a time as they are read from the
+ * table, and read one at a time from the stream, so neither side holds the whole document in memory. The format is
+ * the same as the one produced by the JAXB binding of the message.
+ */
+@ThreadSafe
+public final class TargetTableJson {
+
+    private TargetTableJson() {
+
+    }
+
+    /**
+     * Write targets as a target table message. The stream is flushed but not closed.
+     * 
+     * @param targets
+     * @param out
+     * @return the number of targets written
+     * @throws IOException
+     */
+    public static int write(Iterator<TargetTableEntry> targets, OutputStream out) throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        int count = 0;
+        writer.beginObject();
+        writer.name("targets");
+        writer.beginArray();
+        while (targets.hasNext()) {
+            TargetTableEntry target = targets.next();
+            writer.beginObject();
+            writer.name("mmsi").value(target.getMmsi());
+            if (target.getName() != null) {
+                writer.name("name").value(target.getName());
+            }
+            writer.name("lat").value(target.getLat());
+            writer.name("lon").value(target.getLon());
+            writer.name("lastMessage").value(target.getLastMessage());
+            writer.endObject();
+            count++;
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * Read a target table message. The stream is not closed.
+     * 
+     * @param in
+     * @return
+     * @throws IOException
+     *             if the stream could not be read or is not a target table message
+     */
+    public static TargetTableMessage read(InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        TargetTableMessage message = new TargetTableMessage();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("targets")) {
+                    reader.skipValue();
+                } else if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        message.getTargets().add(readEntry(reader));
+                    }
+                    reader.endArray();
+                } else {
+                    // A single target may be written without the array
+                    message.getTargets().add(readEntry(reader));
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed target table: " + e.getMessage());
+        }
+        return message;
+    }
+
+    private static TargetTableEntry readEntry(JsonReader reader) throws IOException {
+        TargetTableEntry entry = new TargetTableEntry();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+            case "mmsi":
+                entry.setMmsi(reader.nextInt());
+                break;
+            case "name":
+                entry.setName(reader.nextString());
+                break;
+            case "lat":
+                entry.setLat(reader.nextDouble());
+                break;
+            case "lon":
+                entry.setLon(reader.nextDouble());
+                break;
+            case "lastMessage":
+                entry.setLastMessage(reader.nextLong());
+                break;
+            default:
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return entry;
+    }
+
+}
@@ -14,6 +14,8 @@
  */
 package dk.dma.ais.virtualnet.common.message;
 
+import java.util.List;
+
 import javax.xml.bind.annotation.XmlRootElement;
 
 import dk.dma.ais.packet.AisPacket;
@@ -26,7 +28,13 @@ import dk.dma.ais.packet.AisPacket;
 public class WsMessage {
     
     private String packet;
+    private List<String> packets;
     private String authToken;
+    private Boolean batched;
+    private Boolean conflate;
+    private FilterMessage filter;
+    private Boolean targetTable;
+    private TargetTableDeltaMessage targetTableDelta;
     
     public WsMessage() {
         
@@ -44,6 +52,19 @@ public class WsMessage {
         this.packet = packet;
     }
     
+    /**
+     * Packets of a batched frame
+     * 
+     * @return
+     */
+    public List<String> getPackets() {
+        return packets;
+    }
+    
+    public void setPackets(List<String> packets) {
+        this.packets = packets;
+    }
+    
     public String getAuthToken() {
         return authToken;
     }
@@ -51,5 +72,71 @@ public class WsMessage {
     public void setAuthToken(String authToken) {
         this.authToken = authToken;
     }
+    
+    /**
+     * Set by the client when authenticating if it accepts frames with multiple packets
+     * 
+     * @return
+     */
+    public Boolean getBatched() {
+        return batched;
+    }
+    
+    public void setBatched(Boolean batched) {
+        this.batched = batched;
+    }
+    
+    /**
+     * Set by the client when authenticating if queued position reports may be replaced by newer ones from the same
+     * target when it cannot keep up
+     * 
+     * @return
+     */
+    public Boolean getConflate() {
+        return conflate;
+    }
+    
+    public void setConflate(Boolean conflate) {
+        this.conflate = conflate;
+    }
+    
+    /**
+     * Area filter set by the client
+     * 
+     * @return
+     */
+    public FilterMessage getFilter() {
+        return filter;
+    }
+    
+    public void setFilter(FilterMessage filter) {
+        this.filter = filter;
+    }
+    
+    /**
+     * Set by the client to receive the target table and its changes
+     * 
+     * @return
+     */
+    public Boolean getTargetTable() {
+        return targetTable;
+    }
+    
+    public void setTargetTable(Boolean targetTable) {
+        this.targetTable = targetTable;
+    }
+    
+    /**
+     * Changes to the target table sent to clients receiving the target table. The first one is the full table.
+     * 
+     * @return
+     */
+    public TargetTableDeltaMessage getTargetTableDelta() {
+        return targetTableDelta;
+    }
+    
+    public void setTargetTableDelta(TargetTableDeltaMessage targetTableDelta) {
+        this.targetTableDelta = targetTableDelta;
+    }
 
 }
@@ -0,0 +1,136 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import java.util.Arrays;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Wheel of buckets holding targets by the time of their last message. Each bucket covers a tick of time, and bucket
+ * numbers map to slots of the wheel modulo its size. A target is added when it first appears and stays in its bucket
+ * when updated. When its bucket is due it is handed out as a candidate, and the owner either removes it or adds it
+ * again with the time of its latest message. Expiring targets therefore costs work in proportion to the targets in the
+ * due buckets instead of the size of the table, and every target is looked at about once per time to live.
+ * <p>
+ * Buckets further ahead than the size of the wheel share slots with earlier buckets. Their targets are handed out
+ * too early and added again, which costs time but not correctness.
+ */
+@NotThreadSafe
+class ExpiryWheel {
+
+    private static final int[] NO_TARGETS = new int[0];
+
+    private static final int SHRINK_LENGTH = 256;
+
+    private final long tick;
+
+    private final int mask;
+
+    private final int[][] slots;
+
+    private final int[] sizes;
+
+    /**
+     * First bucket that may hold targets, -1 before the first target is added
+     */
+    private long cursor = -1;
+
+    private int size;
+
+    /**
+     * @param buckets
+     *            number of slots, rounded up to a power of two
+     * @param tick
+     *            time in milliseconds covered by each bucket
+     */
+    ExpiryWheel(int buckets, long tick) {
+        int capacity = Integer.highestOneBit(Math.max(2, buckets) - 1) << 1;
+        this.tick = tick;
+        this.mask = capacity - 1;
+        this.slots = new int[capacity][];
+        this.sizes = new int[capacity];
+        Arrays.fill(slots, NO_TARGETS);
+    }
+
+    /**
+     * Add target to the bucket of its last message
+     * 
+     * @param mmsi
+     * @param lastMessage
+     */
+    void add(int mmsi, long lastMessage) {
+        long bucket = Math.max(0, lastMessage) / tick;
+        if (cursor < 0) {
+            cursor = bucket;
+        }
+        // Targets older than the cursor are due at the next drain
+        int i = (int) (Math.max(bucket, cursor) & mask);
+        int[] slot = slots[i];
+        if (sizes[i] == slot.length) {
+            slot = Arrays.copyOf(slot, Math.max(8, 2 * slot.length));
+            slots[i] = slot;
+        }
+        slot[sizes[i]++] = mmsi;
+        size++;
+    }
+
+    /**
+     * Take the targets of all buckets that may hold targets with last message before a given time. The targets still
+     * alive must be added again by the caller.
+     * 
+     * @param minLastMessage
+     * @return the candidates
+     */
+    int[] drain(long minLastMessage) {
+        if (cursor < 0 || minLastMessage <= 0) {
+            return NO_TARGETS;
+        }
+        long last = (minLastMessage - 1) / tick;
+        if (last < cursor) {
+            return NO_TARGETS;
+        }
+        long count = Math.min(last - cursor + 1, slots.length);
+        int total = 0;
+        for (long b = cursor; b < cursor + count; b++) {
+            total += sizes[(int) (b & mask)];
+        }
+        int[] targets = new int[total];
+        int n = 0;
+        for (long b = cursor; b < cursor + count; b++) {
+            int i = (int) (b & mask);
+            System.arraycopy(slots[i], 0, targets, n, sizes[i]);
+            n += sizes[i];
+            sizes[i] = 0;
+            if (slots[i].length > SHRINK_LENGTH) {
+                slots[i] = NO_TARGETS;
+            }
+        }
+        size -= total;
+        // The last bucket may also hold targets that are still alive, so it is drained again next time
+        cursor = last;
+        return targets;
+    }
+
+    /**
+     * Number of targets in the wheel
+     * 
+     * @return
+     */
+    int size() {
+        return size;
+    }
+
+}
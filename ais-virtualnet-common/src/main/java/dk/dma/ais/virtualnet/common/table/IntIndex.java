@@ -0,0 +1,137 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import java.util.Arrays;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Map from non-negative int keys to int values using open addressing with linear probing, so entries are not boxed
+ */
+@NotThreadSafe
+final class IntIndex {
+
+    /**
+     * Free entry, keys are never negative
+     */
+    private static final int NO_KEY = -1;
+
+    private int[] keys;
+
+    private int[] values;
+
+    private int size;
+
+    IntIndex() {
+        allocate(16);
+    }
+
+    /**
+     * @param key
+     * @return the value or -1 if the key is not in the map
+     */
+    int get(int key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key, mask);; i = i + 1 & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            if (keys[i] == NO_KEY) {
+                return -1;
+            }
+        }
+    }
+
+    void put(int key, int value) {
+        int mask = keys.length - 1;
+        int i = hash(key, mask);
+        while (keys[i] != NO_KEY) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = i + 1 & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > keys.length / 2) {
+            int[] k = keys;
+            int[] v = values;
+            allocate(2 * k.length);
+            for (int j = 0; j < k.length; j++) {
+                if (k[j] != NO_KEY) {
+                    insert(k[j], v[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param key
+     * @return the value removed or -1 if the key was not in the map
+     */
+    int remove(int key) {
+        int mask = keys.length - 1;
+        int i = hash(key, mask);
+        while (keys[i] != key) {
+            if (keys[i] == NO_KEY) {
+                return -1;
+            }
+            i = i + 1 & mask;
+        }
+        int value = values[i];
+        // Shift later entries of the probe sequence back, so lookups never stop early at the freed entry
+        for (int j = i + 1 & mask; keys[j] != NO_KEY; j = j + 1 & mask) {
+            int home = hash(keys[j], mask);
+            if ((j - home & mask) >= (j - i & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = NO_KEY;
+        size--;
+        return value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void allocate(int length) {
+        keys = new int[length];
+        values = new int[length];
+        Arrays.fill(keys, NO_KEY);
+        size = 0;
+    }
+
+    private void insert(int key, int value) {
+        int mask = keys.length - 1;
+        int i = hash(key, mask);
+        while (keys[i] != NO_KEY) {
+            i = i + 1 & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    private static int hash(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ h >>> 16) & mask;
+    }
+
+}
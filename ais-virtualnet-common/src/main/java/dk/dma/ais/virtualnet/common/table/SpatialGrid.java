@@ -0,0 +1,336 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.jcip.annotations.ThreadSafe;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Fixed cell grid index of target positions. The world is divided into cells of equal size in degrees, and every
+ * target is kept in the cell of its latest position. Queries only visit the cells overlapping the searched area, so
+ * they take time proportional to the targets near the area rather than to all targets.
+ * <p>
+ * Updates are serialized, queries run concurrently with updates without locking and see a weakly consistent view.
+ */
+@ThreadSafe
+public class SpatialGrid {
+
+    /**
+     * Default cell size in degrees, about 28 km north-south
+     */
+    public static final double DEFAULT_CELL_SIZE = 0.25;
+
+    /**
+     * Meters per degree of latitude, rounded down so searched areas are never too small
+     */
+    private static final double METERS_PER_DEGREE = 110000;
+
+    private static final Comparator<Neighbour> FARTHEST_FIRST = new Comparator<Neighbour>() {
+        @Override
+        public int compare(Neighbour n1, Neighbour n2) {
+            return Double.compare(n2.distance, n1.distance);
+        }
+    };
+
+    private static final Comparator<Neighbour> NEAREST_FIRST = Collections.reverseOrder(FARTHEST_FIRST);
+
+    private final double cellSize;
+
+    private final int latCells;
+
+    private final int lonCells;
+
+    /**
+     * Map from cell to the targets and positions in the cell
+     */
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<Integer, Position>> cells = new ConcurrentHashMap<>();
+
+    /**
+     * Map from target to its current cell
+     */
+    private final ConcurrentHashMap<Integer, Long> targetCells = new ConcurrentHashMap<>();
+
+    public SpatialGrid() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * @param cellSize
+     *            cell size in degrees
+     */
+    public SpatialGrid(double cellSize) {
+        if (cellSize <= 0 || cellSize > 90) {
+            throw new IllegalArgumentException("Invalid cell size: " + cellSize);
+        }
+        this.cellSize = cellSize;
+        this.latCells = (int) Math.ceil(180 / cellSize);
+        this.lonCells = (int) Math.ceil(360 / cellSize);
+    }
+
+    /**
+     * Set position of target, moving it to another cell if needed
+     * 
+     * @param mmsi
+     * @param position
+     */
+    public synchronized void update(int mmsi, Position position) {
+        long cell = cell(latIndex(position.getLatitude()), lonIndex(position.getLongitude()));
+        Long old = targetCells.put(mmsi, cell);
+        if (old != null && old != cell) {
+            removeFromCell(old, mmsi);
+        }
+        ConcurrentHashMap<Integer, Position> targets = cells.get(cell);
+        if (targets == null) {
+            targets = new ConcurrentHashMap<>();
+            cells.put(cell, targets);
+        }
+        targets.put(mmsi, position);
+    }
+
+    /**
+     * Remove target from the index
+     * 
+     * @param mmsi
+     */
+    public synchronized void remove(int mmsi) {
+        Long cell = targetCells.remove(mmsi);
+        if (cell != null) {
+            removeFromCell(cell, mmsi);
+        }
+    }
+
+    private void removeFromCell(long cell, int mmsi) {
+        Map<Integer, Position> targets = cells.get(cell);
+        if (targets != null) {
+            targets.remove(mmsi);
+            // Drop empty cells so they are not visited by queries
+            if (targets.isEmpty()) {
+                cells.remove(cell);
+            }
+        }
+    }
+
+    /**
+     * Number of indexed targets
+     * 
+     * @return
+     */
+    public int size() {
+        return targetCells.size();
+    }
+
+    /**
+     * Find targets within a bounding box. If minLon is greater than maxLon the box crosses the 180th meridian.
+     * 
+     * @param minLat
+     * @param minLon
+     * @param maxLat
+     * @param maxLon
+     * @return MMSI of the targets
+     */
+    public List<Integer> findWithinBox(double minLat, double minLon, double maxLat, double maxLon) {
+        List<Integer> result = new ArrayList<>();
+        if (minLat > maxLat) {
+            return result;
+        }
+        double lonWidth = maxLon >= minLon ? maxLon - minLon : maxLon - minLon + 360;
+        for (Map.Entry<Integer, Position> e : candidates(minLat, maxLat, minLon, lonWidth)) {
+            Position p = e.getValue();
+            if (p.getLatitude() >= minLat && p.getLatitude() <= maxLat && lonWithin(p.getLongitude(), minLon, lonWidth)) {
+                result.add(e.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find targets within a rhumb line distance of a position
+     * 
+     * @param center
+     * @param radius
+     *            radius in meters
+     * @return MMSI of the targets
+     */
+    public List<Integer> findWithinRadius(Position center, double radius) {
+        List<Integer> result = new ArrayList<>();
+        double latSpan = radius / METERS_PER_DEGREE;
+        double minLat = center.getLatitude() - latSpan;
+        double maxLat = center.getLatitude() + latSpan;
+        double cos = Math.cos(Math.toRadians(Math.min(90, Math.max(Math.abs(minLat), Math.abs(maxLat)))));
+        double lonSpan = cos < 1e-6 ? 180 : latSpan / cos;
+        // Near the poles or for very large radii all longitudes are covered
+        double minLon = lonSpan >= 180 ? -180 : center.getLongitude() - lonSpan;
+        double lonWidth = lonSpan >= 180 ? 360 : 2 * lonSpan;
+        for (Map.Entry<Integer, Position> e : candidates(minLat, maxLat, minLon, lonWidth)) {
+            if (e.getValue().rhumbLineDistanceTo(center) <= radius) {
+                result.add(e.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the targets nearest to a position by rhumb line distance. Cells are visited in growing rings around the
+     * position until no closer target can be found.
+     * 
+     * @param center
+     * @param k
+     *            maximum number of targets to return
+     * @return MMSI of the targets, nearest first
+     */
+    public List<Integer> findNearest(Position center, int k) {
+        List<Integer> result = new ArrayList<>();
+        if (k <= 0) {
+            return result;
+        }
+        // Never more than the number of targets, whatever is asked for
+        PriorityQueue<Neighbour> best = new PriorityQueue<>(Math.min(k, size()) + 1, FARTHEST_FIRST);
+        int cLat = latIndex(center.getLatitude());
+        int cLon = lonIndex(center.getLongitude());
+        int maxRing = Math.max(latCells, lonCells / 2);
+        for (int r = 0; r <= maxRing; r++) {
+            // When the rings get larger than the populated part of the grid a plain scan is cheaper
+            long ringCells = (2L * r + 1) * (2L * r + 1);
+            if (r > 0 && ringCells > 4L * cells.size()) {
+                best.clear();
+                for (Map<Integer, Position> targets : cells.values()) {
+                    offer(best, k, center, targets);
+                }
+                break;
+            }
+            for (int dLat = -r; dLat <= r; dLat++) {
+                int latIdx = cLat + dLat;
+                if (latIdx < 0 || latIdx >= latCells) {
+                    continue;
+                }
+                boolean edge = Math.abs(dLat) == r;
+                for (int dLon = -r; dLon <= r; dLon += edge ? 1 : 2 * r) {
+                    // Do not visit the same cell twice when rings wrap around
+                    if (dLon > lonCells / 2 || dLon < -((lonCells - 1) / 2)) {
+                        continue;
+                    }
+                    Map<Integer, Position> targets = cells.get(cell(latIdx, wrap(cLon + dLon)));
+                    if (targets != null) {
+                        offer(best, k, center, targets);
+                    }
+                    if (r == 0) {
+                        break;
+                    }
+                }
+            }
+            if (best.size() == k && best.peek().distance < minDistance(center, r + 1)) {
+                break;
+            }
+        }
+        List<Neighbour> sorted = new ArrayList<>(best);
+        Collections.sort(sorted, NEAREST_FIRST);
+        for (Neighbour n : sorted) {
+            result.add(n.mmsi);
+        }
+        return result;
+    }
+
+    private static void offer(PriorityQueue<Neighbour> best, int k, Position center, Map<Integer, Position> targets) {
+        for (Map.Entry<Integer, Position> e : targets.entrySet()) {
+            double distance = e.getValue().rhumbLineDistanceTo(center);
+            if (best.size() < k) {
+                best.add(new Neighbour(e.getKey(), distance));
+            } else if (distance < best.peek().distance) {
+                best.poll();
+                best.add(new Neighbour(e.getKey(), distance));
+            }
+        }
+    }
+
+    /**
+     * Lower bound of the distance from a position to any point outside the rings before the given ring. Such a point
+     * is either outside the latitude band of the rings, or inside the band but further away in longitude.
+     */
+    private double minDistance(Position center, int ring) {
+        double degrees = (ring - 1) * cellSize;
+        if (degrees <= 0) {
+            return 0;
+        }
+        double maxLat = Math.min(90, Math.abs(center.getLatitude()) + (ring + 1) * cellSize);
+        double lonFactor = Math.cos(Math.toRadians(maxLat));
+        return degrees * METERS_PER_DEGREE * Math.min(1, lonFactor);
+    }
+
+    /**
+     * Targets in the cells overlapping an area
+     */
+    private List<Map.Entry<Integer, Position>> candidates(double minLat, double maxLat, double minLon, double lonWidth) {
+        List<Map.Entry<Integer, Position>> result = new ArrayList<>();
+        int latFrom = latIndex(minLat);
+        int latTo = latIndex(maxLat);
+        int lonFrom = lonIndex(minLon);
+        int lonCount = lonWidth >= 360 - cellSize ? lonCells : Math.min(lonCells,
+                (int) Math.floor((minLon + lonWidth + 180) / cellSize) - (int) Math.floor((minLon + 180) / cellSize) + 1);
+        for (int latIdx = latFrom; latIdx <= latTo; latIdx++) {
+            for (int i = 0; i < lonCount; i++) {
+                Map<Integer, Position> targets = cells.get(cell(latIdx, wrap(lonFrom + i)));
+                if (targets != null) {
+                    result.addAll(targets.entrySet());
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean lonWithin(double lon, double minLon, double lonWidth) {
+        double d = (lon - minLon) % 360;
+        if (d < 0) {
+            d += 360;
+        }
+        return d <= lonWidth;
+    }
+
+    private int latIndex(double lat) {
+        int idx = (int) Math.floor((lat + 90) / cellSize);
+        return Math.max(0, Math.min(latCells - 1, idx));
+    }
+
+    private int lonIndex(double lon) {
+        return wrap((int) Math.floor((lon + 180) / cellSize));
+    }
+
+    private int wrap(int lonIdx) {
+        int idx = lonIdx % lonCells;
+        return idx < 0 ? idx + lonCells : idx;
+    }
+
+    private static long cell(int latIdx, int lonIdx) {
+        return (long) latIdx << 32 | lonIdx;
+    }
+
+    private static final class Neighbour {
+        final int mmsi;
+        final double distance;
+
+        Neighbour(int mmsi, double distance) {
+            this.mmsi = mmsi;
+            this.distance = distance;
+        }
+    }
+
+}
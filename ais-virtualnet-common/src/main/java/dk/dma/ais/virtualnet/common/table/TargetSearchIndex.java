@@ -0,0 +1,390 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Trigram index of target names and MMSI numbers. Every target is listed under the trigrams of its name and of its
+ * MMSI digits, both prefixed with two start markers, so that queries of one or two characters can use the trigrams
+ * at the start of a term.
+ * <p>
+ * A search looks up the trigram of the query with the fewest targets and checks only those targets, so the work
+ * depends on how selective the query is rather than on the number of targets. Queries of three or more characters
+ * match anywhere in the name or MMSI, shorter queries match the start of them.
+ * <p>
+ * Updates and searches are serialized. Updates that do not change the name of a known target return without
+ * locking, so the index can be updated for every message. A rename only touches the trigrams that differ between the
+ * old and the new name. The trigrams at the start of MMSI numbers list nearly every target, so long postings keep an
+ * index of where each target is listed, and removing a target takes constant time per trigram.
+ */
+@ThreadSafe
+public class TargetSearchIndex {
+
+    private static final char START = '\u0001';
+
+    /**
+     * Match ranks, best first
+     */
+    private static final int EXACT = 0;
+    private static final int PREFIX = 1;
+    private static final int WORD = 2;
+    private static final int CONTAINS = 3;
+
+    /**
+     * Normalized name of indexed targets, empty if no name is known
+     */
+    private final ConcurrentHashMap<Integer, String> names = new ConcurrentHashMap<>();
+
+    @GuardedBy("this")
+    private final Map<String, Posting> postings = new HashMap<>();
+
+    /**
+     * Postings longer than this keep an index of where targets are listed
+     */
+    private static final int INDEXED_POSTING_SIZE = 32;
+
+    /**
+     * Targets listed under a trigram
+     */
+    private static final class Posting {
+        int[] mmsis = new int[4];
+        int size;
+
+        /**
+         * Position in {@link #mmsis} by MMSI, null while the posting is short enough to scan
+         */
+        IntIndex positions;
+
+        void add(int mmsi) {
+            if (size == mmsis.length) {
+                mmsis = Arrays.copyOf(mmsis, size * 2);
+            }
+            if (positions != null) {
+                positions.put(mmsi, size);
+            }
+            mmsis[size++] = mmsi;
+            if (positions == null && size > INDEXED_POSTING_SIZE) {
+                positions = new IntIndex();
+                for (int i = 0; i < size; i++) {
+                    positions.put(mmsis[i], i);
+                }
+            }
+        }
+
+        void remove(int mmsi) {
+            int i = positions != null ? positions.remove(mmsi) : indexOf(mmsi);
+            if (i < 0) {
+                return;
+            }
+            // Move the last target into the hole
+            int last = mmsis[--size];
+            if (i != size) {
+                mmsis[i] = last;
+                if (positions != null) {
+                    positions.put(last, i);
+                }
+            }
+        }
+
+        private int indexOf(int mmsi) {
+            for (int i = 0; i < size; i++) {
+                if (mmsis[i] == mmsi) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Match found by a search
+     */
+    private static final class Match {
+        final int mmsi;
+        final String name;
+        final int rank;
+
+        Match(int mmsi, String name, int rank) {
+            this.mmsi = mmsi;
+            this.name = name;
+            this.rank = rank;
+        }
+    }
+
+    /**
+     * Orders matches by rank, then targets with a name by name, then by MMSI
+     */
+    private static final Comparator<Match> BEST_FIRST = new Comparator<Match>() {
+        @Override
+        public int compare(Match m1, Match m2) {
+            if (m1.rank != m2.rank) {
+                return m1.rank < m2.rank ? -1 : 1;
+            }
+            if (m1.name.isEmpty() != m2.name.isEmpty()) {
+                return m1.name.isEmpty() ? 1 : -1;
+            }
+            int c = m1.name.compareTo(m2.name);
+            if (c != 0) {
+                return c;
+            }
+            return m1.mmsi < m2.mmsi ? -1 : m1.mmsi == m2.mmsi ? 0 : 1;
+        }
+    };
+
+    private static final Comparator<Match> WORST_FIRST = Collections.reverseOrder(BEST_FIRST);
+
+    /**
+     * Add target or change its name
+     * 
+     * @param mmsi
+     * @param name
+     *            the name of the target, or null to keep the current name
+     */
+    public void update(int mmsi, String name) {
+        String normalized = name == null ? null : normalize(name);
+        String current = names.get(mmsi);
+        if (current != null && (normalized == null || normalized.equals(current))) {
+            return;
+        }
+        synchronized (this) {
+            current = names.get(mmsi);
+            if (normalized == null) {
+                if (current != null) {
+                    return;
+                }
+                normalized = "";
+            }
+            Set<String> added = grams(mmsi, normalized);
+            if (current != null) {
+                if (current.equals(normalized)) {
+                    return;
+                }
+                // Only the trigrams of the old name not in the new name or MMSI are removed, and vice versa
+                Set<String> removed = grams(mmsi, current);
+                Set<String> kept = new HashSet<>(removed);
+                kept.retainAll(added);
+                removed.removeAll(kept);
+                added.removeAll(kept);
+                for (String gram : removed) {
+                    removePosting(gram, mmsi);
+                }
+            }
+            for (String gram : added) {
+                Posting posting = postings.get(gram);
+                if (posting == null) {
+                    posting = new Posting();
+                    postings.put(gram, posting);
+                }
+                posting.add(mmsi);
+            }
+            names.put(mmsi, normalized);
+        }
+    }
+
+    /**
+     * Remove target from the index
+     * 
+     * @param mmsi
+     */
+    public synchronized void remove(int mmsi) {
+        String current = names.remove(mmsi);
+        if (current != null) {
+            for (String gram : grams(mmsi, current)) {
+                removePosting(gram, mmsi);
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void removePosting(String gram, int mmsi) {
+        Posting posting = postings.get(gram);
+        if (posting != null) {
+            posting.remove(mmsi);
+            if (posting.size == 0) {
+                postings.remove(gram);
+            }
+        }
+    }
+
+    /**
+     * Find targets whose name or MMSI contains the query. Exact matches come first, then matches at the start of the
+     * name or MMSI, then matches at the start of a word in the name, then other matches. Targets ranked equally are
+     * ordered by name.
+     * 
+     * @param query
+     *            case is ignored
+     * @param limit
+     *            maximum number of targets
+     * @return the MMSI numbers of the best matches, best first
+     */
+    public List<Integer> search(String query, int limit) {
+        String q = normalize(query);
+        if (q.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        PriorityQueue<Match> best = new PriorityQueue<>(Math.min(limit, 1024) + 1, WORST_FIRST);
+        synchronized (this) {
+            Posting candidates = rarestPosting(q);
+            if (candidates == null) {
+                return Collections.emptyList();
+            }
+            String word = " " + q;
+            for (int i = 0; i < candidates.size; i++) {
+                int mmsi = candidates.mmsis[i];
+                String name = names.get(mmsi);
+                int rank = Math.min(rank(name, q, word), rank(Integer.toString(mmsi), q, word));
+                if (rank > CONTAINS) {
+                    continue;
+                }
+                Match match = new Match(mmsi, name, rank);
+                if (best.size() < limit) {
+                    best.add(match);
+                } else if (BEST_FIRST.compare(match, best.peek()) < 0) {
+                    best.poll();
+                    best.add(match);
+                }
+            }
+        }
+        List<Match> matches = new ArrayList<>(best);
+        Collections.sort(matches, BEST_FIRST);
+        List<Integer> result = new ArrayList<>(matches.size());
+        for (Match match : matches) {
+            result.add(match.mmsi);
+        }
+        return result;
+    }
+
+    /**
+     * Find the posting of the query trigram listing the fewest targets
+     * 
+     * @return the posting or null if a trigram of the query is not indexed
+     */
+    @GuardedBy("this")
+    private Posting rarestPosting(String q) {
+        List<String> grams = new ArrayList<>();
+        if (q.length() < 3) {
+            // Only the start of terms can be searched
+            grams.add(q.length() == 1 ? "" + START + START + q : START + q);
+        } else {
+            for (int i = 0; i + 3 <= q.length(); i++) {
+                grams.add(q.substring(i, i + 3));
+            }
+        }
+        Posting rarest = null;
+        for (String gram : grams) {
+            Posting posting = postings.get(gram);
+            if (posting == null) {
+                return null;
+            }
+            if (rarest == null || posting.size < rarest.size) {
+                rarest = posting;
+            }
+        }
+        return rarest;
+    }
+
+    /**
+     * Rank a match of the query in a term
+     * 
+     * @param word
+     *            the query prefixed with a space
+     * @return the rank, or greater than {@link #CONTAINS} if there is no match
+     */
+    private static int rank(String term, String q, String word) {
+        if (term == null) {
+            return CONTAINS + 1;
+        }
+        if (term.equals(q)) {
+            return EXACT;
+        }
+        if (term.startsWith(q)) {
+            return PREFIX;
+        }
+        if (q.length() < 3) {
+            // Shorter queries only match the start of terms
+            return CONTAINS + 1;
+        }
+        if (term.contains(word)) {
+            return WORD;
+        }
+        return term.contains(q) ? CONTAINS : CONTAINS + 1;
+    }
+
+    /**
+     * Get the distinct trigrams of the name and MMSI of a target
+     */
+    private static Set<String> grams(int mmsi, String name) {
+        Set<String> grams = new LinkedHashSet<>();
+        addGrams(grams, Integer.toString(mmsi));
+        if (!name.isEmpty()) {
+            addGrams(grams, name);
+        }
+        return grams;
+    }
+
+    private static void addGrams(Set<String> grams, String term) {
+        String padded = "" + START + START + term;
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+    }
+
+    /**
+     * Upper case the text, trim it and collapse runs of white space
+     */
+    static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Number of indexed targets
+     * 
+     * @return
+     */
+    public int size() {
+        return names.size();
+    }
+
+}
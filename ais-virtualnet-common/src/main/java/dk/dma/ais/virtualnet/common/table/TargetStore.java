@@ -0,0 +1,566 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import dk.dma.ais.message.AisMessage;
+import dk.dma.ais.message.AisStaticCommon;
+import dk.dma.ais.message.IVesselPositionMessage;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Store of target state keyed by MMSI. Targets are kept in open addressing slots of parallel primitive arrays, so a
+ * target costs a few array elements instead of a map node, a boxed key, an entry object and its monitor.
+ * <p>
+ * Writers are serialized. Every slot has a sequence number that is odd while the slot is being written. Readers
+ * never lock: they read a slot and retry if the sequence number was odd or changed meanwhile. Growing the table
+ * copies the slots to a new table, and readers holding the old table see the state from before the copy.
+ * <p>
+ * Readers get {@link TargetTableEntry} snapshots that are not updated afterwards.
+ * <p>
+ * Every change gets a new version number. Slots keep the version of their last change and removals are kept as
+ * tombstones for a while, so the changes since a version can be found without comparing whole tables. Versions start
+ * from the current time in microseconds so they keep increasing across restarts.
+ * <p>
+ * Targets are queued in an {@link ExpiryWheel} by the time of their last message, so removing old targets only looks
+ * at the targets that may have expired instead of scanning the whole table.
+ */
+@ThreadSafe
+public class TargetStore {
+
+    private static final int EMPTY = -1;
+
+    private static final int REMOVED = -2;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Latitude and longitude of targets without a position
+     */
+    private static final long NO_POSITION = Double.doubleToRawLongBits(Double.NaN);
+
+    /**
+     * Maximum number of removals kept for finding changes
+     */
+    private static final int MAX_TOMBSTONES = 65536;
+
+    /**
+     * Time covered by each bucket of the expiry wheel
+     */
+    private static final long EXPIRY_TICK = 1000;
+
+    /**
+     * Buckets in the expiry wheel, enough to cover the time to live of targets without sharing slots
+     */
+    private static final int EXPIRY_BUCKETS = 1024;
+
+    /**
+     * Slot arrays of one table size
+     */
+    private static final class Table {
+        final int mask;
+        final AtomicIntegerArray keys;
+        final AtomicIntegerArray sequences;
+        final AtomicLongArray versions;
+        final AtomicLongArray lastMessages;
+        final AtomicLongArray lats;
+        final AtomicLongArray lons;
+        final AtomicReferenceArray<String> names;
+
+        Table(int capacity) {
+            mask = capacity - 1;
+            keys = new AtomicIntegerArray(capacity);
+            sequences = new AtomicIntegerArray(capacity);
+            versions = new AtomicLongArray(capacity);
+            lastMessages = new AtomicLongArray(capacity);
+            lats = new AtomicLongArray(capacity);
+            lons = new AtomicLongArray(capacity);
+            names = new AtomicReferenceArray<>(capacity);
+            for (int i = 0; i < capacity; i++) {
+                keys.set(i, EMPTY);
+            }
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+    }
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+
+    /**
+     * Number of targets
+     */
+    @GuardedBy("this")
+    private int size;
+
+    /**
+     * Number of slots with a target or a removed target
+     */
+    @GuardedBy("this")
+    private int used;
+
+    @GuardedBy("this")
+    private final ExpiryWheel expiry = new ExpiryWheel(EXPIRY_BUCKETS, EXPIRY_TICK);
+
+    /**
+     * Version of the last change. Written after the change itself, so readers seeing a version see all changes up to
+     * it.
+     */
+    private volatile long version = System.currentTimeMillis() * 1000;
+
+    private volatile Tombstones tombstones = new Tombstones(version, new long[0], new int[0]);
+
+    /**
+     * Removed targets, oldest first
+     */
+    private static final class Tombstones {
+        /**
+         * Removals up to and including this version may have been dropped
+         */
+        final long floor;
+        final long[] versions;
+        final int[] mmsis;
+
+        Tombstones(long floor, long[] versions, int[] mmsis) {
+            this.floor = floor;
+            this.versions = versions;
+            this.mmsis = mmsis;
+        }
+    }
+
+    /**
+     * Update target from message. Position reports set the position and static messages the name.
+     * 
+     * @param message
+     * @param now
+     *            time of the message in milliseconds
+     * @return the new position of the target or null if the message did not have one
+     */
+    public synchronized Position update(AisMessage message, long now) {
+        int mmsi = message.getUserId();
+        if (mmsi < 0) {
+            return null;
+        }
+        Position position = null;
+        String name = null;
+        if (message instanceof IVesselPositionMessage) {
+            position = ((IVesselPositionMessage) message).getPos().getGeoLocation();
+        } else if (message instanceof AisStaticCommon) {
+            String n = ((AisStaticCommon) message).getName();
+            if (n != null) {
+                name = AisMessage.trimText(n);
+            }
+        }
+        Table t = table;
+        int i = find(t, mmsi);
+        if (i < 0) {
+            i = insert(mmsi);
+            t = table;
+            expiry.add(mmsi, now);
+        }
+        long v = version + 1;
+        int seq = begin(t, i);
+        t.versions.set(i, v);
+        t.lastMessages.set(i, now);
+        if (position != null) {
+            t.lats.set(i, Double.doubleToRawLongBits(position.getLatitude()));
+            t.lons.set(i, Double.doubleToRawLongBits(position.getLongitude()));
+        }
+        if (name != null) {
+            t.names.set(i, name);
+        }
+        end(t, i, seq);
+        version = v;
+        return position;
+    }
+
+    /**
+     * Put target read back from a snapshot. Targets with a newer message in the store are left as they are.
+     * 
+     * @param entry
+     * @return true if the target was put in the store
+     */
+    synchronized boolean restore(TargetTableEntry entry) {
+        int mmsi = entry.getMmsi();
+        if (mmsi < 0) {
+            return false;
+        }
+        Table t = table;
+        int i = find(t, mmsi);
+        if (i >= 0 && t.lastMessages.get(i) >= entry.getLastMessage()) {
+            return false;
+        }
+        if (i < 0) {
+            i = insert(mmsi);
+            t = table;
+            expiry.add(mmsi, entry.getLastMessage());
+        }
+        Position position = entry.getPosition();
+        long v = version + 1;
+        int seq = begin(t, i);
+        t.versions.set(i, v);
+        t.lastMessages.set(i, entry.getLastMessage());
+        if (position != null) {
+            t.lats.set(i, Double.doubleToRawLongBits(position.getLatitude()));
+            t.lons.set(i, Double.doubleToRawLongBits(position.getLongitude()));
+        }
+        if (entry.getName() != null) {
+            t.names.set(i, entry.getName());
+        }
+        end(t, i, seq);
+        version = v;
+        return true;
+    }
+
+    /**
+     * Remove targets without messages since a given time. Only targets in the due buckets of the expiry wheel are
+     * looked at, so calling this often is cheap.
+     * 
+     * @param minLastMessage
+     * @return the MMSI numbers of the removed targets
+     */
+    public synchronized List<Integer> removeOlderThan(long minLastMessage) {
+        List<Integer> removed = new ArrayList<>();
+        Table t = table;
+        for (int mmsi : expiry.drain(minLastMessage)) {
+            int i = find(t, mmsi);
+            if (i < 0) {
+                continue;
+            }
+            long lastMessage = t.lastMessages.get(i);
+            if (lastMessage >= minLastMessage) {
+                // Updated since it was queued
+                expiry.add(mmsi, lastMessage);
+                continue;
+            }
+            int seq = begin(t, i);
+            t.keys.set(i, REMOVED);
+            t.names.set(i, null);
+            end(t, i, seq);
+            size--;
+            removed.add(mmsi);
+        }
+        if (!removed.isEmpty()) {
+            long v = version + 1;
+            addTombstones(removed, v);
+            version = v;
+        }
+        return removed;
+    }
+
+    @GuardedBy("this")
+    private void addTombstones(List<Integer> removed, long v) {
+        Tombstones old = tombstones;
+        int keep = Math.min(old.mmsis.length, MAX_TOMBSTONES - Math.min(removed.size(), MAX_TOMBSTONES));
+        int drop = old.mmsis.length - keep;
+        int skip = Math.max(0, removed.size() - MAX_TOMBSTONES);
+        long floor = old.floor;
+        if (drop > 0) {
+            floor = old.versions[drop - 1];
+        }
+        if (skip > 0) {
+            floor = v;
+        }
+        int length = keep + removed.size() - skip;
+        long[] versions = new long[length];
+        int[] mmsis = new int[length];
+        System.arraycopy(old.versions, drop, versions, 0, keep);
+        System.arraycopy(old.mmsis, drop, mmsis, 0, keep);
+        for (int i = keep; i < length; i++) {
+            versions[i] = v;
+            mmsis[i] = removed.get(skip + i - keep);
+        }
+        tombstones = new Tombstones(floor, versions, mmsis);
+    }
+
+    /**
+     * Get snapshot of target
+     * 
+     * @param mmsi
+     * @return the target or null if not in the store
+     */
+    public TargetTableEntry get(int mmsi) {
+        Table t = table;
+        int i = find(t, mmsi);
+        return i < 0 ? null : read(t, i, mmsi);
+    }
+
+    /**
+     * Get snapshots of targets with messages since a given time
+     * 
+     * @param minLastMessage
+     *            0 for all targets
+     * @return
+     */
+    public List<TargetTableEntry> getEntries(long minLastMessage) {
+        Table t = table;
+        List<TargetTableEntry> entries = new ArrayList<>();
+        for (int i = 0; i < t.capacity(); i++) {
+            int mmsi = t.keys.get(i);
+            if (mmsi < 0 || t.lastMessages.get(i) < minLastMessage) {
+                continue;
+            }
+            TargetTableEntry entry = read(t, i, mmsi);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Iterate over snapshots of targets with messages since a given time without copying them to a list first. The
+     * iterator reads the slots as it goes, so targets changed while iterating may or may not be seen, but every target
+     * is seen at most once.
+     * 
+     * @param minLastMessage
+     *            0 for all targets
+     * @return
+     */
+    public Iterator<TargetTableEntry> iterateEntries(final long minLastMessage) {
+        final Table t = table;
+        return new Iterator<TargetTableEntry>() {
+            private int i;
+
+            private TargetTableEntry next = advance();
+
+            private TargetTableEntry advance() {
+                while (i < t.capacity()) {
+                    int slot = i++;
+                    int mmsi = t.keys.get(slot);
+                    if (mmsi < 0 || t.lastMessages.get(slot) < minLastMessage) {
+                        continue;
+                    }
+                    TargetTableEntry entry = read(t, slot, mmsi);
+                    if (entry != null) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public TargetTableEntry next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                TargetTableEntry entry = next;
+                next = advance();
+                return entry;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Get snapshots of targets changed after a version and with messages since a given time
+     * 
+     * @param since
+     * @param minLastMessage
+     * @return
+     */
+    public List<TargetTableEntry> getEntriesChangedSince(long since, long minLastMessage) {
+        Table t = table;
+        List<TargetTableEntry> entries = new ArrayList<>();
+        for (int i = 0; i < t.capacity(); i++) {
+            int mmsi = t.keys.get(i);
+            if (mmsi < 0 || t.versions.get(i) <= since || t.lastMessages.get(i) < minLastMessage) {
+                continue;
+            }
+            TargetTableEntry entry = read(t, i, mmsi);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Get targets removed after a version. A target may have been added again after it was removed.
+     * 
+     * @param since
+     * @return the MMSI numbers or null if removals that old are no longer known
+     */
+    public List<Integer> getRemovedSince(long since) {
+        Tombstones ts = tombstones;
+        if (since < ts.floor) {
+            return null;
+        }
+        List<Integer> removed = new ArrayList<>();
+        for (int i = ts.versions.length - 1; i >= 0 && ts.versions[i] > since; i--) {
+            removed.add(ts.mmsis[i]);
+        }
+        return removed;
+    }
+
+    /**
+     * Get time of the last message from target
+     * 
+     * @param mmsi
+     * @return the time in milliseconds or -1 if not in the store
+     */
+    public long getLastMessage(int mmsi) {
+        TargetTableEntry entry = get(mmsi);
+        return entry == null ? -1 : entry.getLastMessage();
+    }
+
+    /**
+     * Get version of the store. The version increases whenever a target is updated or removed.
+     * 
+     * @return
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Read slot consistently
+     * 
+     * @return the snapshot or null if the slot no longer holds the target
+     */
+    private static TargetTableEntry read(Table t, int i, int mmsi) {
+        while (true) {
+            int seq = t.sequences.get(i);
+            if ((seq & 1) != 0) {
+                // Being written
+                Thread.yield();
+                continue;
+            }
+            int key = t.keys.get(i);
+            long lastMessage = t.lastMessages.get(i);
+            long lat = t.lats.get(i);
+            long lon = t.lons.get(i);
+            String name = t.names.get(i);
+            if (t.sequences.get(i) != seq) {
+                continue;
+            }
+            if (key != mmsi) {
+                return null;
+            }
+            if (lat == NO_POSITION) {
+                return new TargetTableEntry(mmsi, name, lastMessage);
+            }
+            return new TargetTableEntry(mmsi, name, lastMessage, Double.longBitsToDouble(lat),
+                    Double.longBitsToDouble(lon));
+        }
+    }
+
+    private static int find(Table t, int mmsi) {
+        for (int i = hash(mmsi) & t.mask;; i = (i + 1) & t.mask) {
+            int key = t.keys.get(i);
+            if (key == mmsi) {
+                return i;
+            }
+            if (key == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Add target not in the table, growing the table if needed
+     * 
+     * @return the slot of the target
+     */
+    @GuardedBy("this")
+    private int insert(int mmsi) {
+        Table t = table;
+        if ((used + 1) * 10L > t.capacity() * 7L) {
+            // Grow unless it is enough to clear removed slots
+            rehash((size + 1) * 10L > t.capacity() * 3L ? t.capacity() * 2 : t.capacity());
+            t = table;
+        }
+        int i = hash(mmsi) & t.mask;
+        while (t.keys.get(i) >= 0) {
+            i = (i + 1) & t.mask;
+        }
+        if (t.keys.get(i) == EMPTY) {
+            used++;
+        }
+        size++;
+        int seq = begin(t, i);
+        t.versions.set(i, 0);
+        t.lastMessages.set(i, 0);
+        t.lats.set(i, NO_POSITION);
+        t.lons.set(i, NO_POSITION);
+        t.names.set(i, null);
+        t.keys.set(i, mmsi);
+        end(t, i, seq);
+        return i;
+    }
+
+    @GuardedBy("this")
+    private void rehash(int capacity) {
+        Table old = table;
+        Table t = new Table(capacity);
+        for (int j = 0; j < old.capacity(); j++) {
+            int mmsi = old.keys.get(j);
+            if (mmsi < 0) {
+                continue;
+            }
+            int i = hash(mmsi) & t.mask;
+            while (t.keys.get(i) != EMPTY) {
+                i = (i + 1) & t.mask;
+            }
+            t.keys.set(i, mmsi);
+            t.versions.set(i, old.versions.get(j));
+            t.lastMessages.set(i, old.lastMessages.get(j));
+            t.lats.set(i, old.lats.get(j));
+            t.lons.set(i, old.lons.get(j));
+            t.names.set(i, old.names.get(j));
+        }
+        used = size;
+        table = t;
+    }
+
+    private static int begin(Table t, int i) {
+        int seq = t.sequences.get(i) + 1;
+        t.sequences.set(i, seq);
+        return seq;
+    }
+
+    private static void end(Table t, int i, int seq) {
+        t.sequences.set(i, seq + 1);
+    }
+
+    private static int hash(int mmsi) {
+        int h = mmsi * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
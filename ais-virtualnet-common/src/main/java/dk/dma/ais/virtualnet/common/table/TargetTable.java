@@ -16,16 +16,20 @@ package dk.dma.ais.virtualnet.common.table;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.jcip.annotations.ThreadSafe;
 import dk.dma.ais.message.AisMessage;
 import dk.dma.ais.message.AisStaticCommon;
 import dk.dma.ais.message.IVesselPositionMessage;
 import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.virtualnet.common.message.TargetTableDeltaMessage;
 import dk.dma.ais.virtualnet.common.message.TargetTableMessage;
+import dk.dma.enav.model.geometry.Position;
 
 /**
  * Simple table of AIS vessel targets
@@ -33,10 +37,46 @@ import dk.dma.ais.virtualnet.common.message.TargetTableMessage;
 @ThreadSafe
 public class TargetTable {
     
-    private final ConcurrentHashMap<Integer, TargetTableEntry> targets = new ConcurrentHashMap<>();
+    private final TargetStore targets = new TargetStore();
+
+    /**
+     * Index of target positions
+     */
+    private final SpatialGrid grid = new SpatialGrid();
+
+    /**
+     * Index of target names and MMSI numbers
+     */
+    private final TargetSearchIndex searchIndex = new TargetSearchIndex();
+
+    /**
+     * Recent positions of targets, null if not kept
+     */
+    private final TrackHistory trackHistory;
+
+    private final List<ITargetRemovalListener> removalListeners = new CopyOnWriteArrayList<>();
+
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * Locks held while a target is changed in the store and the indexes, selected by MMSI. Expiry removes a target
+     * from the store before the indexes, so without the lock an update in between would leave the target in the store
+     * but not in the indexes.
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
     
     public TargetTable() {
-        
+        this(null);
+    }
+
+    /**
+     * @param trackHistory where to keep recent positions of targets, null to not keep them
+     */
+    public TargetTable(TrackHistory trackHistory) {
+        this.trackHistory = trackHistory;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
     }
     
     public void update(AisPacket packet) {
@@ -47,16 +87,56 @@ public class TargetTable {
         if (!(message instanceof IVesselPositionMessage) && !(message instanceof AisStaticCommon)) {
             return;
         }
-        TargetTableEntry newEntry = new TargetTableEntry();
-        TargetTableEntry entry = targets.putIfAbsent(message.getUserId(), newEntry);
-        if (entry == null) {
-            entry = newEntry;
+        String name = null;
+        if (message instanceof AisStaticCommon && ((AisStaticCommon) message).getName() != null) {
+            name = AisMessage.trimText(((AisStaticCommon) message).getName());
+        }
+        synchronized (lock(message.getUserId())) {
+            long now = System.currentTimeMillis();
+            Position position = targets.update(message, now);
+            // Maintain spatial index
+            if (position != null) {
+                grid.update(message.getUserId(), position);
+                if (trackHistory != null) {
+                    trackHistory.add(message.getUserId(), now, position);
+                }
+            }
+            // Maintain search index, which only changes for new targets and new names
+            if (message.getUserId() >= 0) {
+                searchIndex.update(message.getUserId(), name);
+            }
         }
-        entry.update(message);
     }
     
+    /**
+     * Put target read from a snapshot file unless a newer message has been received from it
+     * @param entry
+     * @return true if the target was added
+     */
+    boolean restore(TargetTableEntry entry) {
+        synchronized (lock(entry.getMmsi())) {
+            if (!targets.restore(entry)) {
+                return false;
+            }
+            Position position = entry.getPosition();
+            if (position != null) {
+                grid.update(entry.getMmsi(), position);
+            }
+            searchIndex.update(entry.getMmsi(), entry.getName());
+            return true;
+        }
+    }
+
+    /**
+     * Return snapshot of all targets
+     * @return
+     */
     public Map<Integer, TargetTableEntry> allTargets() {
-        return Collections.unmodifiableMap(targets);
+        Map<Integer, TargetTableEntry> map = new LinkedHashMap<>();
+        for (TargetTableEntry target : targets.getEntries(0)) {
+            map.put(target.getMmsi(), target);
+        }
+        return Collections.unmodifiableMap(map);
     }
     
     /**
@@ -65,9 +145,7 @@ public class TargetTable {
      */
     public TargetTableMessage getTargetTableMessage() {
         TargetTableMessage message = new TargetTableMessage();
-        for (TargetTableEntry target : targets.values()) {
-            message.getTargets().add(target);
-        }
+        message.getTargets().addAll(targets.getEntries(0));
         return message;
     }
     
@@ -77,38 +155,197 @@ public class TargetTable {
      */
     public TargetTableMessage getAliveTargetTableMessage() {
         TargetTableMessage message = new TargetTableMessage();
-        for (TargetTableEntry target : targets.values()) {
-            if (target.isAlive()) {
-                message.getTargets().add(target);
-            }
+        message.getTargets().addAll(targets.getEntries(aliveSince()));
+        return message;
+    }
+
+    /**
+     * Iterate over alive targets without copying the table. Targets changed while iterating may or may not be seen.
+     * @return
+     */
+    public Iterator<TargetTableEntry> aliveTargets() {
+        return targets.iterateEntries(aliveSince());
+    }
+
+    /**
+     * Return the changes to alive targets since a version
+     * @param since version from an earlier call, or 0 for the whole table
+     * @return
+     */
+    public TargetTableDeltaMessage getDelta(long since) {
+        TargetTableDeltaMessage message = new TargetTableDeltaMessage();
+        // Read the version first, changes after it are sent again next time
+        long version = targets.getVersion();
+        message.setVersion(version);
+        List<Integer> removed = since <= version ? targets.getRemovedSince(since) : null;
+        if (removed == null) {
+            message.setFull(true);
+            message.getTargets().addAll(targets.getEntries(aliveSince()));
+            return message;
         }
+        message.setRemoved(removed);
+        message.getTargets().addAll(targets.getEntriesChangedSince(since, aliveSince()));
         return message;
     }
 
+    /**
+     * Return version of the table that changes whenever a target is updated or removed
+     * @return
+     */
+    public long getVersion() {
+        return targets.getVersion();
+    }
+
     /**
      * Return if target exists and is alive
      * @param mmsi
      * @return
      */
     public boolean exists(int mmsi) {
+        return targets.getLastMessage(mmsi) >= aliveSince();
+    }
+
+    /**
+     * Return last known position of target
+     * @param mmsi
+     * @return the position or null if unknown
+     */
+    public Position getPosition(int mmsi) {
         TargetTableEntry target = targets.get(mmsi);
-        return target != null && target.isAlive();  
+        return target == null ? null : target.getPosition();
+    }
+
+    /**
+     * Find alive targets within a distance of a position
+     * @param center
+     * @param radius radius in meters
+     * @return
+     */
+    public List<TargetTableEntry> findWithinRadius(Position center, double radius) {
+        return aliveEntries(grid.findWithinRadius(center, radius));
+    }
+
+    /**
+     * Find alive targets within a bounding box. If minLon is greater than maxLon the box crosses the 180th meridian.
+     * @param minLat
+     * @param minLon
+     * @param maxLat
+     * @param maxLon
+     * @return
+     */
+    public List<TargetTableEntry> findWithinBox(double minLat, double minLon, double maxLat, double maxLon) {
+        return aliveEntries(grid.findWithinBox(minLat, minLon, maxLat, maxLon));
+    }
+
+    /**
+     * Find the alive targets nearest to a position
+     * @param center
+     * @param k maximum number of targets
+     * @return the targets, nearest first
+     */
+    public List<TargetTableEntry> findNearest(Position center, int k) {
+        // Ask for more to make up for targets that are no longer alive
+        List<TargetTableEntry> entries = aliveEntries(grid.findNearest(center, k > Integer.MAX_VALUE / 2 ? k : 2 * k));
+        return entries.size() > k ? entries.subList(0, k) : entries;
+    }
+
+    /**
+     * Find alive targets by name or MMSI. Queries of three or more characters match anywhere in the name or MMSI,
+     * shorter queries match the start of them.
+     * @param query case is ignored
+     * @param limit maximum number of targets
+     * @return the targets, best matches first
+     */
+    public List<TargetTableEntry> search(String query, int limit) {
+        // Ask for more to make up for targets that are no longer alive
+        List<TargetTableEntry> entries = aliveEntries(searchIndex.search(query, 2 * limit));
+        return entries.size() > limit ? entries.subList(0, limit) : entries;
+    }
+
+    /**
+     * Return recent positions of target
+     * @param mmsi
+     * @param since time of the oldest position to return, 0 for all
+     * @return the track or null if the target is not alive
+     */
+    public TargetTrack getTrack(int mmsi, long since) {
+        if (!exists(mmsi)) {
+            return null;
+        }
+        TargetTrack track = new TargetTrack(mmsi);
+        if (trackHistory != null) {
+            track.setPoints(trackHistory.getTrack(mmsi, since));
+        }
+        return track;
+    }
+
+    private List<TargetTableEntry> aliveEntries(List<Integer> mmsis) {
+        List<TargetTableEntry> entries = new ArrayList<>(mmsis.size());
+        long aliveSince = aliveSince();
+        for (Integer mmsi : mmsis) {
+            TargetTableEntry target = targets.get(mmsi);
+            if (target != null && target.getLastMessage() >= aliveSince) {
+                entries.add(target);
+            }
+        }
+        return entries;
     }
 
     /**
-     * Remove old targets
+     * Remove old targets and notify removal listeners. The work done is in proportion to the number of targets that
+     * may have expired since the last call, so this can be called often.
      */
     public void cleanup() {
-        List<Integer> removeTargets = new ArrayList<>();
-        for (TargetTableEntry target : targets.values()) {
-            if (!target.isAlive()) {
-                removeTargets.add(target.getMmsi());
+        for (Integer mmsi : targets.removeOlderThan(aliveSince())) {
+            if (removeFromIndexes(mmsi)) {
+                for (ITargetRemovalListener listener : removalListeners) {
+                    listener.targetRemoved(mmsi);
+                }
             }
         }
-        for (Integer mmsi : removeTargets) {
-            targets.remove(mmsi);
+    }
+
+    /**
+     * Remove target removed from the store from the indexes, unless it has been updated since
+     * 
+     * @param mmsi
+     * @return false if the target is back in the store
+     */
+    boolean removeFromIndexes(int mmsi) {
+        synchronized (lock(mmsi)) {
+            if (targets.get(mmsi) != null) {
+                return false;
+            }
+            grid.remove(mmsi);
+            searchIndex.remove(mmsi);
+            if (trackHistory != null) {
+                trackHistory.remove(mmsi);
+            }
+            return true;
         }
-        
+    }
+
+    private Object lock(int mmsi) {
+        return locks[mmsi & LOCK_STRIPES - 1];
+    }
+
+    /**
+     * Add listener to be notified when targets are removed by {@link #cleanup()}
+     * @param listener
+     */
+    public void addRemovalListener(ITargetRemovalListener listener) {
+        removalListeners.add(listener);
+    }
+
+    public void removeRemovalListener(ITargetRemovalListener listener) {
+        removalListeners.remove(listener);
+    }
+
+    /**
+     * Time of the oldest message from a target that is alive
+     */
+    static long aliveSince() {
+        return System.currentTimeMillis() - TargetTableEntry.DEFAULT_TTL + 1;
     }
 
 }
@@ -19,100 +19,123 @@ import java.util.Comparator;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 
-import net.jcip.annotations.ThreadSafe;
-import dk.dma.ais.message.AisMessage;
-import dk.dma.ais.message.AisStaticCommon;
-import dk.dma.ais.message.IVesselPositionMessage;
+import net.jcip.annotations.NotThreadSafe;
 import dk.dma.enav.model.geometry.Position;
 
-@ThreadSafe
+/**
+ * Snapshot of a target. Entries handed out by {@link TargetTable} are created when read and are not updated
+ * afterwards.
+ */
+@NotThreadSafe
 @XmlRootElement
 public class TargetTableEntry {
 
     /**
      * Default time a target is considered to be alive
      */
-    private static final int DEFAULT_TTL = 10 * 60 * 1000;  // 10 min
+    static final int DEFAULT_TTL = 10 * 60 * 1000;  // 10 min
 
     private int mmsi;
     private String name;
     private double lat;
     private double lon;
     private long lastMessage;
+    private boolean hasPosition;
 
     public TargetTableEntry() {
 
     }
 
-    public synchronized void update(AisMessage message) {
-        mmsi = message.getUserId();
-        lastMessage = System.currentTimeMillis();
-        if (message instanceof IVesselPositionMessage) {
-            Position pos = ((IVesselPositionMessage) message).getPos().getGeoLocation();
-            if (pos != null) {
-                lat = pos.getLatitude();
-                lon = pos.getLongitude();
-            }
-        } else if (message instanceof AisStaticCommon) {
-            String n = ((AisStaticCommon) message).getName();
-            if (n != null) {
-                name = AisMessage.trimText(n);
-            }
-        }
+    /**
+     * Create entry of target without a position
+     * 
+     * @param mmsi
+     * @param name
+     * @param lastMessage
+     */
+    TargetTableEntry(int mmsi, String name, long lastMessage) {
+        this.mmsi = mmsi;
+        this.name = name;
+        this.lastMessage = lastMessage;
+    }
 
+    /**
+     * Create entry of target with a position
+     * 
+     * @param mmsi
+     * @param name
+     * @param lastMessage
+     * @param lat
+     * @param lon
+     */
+    TargetTableEntry(int mmsi, String name, long lastMessage, double lat, double lon) {
+        this(mmsi, name, lastMessage);
+        this.lat = lat;
+        this.lon = lon;
+        this.hasPosition = true;
     }
 
-    public synchronized int getMmsi() {
+    public int getMmsi() {
         return mmsi;
     }
     
-    public synchronized void setMmsi(int mmsi) {
+    public void setMmsi(int mmsi) {
         this.mmsi = mmsi;
     }
 
-    public synchronized String getName() {
+    public String getName() {
         return name;
     }
     
-    public synchronized void setName(String name) {
+    public void setName(String name) {
         this.name = name;
     }
 
-    public synchronized double getLat() {
+    public double getLat() {
         return lat;
     }
     
-    public synchronized void setLat(double lat) {
+    public void setLat(double lat) {
         this.lat = lat;
     }
 
-    public synchronized double getLon() {
+    public double getLon() {
         return lon;
     }
     
-    public synchronized void setLon(double lon) {
+    public void setLon(double lon) {
         this.lon = lon;
     }
     
-    public synchronized long getLastMessage() {
+    /**
+     * Last known position. Not serialized, so only available on entries from the table itself.
+     * 
+     * @return the position or null if no position has been received
+     */
+    @XmlTransient
+    public Position getPosition() {
+        return hasPosition ? Position.create(lat, lon) : null;
+    }
+
+    public long getLastMessage() {
         return lastMessage;
     }
     
-    public synchronized void setLastMessage(long lastMessage) {
+    public void setLastMessage(long lastMessage) {
         this.lastMessage = lastMessage;
     }
     
-    public synchronized boolean isAlive(int ttl) {
+    public boolean isAlive(int ttl) {
         return (System.currentTimeMillis() - lastMessage) < ttl;
     }
     
     @XmlTransient
-    public synchronized boolean isAlive() {
+    public boolean isAlive() {
         return isAlive(DEFAULT_TTL);
     }
     
     @Override
-    public synchronized String toString() {
+    public String toString() {
         return (name != null ? name : "N/A") + " (" + Integer.toString(mmsi) + ")";
     }
     
@@ -0,0 +1,161 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Snapshot file of the target table, so a restarted server has its targets back without waiting for the feed.
+ * <p>
+ * The file holds a header followed by the alive targets and ends with a CRC32 of everything before it. A snapshot is
+ * written to a temporary file that is synced and then renamed over the old one, so a crash while writing leaves the
+ * previous snapshot in place. A file with a wrong checksum is rejected as a whole.
+ * <p>
+ * Targets keep the time of their last message. When loaded, targets that have expired meanwhile are skipped, and the
+ * rest expire as if the server had been running.
+ */
+public final class TargetTableSnapshot {
+
+    /**
+     * "AVTT"
+     */
+    private static final int MAGIC = 0x41565454;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HAS_POSITION = 1;
+
+    private static final int HAS_NAME = 2;
+
+    private TargetTableSnapshot() {
+
+    }
+
+    /**
+     * Write the alive targets of the table to a file
+     * 
+     * @param table
+     * @param file
+     * @return the number of targets written
+     * @throws IOException
+     */
+    public static int write(TargetTable table, Path file) throws IOException {
+        List<TargetTableEntry> targets = table.getAliveTargetTableMessage().getTargets();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fos), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(targets.size());
+            for (TargetTableEntry target : targets) {
+                Position position = target.getPosition();
+                String name = target.getName();
+                out.writeInt(target.getMmsi());
+                out.writeLong(target.getLastMessage());
+                out.writeByte((position != null ? HAS_POSITION : 0) | (name != null ? HAS_NAME : 0));
+                if (position != null) {
+                    out.writeDouble(position.getLatitude());
+                    out.writeDouble(position.getLongitude());
+                }
+                if (name != null) {
+                    out.writeUTF(name);
+                }
+            }
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return targets.size();
+    }
+
+    /**
+     * Load targets from a file into the table. Expired targets, and targets with a newer message in the table, are
+     * skipped.
+     * 
+     * @param table
+     * @param file
+     * @return the number of targets added to the table
+     * @throws IOException
+     *             if the file cannot be read or is not a valid snapshot
+     */
+    public static int load(TargetTable table, Path file) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        if (data.length < 8) {
+            throw new IOException("Snapshot too short: " + file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        if (crc.getValue() != ByteBuffer.wrap(data, data.length - 8, 8).getLong()) {
+            throw new IOException("Snapshot checksum mismatch: " + file);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a target table snapshot: " + file);
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + file);
+            }
+            in.readLong();
+            int count = in.readInt();
+            long aliveSince = TargetTable.aliveSince();
+            int loaded = 0;
+            for (int i = 0; i < count; i++) {
+                int mmsi = in.readInt();
+                long lastMessage = in.readLong();
+                int flags = in.readByte();
+                double lat = 0;
+                double lon = 0;
+                if ((flags & HAS_POSITION) != 0) {
+                    lat = in.readDouble();
+                    lon = in.readDouble();
+                }
+                String name = (flags & HAS_NAME) != 0 ? in.readUTF() : null;
+                if (lastMessage < aliveSince) {
+                    continue;
+                }
+                TargetTableEntry target = (flags & HAS_POSITION) != 0 ? new TargetTableEntry(mmsi, name,
+                        lastMessage, lat, lon) : new TargetTableEntry(mmsi, name, lastMessage);
+                if (table.restore(target)) {
+                    loaded++;
+                }
+            }
+            return loaded;
+        } catch (EOFException e) {
+            throw new IOException("Snapshot truncated: " + file);
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Recent positions of a target, oldest first
+ */
+@NotThreadSafe
+@XmlRootElement
+public class TargetTrack {
+
+    private int mmsi;
+    private List<TrackPoint> points = new ArrayList<>();
+
+    public TargetTrack() {
+
+    }
+
+    public TargetTrack(int mmsi) {
+        this.mmsi = mmsi;
+    }
+
+    public int getMmsi() {
+        return mmsi;
+    }
+
+    public void setMmsi(int mmsi) {
+        this.mmsi = mmsi;
+    }
+
+    public List<TrackPoint> getPoints() {
+        return points;
+    }
+
+    public void setPoints(List<TrackPoint> points) {
+        this.points = points;
+    }
+
+}
@@ -0,0 +1,273 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Recent positions of targets kept in a fixed amount of memory. All arrays are allocated up front: a fixed number of
+ * target slots, each with a ring of the last fixes of the target. A fix costs 16 bytes, a time and a position packed
+ * into a long.
+ * <p>
+ * A fix is only recorded when a minimum time has passed since the last fix of the target, so the ring covers a known
+ * span of time regardless of how often the target reports. When all slots are in use new targets get no history until
+ * a slot is freed by removing a target.
+ * <p>
+ * Writers are serialized and use a sequence number per slot that is odd while the slot is being written. Readers
+ * never lock: they copy the fixes of a slot and retry if the sequence number was odd or changed meanwhile. Reports
+ * arriving before the minimum interval has passed are dropped without locking.
+ */
+@ThreadSafe
+public class TrackHistory {
+
+    private static final int FREE = -1;
+
+    /**
+     * Scale of latitude and longitude when packed into an int
+     */
+    private static final double SCALE = 1e7;
+
+    private final int fixesPerTarget;
+
+    private final long minInterval;
+
+    /**
+     * Slot of each target with history
+     */
+    private final ConcurrentHashMap<Integer, Integer> slots = new ConcurrentHashMap<>();
+
+    @GuardedBy("this")
+    private final int[] freeSlots;
+
+    @GuardedBy("this")
+    private int freeCount;
+
+    /**
+     * Target owning each slot, {@link #FREE} if not in use
+     */
+    private final AtomicIntegerArray owners;
+
+    private final AtomicIntegerArray sequences;
+
+    /**
+     * Number of fixes in each slot
+     */
+    private final AtomicIntegerArray counts;
+
+    /**
+     * Position in the ring of the next fix of each slot
+     */
+    private final AtomicIntegerArray heads;
+
+    /**
+     * Time of fixes, indexed by slot times fixes per target plus position in the ring
+     */
+    private final AtomicLongArray times;
+
+    /**
+     * Packed positions of fixes, indexed as times
+     */
+    private final AtomicLongArray positions;
+
+    /**
+     * Number of fixes not recorded because all slots were in use
+     */
+    private final AtomicLong overflow = new AtomicLong();
+
+    /**
+     * @param maxTargets
+     *            number of targets with history
+     * @param fixesPerTarget
+     *            number of fixes kept per target
+     * @param minInterval
+     *            minimum time in milliseconds between fixes of a target
+     */
+    public TrackHistory(int maxTargets, int fixesPerTarget, long minInterval) {
+        if (maxTargets <= 0 || fixesPerTarget <= 0 || (long) maxTargets * fixesPerTarget > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid history size: " + maxTargets + " x " + fixesPerTarget);
+        }
+        this.fixesPerTarget = fixesPerTarget;
+        this.minInterval = minInterval;
+        freeSlots = new int[maxTargets];
+        owners = new AtomicIntegerArray(maxTargets);
+        sequences = new AtomicIntegerArray(maxTargets);
+        counts = new AtomicIntegerArray(maxTargets);
+        heads = new AtomicIntegerArray(maxTargets);
+        times = new AtomicLongArray(maxTargets * fixesPerTarget);
+        positions = new AtomicLongArray(maxTargets * fixesPerTarget);
+        for (int i = 0; i < maxTargets; i++) {
+            owners.set(i, FREE);
+            // Hand out low slots first
+            freeSlots[i] = maxTargets - 1 - i;
+        }
+        freeCount = maxTargets;
+    }
+
+    /**
+     * Record position of target unless the last fix is too recent
+     * 
+     * @param mmsi
+     * @param time
+     * @param position
+     */
+    public void add(int mmsi, long time, Position position) {
+        Integer slot = slots.get(mmsi);
+        if (slot != null && time - lastTime(slot) < minInterval) {
+            return;
+        }
+        synchronized (this) {
+            slot = slots.get(mmsi);
+            if (slot == null) {
+                if (freeCount == 0) {
+                    overflow.incrementAndGet();
+                    return;
+                }
+                slot = freeSlots[--freeCount];
+                int seq = begin(slot);
+                owners.set(slot, mmsi);
+                counts.set(slot, 0);
+                heads.set(slot, 0);
+                end(slot, seq);
+                slots.put(mmsi, slot);
+            } else if (time - lastTime(slot) < minInterval) {
+                return;
+            }
+            int s = slot;
+            int head = heads.get(s);
+            int i = s * fixesPerTarget + head;
+            int seq = begin(s);
+            times.set(i, time);
+            positions.set(i, pack(position));
+            heads.set(s, head + 1 == fixesPerTarget ? 0 : head + 1);
+            if (counts.get(s) < fixesPerTarget) {
+                counts.set(s, counts.get(s) + 1);
+            }
+            end(s, seq);
+        }
+    }
+
+    /**
+     * Time of the last fix in slot, or minimum value if none
+     */
+    private long lastTime(int slot) {
+        if (counts.get(slot) == 0) {
+            return Long.MIN_VALUE / 2;
+        }
+        int head = heads.get(slot);
+        return times.get(slot * fixesPerTarget + (head == 0 ? fixesPerTarget : head) - 1);
+    }
+
+    /**
+     * Remove history of target and free its slot
+     * 
+     * @param mmsi
+     */
+    public synchronized void remove(int mmsi) {
+        Integer slot = slots.remove(mmsi);
+        if (slot == null) {
+            return;
+        }
+        int seq = begin(slot);
+        owners.set(slot, FREE);
+        counts.set(slot, 0);
+        end(slot, seq);
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Get fixes of target, oldest first
+     * 
+     * @param mmsi
+     * @param since
+     *            time of the oldest fix to return, 0 for all
+     * @return the fixes, empty if the target has no history
+     */
+    public List<TrackPoint> getTrack(int mmsi, long since) {
+        Integer slot = slots.get(mmsi);
+        if (slot == null) {
+            return new ArrayList<>();
+        }
+        int s = slot;
+        while (true) {
+            int seq = sequences.get(s);
+            if ((seq & 1) != 0) {
+                // Being written
+                Thread.yield();
+                continue;
+            }
+            List<TrackPoint> points = new ArrayList<>();
+            if (owners.get(s) == mmsi) {
+                int count = counts.get(s);
+                int head = heads.get(s);
+                int base = s * fixesPerTarget;
+                for (int n = count; n > 0; n--) {
+                    int i = base + (head - n + fixesPerTarget) % fixesPerTarget;
+                    long time = times.get(i);
+                    if (time >= since) {
+                        long packed = positions.get(i);
+                        points.add(new TrackPoint((int) (packed >> 32) / SCALE, (int) packed / SCALE, time));
+                    }
+                }
+            }
+            if (sequences.get(s) == seq) {
+                return points;
+            }
+        }
+    }
+
+    private int begin(int slot) {
+        int seq = sequences.get(slot) + 1;
+        sequences.set(slot, seq);
+        return seq;
+    }
+
+    private void end(int slot, int seq) {
+        sequences.set(slot, seq + 1);
+    }
+
+    private static long pack(Position position) {
+        long lat = Math.round(position.getLatitude() * SCALE);
+        long lon = Math.round(position.getLongitude() * SCALE);
+        return lat << 32 | lon & 0xffffffffL;
+    }
+
+    /**
+     * Number of targets with history
+     * 
+     * @return
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Number of fixes not recorded because all slots were in use
+     * 
+     * @return
+     */
+    public long getOverflow() {
+        return overflow.get();
+    }
+
+}
@@ -0,0 +1,71 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Position of a target at a point in time
+ */
+@NotThreadSafe
+@XmlRootElement
+public class TrackPoint {
+
+    private double lat;
+    private double lon;
+    private long time;
+
+    public TrackPoint() {
+
+    }
+
+    public TrackPoint(double lat, double lon, long time) {
+        this.lat = lat;
+        this.lon = lon;
+        this.time = time;
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public void setLat(double lat) {
+        this.lat = lat;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+
+    public void setLon(double lon) {
+        this.lon = lon;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    @Override
+    public String toString() {
+        return "TrackPoint [lat=" + lat + ", lon=" + lon + ", time=" + time + "]";
+    }
+
+}
@@ -0,0 +1,176 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Estimates compression ratio and CPU cost of permessage-deflate for a single session. The container compresses
+ * frames internally without reporting on it, so a sample of outgoing frames is deflated here the same way, with the
+ * configured level and context takeover, and the input size, output size and time spent are accumulated.
+ * <p>
+ * With context takeover the estimate only sees the sampled frames and so somewhat underestimates the ratio.
+ */
+@ThreadSafe
+public class CompressionMeter {
+
+    /**
+     * Deflate every n'th frame
+     */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 16;
+
+    private static final byte[] SYNC_TRAILER = { 0, 0, (byte) 0xff, (byte) 0xff };
+
+    private final int sampleInterval;
+
+    private final boolean contextTakeover;
+
+    @GuardedBy("this")
+    private final Deflater deflater;
+
+    @GuardedBy("this")
+    private byte[] buffer = new byte[1024];
+
+    @GuardedBy("this")
+    private long frames;
+
+    @GuardedBy("this")
+    private long sampledFrames;
+
+    @GuardedBy("this")
+    private long bytesIn;
+
+    @GuardedBy("this")
+    private long bytesOut;
+
+    @GuardedBy("this")
+    private long nanos;
+
+    public CompressionMeter(int level, boolean contextTakeover) {
+        this(level, contextTakeover, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    public CompressionMeter(int level, boolean contextTakeover, int sampleInterval) {
+        this.deflater = new Deflater(level, true);
+        this.contextTakeover = contextTakeover;
+        this.sampleInterval = Math.max(1, sampleInterval);
+    }
+
+    /**
+     * Register an outgoing text frame
+     * 
+     * @param text
+     */
+    public void text(String text) {
+        if (sample()) {
+            deflate(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Register an outgoing binary frame. The position of the buffer is not changed.
+     * 
+     * @param data
+     */
+    public void binary(ByteBuffer data) {
+        if (sample()) {
+            ByteBuffer d = data.duplicate();
+            byte[] b = new byte[d.remaining()];
+            d.get(b);
+            deflate(b);
+        }
+    }
+
+    private synchronized boolean sample() {
+        return frames++ % sampleInterval == 0;
+    }
+
+    private synchronized void deflate(byte[] data) {
+        long start = System.nanoTime();
+        if (!contextTakeover) {
+            deflater.reset();
+        }
+        deflater.setInput(data);
+        int out = 0;
+        int n;
+        do {
+            n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+            out += n;
+        } while (n == buffer.length);
+        // The trailing empty block is not sent on the wire
+        if (out >= SYNC_TRAILER.length) {
+            out -= SYNC_TRAILER.length;
+        }
+        nanos += System.nanoTime() - start;
+        bytesIn += data.length;
+        bytesOut += out;
+        sampledFrames++;
+    }
+
+    /**
+     * Release the native resources of the deflater
+     */
+    public synchronized void close() {
+        deflater.end();
+    }
+
+    /**
+     * Number of frames sent
+     * 
+     * @return
+     */
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Number of frames deflated for the estimate
+     * 
+     * @return
+     */
+    public synchronized long getSampledFrames() {
+        return sampledFrames;
+    }
+
+    /**
+     * Compressed size relative to uncompressed size of the sampled frames, 1 if nothing has been sampled
+     * 
+     * @return
+     */
+    public synchronized double getRatio() {
+        return bytesIn == 0 ? 1 : (double) bytesOut / bytesIn;
+    }
+
+    /**
+     * CPU time in nanoseconds spent compressing a byte of uncompressed data
+     * 
+     * @return
+     */
+    public synchronized double getNanosPerByte() {
+        return bytesIn == 0 ? 0 : (double) nanos / bytesIn;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("frames=%d sampled=%d ratio=%.3f cost=%.1f ns/byte", frames, sampledFrames, getRatio(),
+                getNanosPerByte());
+    }
+
+}
@@ -0,0 +1,77 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.websocket;
+
+import java.nio.ByteBuffer;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.google.gson.Gson;
+
+import dk.dma.ais.virtualnet.common.message.WsMessage;
+
+/**
+ * A message together with its encoded wire frames, so the same message can be sent to many sessions while only being
+ * encoded once for each form. Each form is built the first time a session asks for it. The message must not be
+ * changed after it has been wrapped.
+ */
+@ThreadSafe
+public class EncodedMessage {
+
+    private static final Gson GSON = new Gson();
+
+    private final WsMessage message;
+
+    private volatile String text;
+
+    private volatile ByteBuffer binaryFrame;
+
+    public EncodedMessage(WsMessage message) {
+        this.message = message;
+    }
+
+    public WsMessage getMessage() {
+        return message;
+    }
+
+    /**
+     * Get the JSON text frame for the message
+     * 
+     * @return
+     */
+    public String getText() {
+        String t = text;
+        if (t == null) {
+            t = GSON.toJson(message);
+            text = t;
+        }
+        return t;
+    }
+
+    /**
+     * Get the binary frame for the message
+     * 
+     * @return
+     */
+    public ByteBuffer getBinaryFrame() {
+        ByteBuffer b = binaryFrame;
+        if (b == null) {
+            b = WsBinaryCodec.encode(message);
+            binaryFrame = b;
+        }
+        return b.duplicate();
+    }
+
+}
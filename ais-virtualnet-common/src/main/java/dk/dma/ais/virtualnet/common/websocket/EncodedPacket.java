@@ -0,0 +1,135 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.google.gson.Gson;
+
+import dk.dma.ais.packet.AisPacket;
+
+/**
+ * A packet together with its encoded wire frames. Each form is built the first time a session asks for it, and the
+ * same instance can then be handed to any number of sessions without encoding it again. A packet only sent to binary
+ * sessions is never encoded as JSON.
+ */
+@ThreadSafe
+public class EncodedPacket {
+
+    private static final Gson GSON = new Gson();
+
+    private final AisPacket packet;
+
+    /**
+     * The packet as a JSON string literal
+     */
+    private volatile String jsonPacket;
+
+    private volatile String text;
+
+    private volatile byte[] bytes;
+
+    private volatile byte[] binaryFrame;
+
+    public EncodedPacket(AisPacket packet) {
+        this.packet = packet;
+    }
+
+    public AisPacket getPacket() {
+        return packet;
+    }
+
+    /**
+     * Get the JSON text frame for the packet
+     * 
+     * @return
+     */
+    public String getText() {
+        String t = text;
+        if (t == null) {
+            t = "{\"packet\":" + getJsonPacket() + "}";
+            text = t;
+        }
+        return t;
+    }
+
+    private String getJsonPacket() {
+        String j = jsonPacket;
+        if (j == null) {
+            j = GSON.toJson(packet.getStringMessage());
+            jsonPacket = j;
+        }
+        return j;
+    }
+
+    /**
+     * Get the raw bytes of the packet sentences
+     * 
+     * @return
+     */
+    public byte[] getBytes() {
+        byte[] b = bytes;
+        if (b == null) {
+            b = packet.getStringMessage().getBytes(StandardCharsets.ISO_8859_1);
+            bytes = b;
+        }
+        return b;
+    }
+
+    /**
+     * Get the binary frame for the packet
+     * 
+     * @return
+     */
+    public ByteBuffer getBinaryFrame() {
+        byte[] b = binaryFrame;
+        if (b == null) {
+            b = WsBinaryCodec.encodePacket(getBytes());
+            binaryFrame = b;
+        }
+        return ByteBuffer.wrap(b);
+    }
+
+    /**
+     * Get the JSON text frame for a batch of packets. The already encoded packets are reused.
+     * 
+     * @param packets
+     * @return
+     */
+    public static String getBatchText(List<EncodedPacket> packets) {
+        if (packets.size() == 1) {
+            return packets.get(0).getText();
+        }
+        int length = 16;
+        for (EncodedPacket packet : packets) {
+            length += packet.getJsonPacket().length() + 1;
+        }
+        StringBuilder buf = new StringBuilder(length);
+        buf.append("{\"packets\":[");
+        for (int i = 0; i < packets.size(); i++) {
+            if (i > 0) {
+                buf.append(',');
+            }
+            buf.append(packets.get(i).getJsonPacket());
+        }
+        buf.append("]}");
+        return buf.toString();
+    }
+
+}
@@ -0,0 +1,139 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.websocket;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.websocket.Extension;
+import javax.websocket.Session;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * The permessage-deflate extension (RFC 7692) as offered by the server and requested by clients. The compression
+ * itself is done by the web socket container.
+ */
+@Immutable
+public final class PerMessageDeflate implements Extension {
+
+    public static final String NAME = "permessage-deflate";
+
+    public static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+
+    public static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+
+    private final List<Parameter> parameters;
+
+    /**
+     * @param contextTakeover
+     *            if false both ends reset the compression context for every message
+     */
+    public PerMessageDeflate(boolean contextTakeover) {
+        List<Parameter> p = new ArrayList<>();
+        if (!contextTakeover) {
+            p.add(new Param(SERVER_NO_CONTEXT_TAKEOVER));
+            p.add(new Param(CLIENT_NO_CONTEXT_TAKEOVER));
+        }
+        this.parameters = Collections.unmodifiableList(p);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public List<Parameter> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Find permessage-deflate among extensions
+     * 
+     * @param extensions
+     * @return the extension or null if not present
+     */
+    public static Extension find(List<Extension> extensions) {
+        if (extensions != null) {
+            for (Extension extension : extensions) {
+                if (NAME.equals(extension.getName())) {
+                    return extension;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find permessage-deflate among the extensions negotiated for a session
+     * 
+     * @param session
+     * @return the extension or null if messages are not compressed
+     */
+    public static Extension find(Session session) {
+        return find(session.getNegotiatedExtensions());
+    }
+
+    /**
+     * Return if the server keeps its compression context between messages
+     * 
+     * @param extension
+     * @return
+     */
+    public static boolean isServerContextTakeover(Extension extension) {
+        for (Parameter parameter : extension.getParameters()) {
+            if (SERVER_NO_CONTEXT_TAKEOVER.equals(parameter.getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return if the client keeps its compression context between messages
+     * 
+     * @param extension
+     * @return
+     */
+    public static boolean isClientContextTakeover(Extension extension) {
+        for (Parameter parameter : extension.getParameters()) {
+            if (CLIENT_NO_CONTEXT_TAKEOVER.equals(parameter.getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Param implements Parameter {
+        private final String name;
+
+        Param(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getValue() {
+            return null;
+        }
+    }
+
+}
@@ -15,12 +15,18 @@
 package dk.dma.ais.virtualnet.common.websocket;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.zip.Deflater;
 
 import javax.websocket.CloseReason;
+import javax.websocket.Extension;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
 import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
 import javax.websocket.Session;
 
 import net.jcip.annotations.ThreadSafe;
@@ -32,6 +38,7 @@ import org.slf4j.LoggerFactory;
 import com.google.gson.Gson;
 
 import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.virtualnet.common.message.SessionStatus;
 import dk.dma.ais.virtualnet.common.message.WsMessage;
 
 @ThreadSafe
@@ -45,6 +52,23 @@ public abstract class WebSocketSession {
 
     private volatile Session session;
 
+    /**
+     * Held while sending on the blocking remote. Only one blocking send may be in progress at a time, and messages are
+     * sent from different threads, e.g. a filter update from the thread reading the web socket while a packet is sent
+     * from the transponder thread.
+     */
+    private final Object sendLock = new Object();
+
+    /**
+     * True if the binary subprotocol has been negotiated
+     */
+    private volatile boolean binary;
+
+    /**
+     * Compression estimate when permessage-deflate has been negotiated
+     */
+    private volatile CompressionMeter compressionMeter;
+
     /**
      * Method to handle incoming messages
      */
@@ -52,20 +76,66 @@ public abstract class WebSocketSession {
 
     public void onWebSocketConnect(Session session) {
         LOG.info("Client connected: " + session.getUserProperties());
+        this.binary = WsProtocol.BINARY.equals(session.getNegotiatedSubprotocol());
+        Extension deflate = PerMessageDeflate.find(session);
+        if (deflate != null) {
+            compressionMeter = new CompressionMeter(getCompressionLevel(), isContextTakeover(deflate));
+        }
         this.session = session;
         getConnected().countDown();
     }
 
     public void onWebSocketClose(CloseReason reason) {
         LOG.info("Client connection closed: " + session.getUserProperties());
+        CompressionMeter meter = compressionMeter;
+        if (meter != null) {
+            LOG.info("Compression: " + meter);
+            meter.close();
+        }
         session = null;
     }
 
-    public void onWebSocketBinary(byte[] payload, int offset, int len) {
+    @OnMessage
+    public void onWebSocketBinary(ByteBuffer payload) {
+        if (!binary) {
+            LOG.error("Received binary data");
+            closeWithProtocolError("Cannot accept binary");
+            return;
+        }
+        WsMessage msg;
+        try {
+            msg = decodeBinary(payload);
+        } catch (IllegalArgumentException e) {
+            LOG.error("Malformed binary frame: " + e.getMessage());
+            closeWithProtocolError("Malformed binary frame");
+            return;
+        }
+        handleMessage(msg);
+    }
+
+    /**
+     * Decode binary frame received
+     * 
+     * @param payload
+     * @return
+     * @throws IllegalArgumentException
+     *             if the frame is malformed
+     */
+    protected WsMessage decodeBinary(ByteBuffer payload) {
+        return WsBinaryCodec.decode(payload);
+    }
+
+    /**
+     * Close the web socket because the other end does not follow the protocol
+     * 
+     * @param reason
+     */
+    protected void closeWithProtocolError(String reason) {
         Session s = session;
-        LOG.error("Received binary data");
         try {
-            s.close(new CloseReason(CloseReason.CloseCodes.PROTOCOL_ERROR, "Cannot accept binary"));
+            if (s != null) {
+                s.close(new CloseReason(CloseReason.CloseCodes.PROTOCOL_ERROR, reason));
+            }
         } catch (Exception e) {
             LOG.error("Failed to close web sokcet", e);
         }
@@ -100,27 +170,195 @@ public abstract class WebSocketSession {
         sendMessage(new WsMessage(packet));
     }
 
+    /**
+     * Send a packet using its already encoded frame
+     * 
+     * @param encodedPacket
+     */
+    public void sendEncodedPacket(EncodedPacket encodedPacket) {
+        if (binary) {
+            sendBinary(encodedPacket.getBinaryFrame());
+        } else {
+            sendText(encodedPacket.getText());
+        }
+    }
+
+    /**
+     * Send packets in a single frame using their already encoded form without blocking. The handler is notified when
+     * the frame has been written or the send has failed.
+     * 
+     * @param encodedPackets
+     * @param handler
+     */
+    public void sendEncodedPackets(List<EncodedPacket> encodedPackets, SendHandler handler) {
+        RemoteEndpoint.Async r = getAsyncRemote();
+        if (r == null) {
+            handler.onResult(new SendResult(new IOException("Web socket not connected")));
+            return;
+        }
+        CompressionMeter meter = compressionMeter;
+        if (binary) {
+            ByteBuffer data = WsBinaryCodec.encodePackets(encodedPackets);
+            if (meter != null) {
+                meter.binary(data);
+            }
+            r.sendBinary(data, handler);
+        } else {
+            String text = EncodedPacket.getBatchText(encodedPackets);
+            if (meter != null) {
+                meter.text(text);
+            }
+            r.sendText(text, handler);
+        }
+    }
+
+    /**
+     * Send an already encoded message without blocking. The handler is notified when the frame has been written or
+     * the send has failed.
+     * 
+     * @param encodedMessage
+     * @param handler
+     */
+    public void sendEncodedMessage(EncodedMessage encodedMessage, SendHandler handler) {
+        RemoteEndpoint.Async r = getAsyncRemote();
+        if (r == null) {
+            handler.onResult(new SendResult(new IOException("Web socket not connected")));
+            return;
+        }
+        CompressionMeter meter = compressionMeter;
+        if (binary) {
+            ByteBuffer data = encodedMessage.getBinaryFrame();
+            if (meter != null) {
+                meter.binary(data);
+            }
+            r.sendBinary(data, handler);
+        } else {
+            String text = encodedMessage.getText();
+            if (meter != null) {
+                meter.text(text);
+            }
+            r.sendText(text, handler);
+        }
+    }
+
     protected final void sendMessage(WsMessage wsMessage) {
-        sendText(gson.toJson(wsMessage));
+        if (binary) {
+            sendBinary(WsBinaryCodec.encode(wsMessage));
+        } else {
+            sendText(gson.toJson(wsMessage));
+        }
     }
 
     private void sendText(String text) {
-        Session s = session;
-        RemoteEndpoint.Basic r = null;
-        try {
-            r = s == null ? null : s.getBasicRemote();
-        } catch (WebSocketException e) {
-            // Ignore
-        }
+        RemoteEndpoint.Basic r = getBasicRemote();
         if (r != null) {
+            CompressionMeter meter = compressionMeter;
+            if (meter != null) {
+                meter.text(text);
+            }
             try {
-                r.sendText(text);
+                synchronized (sendLock) {
+                    r.sendText(text);
+                }
             } catch (IOException e) {
                 LOG.error("Failed to send text");
             }
         }
     }
 
+    private void sendBinary(ByteBuffer data) {
+        RemoteEndpoint.Basic r = getBasicRemote();
+        if (r != null) {
+            CompressionMeter meter = compressionMeter;
+            if (meter != null) {
+                meter.binary(data);
+            }
+            try {
+                synchronized (sendLock) {
+                    r.sendBinary(data);
+                }
+            } catch (IOException e) {
+                LOG.error("Failed to send binary");
+            }
+        }
+    }
+
+    private RemoteEndpoint.Basic getBasicRemote() {
+        Session s = session;
+        try {
+            return s == null ? null : s.getBasicRemote();
+        } catch (WebSocketException e) {
+            return null;
+        }
+    }
+
+    private RemoteEndpoint.Async getAsyncRemote() {
+        Session s = session;
+        try {
+            return s == null ? null : s.getAsyncRemote();
+        } catch (WebSocketException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Deflate level used when estimating compression of outgoing frames
+     * 
+     * @return
+     */
+    protected int getCompressionLevel() {
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * Return if this end keeps its compression context between messages
+     * 
+     * @param deflate
+     *            the negotiated permessage-deflate extension
+     * @return
+     */
+    protected abstract boolean isContextTakeover(Extension deflate);
+
+    /**
+     * Get the compression estimate of outgoing frames
+     * 
+     * @return the meter or null if permessage-deflate has not been negotiated
+     */
+    public CompressionMeter getCompressionMeter() {
+        return compressionMeter;
+    }
+
+    /**
+     * Get status of this session
+     * 
+     * @return
+     */
+    public SessionStatus getSessionStatus() {
+        SessionStatus status = new SessionStatus();
+        Session s = session;
+        if (s != null) {
+            status.setId(s.getId());
+        }
+        status.setBinary(binary);
+        CompressionMeter meter = compressionMeter;
+        if (meter != null) {
+            status.setCompressed(true);
+            status.setFramesSent(meter.getFrames());
+            status.setCompressionRatio(meter.getRatio());
+            status.setCompressionNanosPerByte(meter.getNanosPerByte());
+        }
+        return status;
+    }
+
+    /**
+     * Return if the binary subprotocol is used on this session
+     * 
+     * @return
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
     public CountDownLatch getConnected() {
         return connected;
     }
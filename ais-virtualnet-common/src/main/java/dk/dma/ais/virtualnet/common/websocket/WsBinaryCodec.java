@@ -0,0 +1,513 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.websocket;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.dma.ais.virtualnet.common.message.FilterMessage;
+import dk.dma.ais.virtualnet.common.message.TargetTableDeltaMessage;
+import dk.dma.ais.virtualnet.common.message.WsMessage;
+import dk.dma.ais.virtualnet.common.table.TargetTableEntry;
+
+/**
+ * Encoder and decoder for the binary wire protocol negotiated with the {@link WsProtocol#BINARY} subprotocol.
+ * <p>
+ * A frame starts with a version byte followed by any number of records. Each record is a type byte, the payload
+ * length as an unsigned LEB128 varint and the payload. Packet records carry the raw sentences of the packet. Records
+ * of unknown type are skipped, so new record types can be added without breaking older peers.
+ */
+public final class WsBinaryCodec {
+
+    public static final int VERSION = 1;
+
+    /**
+     * Raw packet sentences
+     */
+    public static final int PACKET = 1;
+
+    /**
+     * Authentication token
+     */
+    public static final int AUTH = 2;
+
+    /**
+     * Client accepts frames with multiple packets. No payload.
+     */
+    public static final int BATCHED = 3;
+
+    /**
+     * Area filter. Radius as a 32 bit integer optionally followed by latitude and longitude as doubles.
+     */
+    public static final int FILTER = 4;
+
+    /**
+     * Message types of the filter, one byte per type
+     */
+    public static final int FILTER_MSG_TYPES = 5;
+
+    /**
+     * Watched MMSI of the filter, four bytes per MMSI
+     */
+    public static final int FILTER_MMSIS = 6;
+
+    /**
+     * Client accepts conflated position reports. No payload.
+     */
+    public static final int CONFLATE = 7;
+
+    /**
+     * Client wants the target table and its changes. No payload.
+     */
+    public static final int TARGET_TABLE = 8;
+
+    /**
+     * Changes to the target table. Version as a 64 bit integer and a full flag byte, followed by the number of removed
+     * MMSI and the MMSI, then the number of targets and the targets. Counts are varints. A target is MMSI, time of
+     * last message, latitude and longitude followed by the name as a varint length and UTF-8 bytes. The length is one
+     * more than the number of bytes, 0 meaning no name.
+     */
+    public static final int TARGET_TABLE_DELTA = 9;
+
+    private static final Charset PACKET_CHARSET = StandardCharsets.ISO_8859_1;
+
+    private static final Charset TEXT_CHARSET = StandardCharsets.UTF_8;
+
+    private WsBinaryCodec() {
+
+    }
+
+    /**
+     * Encode message into a binary frame
+     * 
+     * @param message
+     * @return
+     */
+    public static ByteBuffer encode(WsMessage message) {
+        List<byte[]> packets = new ArrayList<>();
+        if (message.getPacket() != null) {
+            packets.add(message.getPacket().getBytes(PACKET_CHARSET));
+        }
+        if (message.getPackets() != null) {
+            for (String packet : message.getPackets()) {
+                packets.add(packet.getBytes(PACKET_CHARSET));
+            }
+        }
+        byte[] auth = message.getAuthToken() == null ? null : message.getAuthToken().getBytes(TEXT_CHARSET);
+        boolean batched = Boolean.TRUE.equals(message.getBatched());
+        boolean conflate = Boolean.TRUE.equals(message.getConflate());
+        boolean targetTable = Boolean.TRUE.equals(message.getTargetTable());
+        byte[] delta = message.getTargetTableDelta() == null ? null : encodeDelta(message.getTargetTableDelta());
+        FilterMessage filterMessage = message.getFilter();
+        byte[] filter = filterMessage == null ? null : encodeFilter(filterMessage);
+        byte[] msgTypes = filterMessage == null ? null : encodeMsgTypes(filterMessage.getMsgTypes());
+        byte[] mmsis = filterMessage == null ? null : encodeMmsis(filterMessage.getMmsis());
+
+        int size = 1;
+        for (byte[] packet : packets) {
+            size += recordSize(packet.length);
+        }
+        if (auth != null) {
+            size += recordSize(auth.length);
+        }
+        if (batched) {
+            size += recordSize(0);
+        }
+        if (conflate) {
+            size += recordSize(0);
+        }
+        if (targetTable) {
+            size += recordSize(0);
+        }
+        if (delta != null) {
+            size += recordSize(delta.length);
+        }
+        if (filter != null) {
+            size += recordSize(filter.length);
+        }
+        if (msgTypes != null) {
+            size += recordSize(msgTypes.length);
+        }
+        if (mmsis != null) {
+            size += recordSize(mmsis.length);
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put((byte) VERSION);
+        if (auth != null) {
+            putRecord(buf, AUTH, auth);
+        }
+        if (batched) {
+            putRecord(buf, BATCHED, new byte[0]);
+        }
+        if (conflate) {
+            putRecord(buf, CONFLATE, new byte[0]);
+        }
+        if (targetTable) {
+            putRecord(buf, TARGET_TABLE, new byte[0]);
+        }
+        if (delta != null) {
+            putRecord(buf, TARGET_TABLE_DELTA, delta);
+        }
+        if (filter != null) {
+            putRecord(buf, FILTER, filter);
+        }
+        if (msgTypes != null) {
+            putRecord(buf, FILTER_MSG_TYPES, msgTypes);
+        }
+        if (mmsis != null) {
+            putRecord(buf, FILTER_MMSIS, mmsis);
+        }
+        for (byte[] packet : packets) {
+            putRecord(buf, PACKET, packet);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Encode the raw bytes of a single packet into a binary frame
+     * 
+     * @param packet
+     * @return
+     */
+    public static byte[] encodePacket(byte[] packet) {
+        ByteBuffer buf = ByteBuffer.allocate(1 + recordSize(packet.length));
+        buf.put((byte) VERSION);
+        putRecord(buf, PACKET, packet);
+        return buf.array();
+    }
+
+    /**
+     * Encode already encoded packets into a single binary frame
+     * 
+     * @param packets
+     * @return
+     */
+    public static ByteBuffer encodePackets(List<EncodedPacket> packets) {
+        if (packets.size() == 1) {
+            return packets.get(0).getBinaryFrame();
+        }
+        int size = 1;
+        for (EncodedPacket packet : packets) {
+            size += recordSize(packet.getBytes().length);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put((byte) VERSION);
+        for (EncodedPacket packet : packets) {
+            putRecord(buf, PACKET, packet.getBytes());
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Decode binary frame
+     * 
+     * @param buf
+     * @return
+     * @throws IllegalArgumentException
+     *             if the frame is malformed or of an unknown version
+     */
+    public static WsMessage decode(ByteBuffer buf) {
+        return decode(buf, false);
+    }
+
+    /**
+     * Decode binary frame received by the server. Records only sent by the server are rejected without being decoded.
+     * 
+     * @param buf
+     * @return
+     * @throws IllegalArgumentException
+     *             if the frame is malformed, of an unknown version or holds records only sent by the server
+     */
+    public static WsMessage decodeFromClient(ByteBuffer buf) {
+        return decode(buf, true);
+    }
+
+    private static WsMessage decode(ByteBuffer buf, boolean fromClient) {
+        if (!buf.hasRemaining()) {
+            throw new IllegalArgumentException("Empty frame");
+        }
+        int version = buf.get() & 0xff;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported frame version: " + version);
+        }
+        WsMessage message = new WsMessage();
+        List<String> packets = new ArrayList<>();
+        while (buf.hasRemaining()) {
+            int type = buf.get() & 0xff;
+            int length = getVarint(buf);
+            if (length > buf.remaining()) {
+                throw new IllegalArgumentException("Record length " + length + " exceeds frame");
+            }
+            byte[] payload = new byte[length];
+            buf.get(payload);
+            switch (type) {
+            case PACKET:
+                packets.add(new String(payload, PACKET_CHARSET));
+                break;
+            case AUTH:
+                message.setAuthToken(new String(payload, TEXT_CHARSET));
+                break;
+            case BATCHED:
+                message.setBatched(true);
+                break;
+            case CONFLATE:
+                message.setConflate(true);
+                break;
+            case TARGET_TABLE:
+                message.setTargetTable(true);
+                break;
+            case TARGET_TABLE_DELTA:
+                if (fromClient) {
+                    throw new IllegalArgumentException("Target table changes sent by client");
+                }
+                message.setTargetTableDelta(decodeDelta(payload));
+                break;
+            case FILTER:
+                FilterMessage filter = decodeFilter(payload);
+                if (message.getFilter() != null) {
+                    filter.setMsgTypes(message.getFilter().getMsgTypes());
+                    filter.setMmsis(message.getFilter().getMmsis());
+                }
+                message.setFilter(filter);
+                break;
+            case FILTER_MSG_TYPES:
+                getFilter(message).setMsgTypes(decodeMsgTypes(payload));
+                break;
+            case FILTER_MMSIS:
+                getFilter(message).setMmsis(decodeMmsis(payload));
+                break;
+            default:
+                // Unknown record, skip
+                break;
+            }
+        }
+        if (packets.size() == 1) {
+            message.setPacket(packets.get(0));
+        } else if (packets.size() > 1) {
+            message.setPackets(packets);
+        }
+        return message;
+    }
+
+    private static byte[] encodeFilter(FilterMessage filter) {
+        boolean position = filter.getLat() != null && filter.getLon() != null;
+        ByteBuffer buf = ByteBuffer.allocate(position ? 20 : 4);
+        buf.putInt(filter.getRadius());
+        if (position) {
+            buf.putDouble(filter.getLat());
+            buf.putDouble(filter.getLon());
+        }
+        return buf.array();
+    }
+
+    private static FilterMessage decodeFilter(byte[] payload) {
+        if (payload.length < 4) {
+            throw new IllegalArgumentException("Filter record too short");
+        }
+        ByteBuffer buf = ByteBuffer.wrap(payload);
+        FilterMessage filter = new FilterMessage();
+        filter.setRadius(buf.getInt());
+        if (filter.getRadius() < 0) {
+            throw new IllegalArgumentException("Invalid filter radius: " + filter.getRadius());
+        }
+        if (buf.remaining() >= 16) {
+            double lat = buf.getDouble();
+            double lon = buf.getDouble();
+            // Also rejects NaN
+            if (!(Math.abs(lat) <= 90 && Math.abs(lon) <= 180)) {
+                throw new IllegalArgumentException("Invalid filter position: " + lat + ", " + lon);
+            }
+            filter.setLat(lat);
+            filter.setLon(lon);
+        }
+        return filter;
+    }
+
+    private static FilterMessage getFilter(WsMessage message) {
+        if (message.getFilter() == null) {
+            message.setFilter(new FilterMessage());
+        }
+        return message.getFilter();
+    }
+
+    private static byte[] encodeMsgTypes(List<Integer> msgTypes) {
+        if (msgTypes == null || msgTypes.isEmpty()) {
+            return null;
+        }
+        byte[] payload = new byte[msgTypes.size()];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) msgTypes.get(i).intValue();
+        }
+        return payload;
+    }
+
+    private static List<Integer> decodeMsgTypes(byte[] payload) {
+        List<Integer> msgTypes = new ArrayList<>(payload.length);
+        for (byte b : payload) {
+            msgTypes.add(b & 0xff);
+        }
+        return msgTypes;
+    }
+
+    private static byte[] encodeMmsis(List<Integer> mmsis) {
+        if (mmsis == null || mmsis.isEmpty()) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(4 * mmsis.size());
+        for (Integer mmsi : mmsis) {
+            buf.putInt(mmsi);
+        }
+        return buf.array();
+    }
+
+    private static List<Integer> decodeMmsis(byte[] payload) {
+        if (payload.length % 4 != 0) {
+            throw new IllegalArgumentException("Invalid MMSI record length: " + payload.length);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(payload);
+        List<Integer> mmsis = new ArrayList<>(payload.length / 4);
+        while (buf.hasRemaining()) {
+            mmsis.add(buf.getInt());
+        }
+        return mmsis;
+    }
+
+    private static byte[] encodeDelta(TargetTableDeltaMessage delta) {
+        List<byte[]> names = new ArrayList<>(delta.getTargets().size());
+        int size = 9 + varintSize(delta.getRemoved().size()) + 4 * delta.getRemoved().size()
+                + varintSize(delta.getTargets().size());
+        for (TargetTableEntry target : delta.getTargets()) {
+            byte[] name = target.getName() == null ? null : target.getName().getBytes(TEXT_CHARSET);
+            names.add(name);
+            size += 28 + (name == null ? 1 : varintSize(name.length + 1) + name.length);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putLong(delta.getVersion());
+        buf.put((byte) (delta.isFull() ? 1 : 0));
+        putVarint(buf, delta.getRemoved().size());
+        for (Integer mmsi : delta.getRemoved()) {
+            buf.putInt(mmsi);
+        }
+        putVarint(buf, delta.getTargets().size());
+        for (int i = 0; i < names.size(); i++) {
+            TargetTableEntry target = delta.getTargets().get(i);
+            buf.putInt(target.getMmsi());
+            buf.putLong(target.getLastMessage());
+            buf.putDouble(target.getLat());
+            buf.putDouble(target.getLon());
+            byte[] name = names.get(i);
+            if (name == null) {
+                putVarint(buf, 0);
+            } else {
+                putVarint(buf, name.length + 1);
+                buf.put(name);
+            }
+        }
+        return buf.array();
+    }
+
+    private static TargetTableDeltaMessage decodeDelta(byte[] payload) {
+        ByteBuffer buf = ByteBuffer.wrap(payload);
+        TargetTableDeltaMessage delta = new TargetTableDeltaMessage();
+        try {
+            delta.setVersion(buf.getLong());
+            delta.setFull(buf.get() != 0);
+            int removed = getVarint(buf);
+            if (removed > buf.remaining() / 4) {
+                throw new IllegalArgumentException("Removed count " + removed + " exceeds record");
+            }
+            for (int i = 0; i < removed; i++) {
+                delta.getRemoved().add(buf.getInt());
+            }
+            int targets = getVarint(buf);
+            if (targets > buf.remaining() / 29) {
+                throw new IllegalArgumentException("Target count " + targets + " exceeds record");
+            }
+            for (int i = 0; i < targets; i++) {
+                TargetTableEntry target = new TargetTableEntry();
+                target.setMmsi(buf.getInt());
+                target.setLastMessage(buf.getLong());
+                target.setLat(buf.getDouble());
+                target.setLon(buf.getDouble());
+                int length = getVarint(buf);
+                if (length - 1 > buf.remaining()) {
+                    throw new IllegalArgumentException("Name length " + (length - 1) + " exceeds record");
+                }
+                if (length > 0) {
+                    byte[] name = new byte[length - 1];
+                    buf.get(name);
+                    target.setName(new String(name, TEXT_CHARSET));
+                }
+                delta.getTargets().add(target);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Target table record too short");
+        }
+        return delta;
+    }
+
+    private static int recordSize(int length) {
+        return 1 + varintSize(length) + length;
+    }
+
+    private static void putRecord(ByteBuffer buf, int type, byte[] payload) {
+        buf.put((byte) type);
+        putVarint(buf, payload.length);
+        buf.put(payload);
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer buf, int value) {
+        while ((value & ~0x7f) != 0) {
+            buf.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (!buf.hasRemaining()) {
+                throw new IllegalArgumentException("Truncated varint");
+            }
+            int b = buf.get() & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("Negative length");
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+}
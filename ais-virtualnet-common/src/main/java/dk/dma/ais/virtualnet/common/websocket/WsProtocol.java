@@ -0,0 +1,37 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.websocket;
+
+/**
+ * WebSocket subprotocols understood by the virtual network. A client that does not ask for a subprotocol uses JSON
+ * text frames.
+ */
+public final class WsProtocol {
+
+    /**
+     * JSON text frames with {@link dk.dma.ais.virtualnet.common.message.WsMessage} content
+     */
+    public static final String JSON = "ais-virtualnet.json";
+
+    /**
+     * Binary frames encoded by {@link WsBinaryCodec}
+     */
+    public static final String BINARY = "ais-virtualnet.bin.v1";
+
+    private WsProtocol() {
+
+    }
+
+}
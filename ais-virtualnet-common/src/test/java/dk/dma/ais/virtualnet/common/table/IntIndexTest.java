@@ -0,0 +1,49 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IntIndexTest {
+
+    @Test
+    public void sameAsHashMap() {
+        IntIndex index = new IntIndex();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            // Few distinct keys, so probe sequences collide and are shifted back on removal
+            int key = random.nextInt(5000) * 1024;
+            if (random.nextInt(3) == 0) {
+                Integer removed = expected.remove(key);
+                Assert.assertEquals(removed == null ? -1 : removed, index.remove(key));
+            } else {
+                expected.put(key, i);
+                index.put(key, i);
+            }
+        }
+        Assert.assertEquals(expected.size(), index.size());
+        for (int key = 0; key < 5000 * 1024; key += 1024) {
+            Integer value = expected.get(key);
+            Assert.assertEquals(value == null ? -1 : value, index.get(key));
+        }
+    }
+
+}
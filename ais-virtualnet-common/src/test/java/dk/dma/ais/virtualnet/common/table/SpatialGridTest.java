@@ -0,0 +1,79 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.enav.model.geometry.Position;
+
+public class SpatialGridTest {
+
+    @Test
+    public void radius() {
+        SpatialGrid grid = new SpatialGrid();
+        grid.update(1, Position.create(55.0, 11.0));
+        grid.update(2, Position.create(55.1, 11.1));
+        grid.update(3, Position.create(56.0, 11.0));
+        List<Integer> found = grid.findWithinRadius(Position.create(55.0, 11.0), 20000);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(1, 2)), new HashSet<>(found));
+    }
+
+    @Test
+    public void moveAndRemove() {
+        SpatialGrid grid = new SpatialGrid();
+        grid.update(1, Position.create(55.0, 11.0));
+        grid.update(1, Position.create(57.0, 11.0));
+        Assert.assertTrue(grid.findWithinRadius(Position.create(55.0, 11.0), 20000).isEmpty());
+        Assert.assertEquals(Collections.singletonList(1), grid.findWithinRadius(Position.create(57.0, 11.0), 20000));
+        grid.remove(1);
+        Assert.assertEquals(0, grid.size());
+        Assert.assertTrue(grid.findWithinRadius(Position.create(57.0, 11.0), 20000).isEmpty());
+    }
+
+    @Test
+    public void boxAcrossDateLine() {
+        SpatialGrid grid = new SpatialGrid();
+        grid.update(1, Position.create(10.0, 179.5));
+        grid.update(2, Position.create(10.0, -179.5));
+        grid.update(3, Position.create(10.0, 0.0));
+        List<Integer> found = grid.findWithinBox(9.0, 179.0, 11.0, -179.0);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(1, 2)), new HashSet<>(found));
+    }
+
+    @Test
+    public void nearest() {
+        SpatialGrid grid = new SpatialGrid();
+        for (int i = 1; i <= 10; i++) {
+            grid.update(i, Position.create(55.0 + i * 0.3, 11.0));
+        }
+        Assert.assertEquals(Arrays.asList(1, 2, 3), grid.findNearest(Position.create(55.0, 11.0), 3));
+        Assert.assertEquals(10, grid.findNearest(Position.create(0.0, 0.0), 20).size());
+    }
+
+    @Test
+    public void nearestMoreThanIndexed() {
+        SpatialGrid grid = new SpatialGrid();
+        grid.update(1, Position.create(55.0, 11.0));
+        grid.update(2, Position.create(56.0, 11.0));
+        Assert.assertEquals(Arrays.asList(2, 1), grid.findNearest(Position.create(57.0, 11.0), 1000000000));
+    }
+
+}
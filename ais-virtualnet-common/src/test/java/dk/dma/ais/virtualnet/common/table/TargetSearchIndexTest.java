@@ -0,0 +1,90 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TargetSearchIndexTest {
+
+    private static TargetSearchIndex index() {
+        TargetSearchIndex index = new TargetSearchIndex();
+        index.update(219000001, "MAERSK ALABAMA");
+        index.update(219000002, "ALABAMA");
+        index.update(219000003, "  northern   light ");
+        index.update(219000004, "BALAMARA");
+        index.update(265547250, null);
+        return index;
+    }
+
+    @Test
+    public void rankedMatches() {
+        TargetSearchIndex index = index();
+        // Start of name, then start of word, then anywhere
+        Assert.assertEquals(Arrays.asList(219000002, 219000001, 219000004), index.search("ala", 10));
+        Assert.assertEquals(Arrays.asList(219000002), index.search("ala", 1));
+        Assert.assertEquals(Arrays.asList(219000002, 219000001), index.search("alabama", 10));
+        Assert.assertEquals(Arrays.asList(219000003), index.search("Northern Light", 10));
+        Assert.assertTrue(index.search("xyz", 10).isEmpty());
+    }
+
+    @Test
+    public void mmsiDigits() {
+        TargetSearchIndex index = index();
+        Assert.assertEquals(Arrays.asList(265547250), index.search("5547", 10));
+        Assert.assertEquals(4, index.search("2190", 10).size());
+        // Short queries only match the start
+        Assert.assertEquals(Arrays.asList(265547250), index.search("26", 10));
+        Assert.assertTrue(index.search("65", 10).isEmpty());
+    }
+
+    @Test
+    public void renameAndRemove() {
+        TargetSearchIndex index = index();
+        index.update(219000002, "NEW NAME");
+        // A missing name keeps the current name
+        index.update(219000002, null);
+        Assert.assertEquals(Arrays.asList(219000001), index.search("alabama", 10));
+        Assert.assertEquals(Arrays.asList(219000002), index.search("new", 10));
+        index.remove(219000002);
+        Assert.assertTrue(index.search("new", 10).isEmpty());
+        Assert.assertEquals(4, index.size());
+    }
+
+    @Test
+    public void longPostings() {
+        TargetSearchIndex index = new TargetSearchIndex();
+        for (int mmsi = 219000000; mmsi < 219001000; mmsi++) {
+            index.update(mmsi, null);
+            index.update(mmsi, "SHIP " + mmsi);
+        }
+        // Remove every other target from the postings shared by all of them
+        for (int mmsi = 219000000; mmsi < 219001000; mmsi += 2) {
+            index.remove(mmsi);
+        }
+        Assert.assertEquals(500, index.size());
+        Assert.assertEquals(500, index.search("219", 1000).size());
+        Assert.assertEquals(500, index.search("ship", 1000).size());
+        Assert.assertEquals(Arrays.asList(219000777), index.search("219000777", 10));
+        Assert.assertTrue(index.search("219000776", 10).isEmpty());
+        // Renaming keeps the target under its MMSI
+        index.update(219000777, "OTHER");
+        Assert.assertEquals(Arrays.asList(219000777), index.search("219000777", 10));
+        Assert.assertEquals(499, index.search("ship", 1000).size());
+    }
+
+}
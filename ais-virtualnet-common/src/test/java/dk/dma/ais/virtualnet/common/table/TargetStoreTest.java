@@ -0,0 +1,109 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.ais.message.AisMessage;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.enav.model.geometry.Position;
+
+public class TargetStoreTest {
+
+    private static AisMessage positionReport() {
+        return AisPacket.from("!AIVDM,1,1,,A,13u?etPv2;0n:dDPwUM1U1Cb069D,0*23").tryGetAisMessage();
+    }
+
+    @Test
+    public void updateAndGet() {
+        TargetStore store = new TargetStore();
+        AisMessage message = positionReport();
+        Position position = store.update(message, 1000);
+        Assert.assertNotNull(position);
+        TargetTableEntry entry = store.get(message.getUserId());
+        Assert.assertEquals(message.getUserId(), entry.getMmsi());
+        Assert.assertEquals(1000, entry.getLastMessage());
+        Assert.assertEquals(position.getLatitude(), entry.getLat(), 0);
+        Assert.assertEquals(position.getLongitude(), entry.getLon(), 0);
+        Assert.assertNull(store.get(message.getUserId() + 1));
+        Assert.assertEquals(1, store.getEntries(1000).size());
+        Assert.assertTrue(store.getEntries(1001).isEmpty());
+    }
+
+    @Test
+    public void growAndRemove() {
+        TargetStore store = new TargetStore();
+        AisMessage message = positionReport();
+        for (int mmsi = 1; mmsi <= 5000; mmsi++) {
+            message.setUserId(mmsi);
+            store.update(message, mmsi);
+        }
+        Assert.assertEquals(5000, store.size());
+        List<Integer> removed = store.removeOlderThan(2501);
+        Assert.assertEquals(2500, removed.size());
+        Assert.assertEquals(2500, store.size());
+        Assert.assertNull(store.get(2500));
+        Assert.assertEquals(2501, store.get(2501).getLastMessage());
+        // Removed slots are reused
+        message.setUserId(1);
+        store.update(message, 6000);
+        Assert.assertEquals(6000, store.getLastMessage(1));
+        Assert.assertEquals(2501, store.size());
+    }
+
+    @Test
+    public void changedAndRemovedSince() {
+        TargetStore store = new TargetStore();
+        AisMessage message = positionReport();
+        for (int mmsi = 1; mmsi <= 10; mmsi++) {
+            message.setUserId(mmsi);
+            store.update(message, mmsi);
+        }
+        long since = store.getVersion();
+        message.setUserId(10);
+        store.update(message, 20);
+        store.removeOlderThan(3);
+        Assert.assertTrue(store.getVersion() > since);
+        List<TargetTableEntry> changed = store.getEntriesChangedSince(since, 0);
+        Assert.assertEquals(1, changed.size());
+        Assert.assertEquals(10, changed.get(0).getMmsi());
+        List<Integer> removed = store.getRemovedSince(since);
+        Assert.assertEquals(2, removed.size());
+        Assert.assertTrue(removed.contains(1) && removed.contains(2));
+        Assert.assertTrue(store.getRemovedSince(store.getVersion()).isEmpty());
+    }
+
+    @Test
+    public void expireUpdatedTargets() {
+        TargetStore store = new TargetStore();
+        AisMessage message = positionReport();
+        message.setUserId(1);
+        store.update(message, 1000);
+        message.setUserId(2);
+        store.update(message, 1000);
+        // Still queued by its first message
+        message.setUserId(1);
+        store.update(message, 5000);
+        Assert.assertEquals(Arrays.asList(2), store.removeOlderThan(3000));
+        Assert.assertTrue(store.removeOlderThan(5000).isEmpty());
+        Assert.assertEquals(Arrays.asList(1), store.removeOlderThan(5001));
+        Assert.assertEquals(0, store.size());
+    }
+
+}
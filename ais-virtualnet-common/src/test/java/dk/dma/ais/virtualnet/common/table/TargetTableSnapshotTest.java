@@ -0,0 +1,76 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TargetTableSnapshotTest {
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("targets", ".snapshot");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void writeAndLoad() throws IOException {
+        long now = System.currentTimeMillis();
+        TargetTable table = new TargetTable();
+        table.restore(new TargetTableEntry(219000001, "NORTHERN LIGHT", now, 55.5, 11.25));
+        table.restore(new TargetTableEntry(219000002, null, now - 1000));
+        table.restore(new TargetTableEntry(219000003, "EXPIRED", now - TargetTableEntry.DEFAULT_TTL - 1000));
+        Assert.assertEquals(2, TargetTableSnapshot.write(table, file));
+
+        TargetTable loaded = new TargetTable();
+        Assert.assertEquals(2, TargetTableSnapshot.load(loaded, file));
+        TargetTableEntry first = loaded.allTargets().get(219000001);
+        Assert.assertEquals("NORTHERN LIGHT", first.getName());
+        Assert.assertEquals(now, first.getLastMessage());
+        Assert.assertEquals(55.5, first.getPosition().getLatitude(), 0);
+        Assert.assertEquals(11.25, first.getPosition().getLongitude(), 0);
+        TargetTableEntry second = loaded.allTargets().get(219000002);
+        Assert.assertNull(second.getName());
+        Assert.assertNull(second.getPosition());
+        Assert.assertTrue(loaded.exists(219000002));
+        Assert.assertFalse(loaded.exists(219000003));
+        // Nothing newer to take from the snapshot
+        Assert.assertEquals(0, TargetTableSnapshot.load(loaded, file));
+    }
+
+    @Test(expected = IOException.class)
+    public void corrupted() throws IOException {
+        TargetTable table = new TargetTable();
+        table.restore(new TargetTableEntry(219000001, "NORTHERN LIGHT", System.currentTimeMillis()));
+        TargetTableSnapshot.write(table, file);
+        byte[] data = Files.readAllBytes(file);
+        data[data.length / 2] ^= 1;
+        Files.write(file, data);
+        TargetTableSnapshot.load(new TargetTable(), file);
+    }
+
+}
@@ -0,0 +1,43 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.enav.model.geometry.Position;
+
+public class TargetTableTest {
+
+    private static final Position CENTER = Position.create(55.5, 11.25);
+
+    @Test
+    public void expiryRacingWithUpdate() {
+        long now = System.currentTimeMillis();
+        TargetTable table = new TargetTable();
+        table.restore(new TargetTableEntry(219000001, "NORTHERN LIGHT", now - TargetTableEntry.DEFAULT_TTL - 1000,
+                55.5, 11.25));
+        table.cleanup();
+        Assert.assertFalse(table.exists(219000001));
+        Assert.assertTrue(table.findNearest(CENTER, 1).isEmpty());
+
+        // Target updated after expiry removed it from the store but before it is removed from the indexes
+        table.restore(new TargetTableEntry(219000002, "SOUTHERN LIGHT", now, 55.5, 11.25));
+        Assert.assertFalse(table.removeFromIndexes(219000002));
+        Assert.assertEquals(219000002, table.findNearest(CENTER, 1).get(0).getMmsi());
+        Assert.assertEquals(219000002, table.search("southern", 1).get(0).getMmsi());
+    }
+
+}
@@ -0,0 +1,60 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.table;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.enav.model.geometry.Position;
+
+public class TrackHistoryTest {
+
+    @Test
+    public void keepLastFixes() {
+        TrackHistory history = new TrackHistory(10, 3, 1000);
+        for (int i = 0; i < 5; i++) {
+            history.add(1, i * 1000, Position.create(55 + i * 0.1, -11.5));
+        }
+        // Too soon after the last fix
+        history.add(1, 4500, Position.create(0, 0));
+        List<TrackPoint> track = history.getTrack(1, 0);
+        Assert.assertEquals(3, track.size());
+        Assert.assertEquals(2000, track.get(0).getTime());
+        Assert.assertEquals(4000, track.get(2).getTime());
+        Assert.assertEquals(55.4, track.get(2).getLat(), 1e-7);
+        Assert.assertEquals(-11.5, track.get(2).getLon(), 1e-7);
+        Assert.assertEquals(2, history.getTrack(1, 3000).size());
+        Assert.assertTrue(history.getTrack(2, 0).isEmpty());
+    }
+
+    @Test
+    public void fixedNumberOfTargets() {
+        TrackHistory history = new TrackHistory(2, 4, 0);
+        history.add(1, 0, Position.create(55, 11));
+        history.add(2, 0, Position.create(55, 11));
+        history.add(3, 0, Position.create(55, 11));
+        Assert.assertTrue(history.getTrack(3, 0).isEmpty());
+        Assert.assertEquals(1, history.getOverflow());
+        // Removing a target frees its slot
+        history.remove(1);
+        Assert.assertTrue(history.getTrack(1, 0).isEmpty());
+        history.add(3, 1, Position.create(56, 12));
+        Assert.assertEquals(1, history.getTrack(3, 0).size());
+        Assert.assertEquals(2, history.size());
+    }
+
+}
@@ -0,0 +1,186 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.common.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.ais.virtualnet.common.message.FilterMessage;
+import dk.dma.ais.virtualnet.common.message.TargetTableDeltaMessage;
+import dk.dma.ais.virtualnet.common.message.WsMessage;
+import dk.dma.ais.virtualnet.common.table.TargetTableEntry;
+
+public class WsBinaryCodecTest {
+
+    private static final String PACKET = "!AIVDM,1,1,,A,13u?etPv2;0n:dDPwUM1U1Cb069D,0*23";
+
+    @Test
+    public void authAndBatched() {
+        WsMessage msg = new WsMessage();
+        msg.setAuthToken("0f8fad5b-d9cb-469f-a165-70867728950e");
+        msg.setBatched(true);
+        msg.setConflate(true);
+        WsMessage decoded = WsBinaryCodec.decode(WsBinaryCodec.encode(msg));
+        Assert.assertEquals(msg.getAuthToken(), decoded.getAuthToken());
+        Assert.assertEquals(Boolean.TRUE, decoded.getBatched());
+        Assert.assertEquals(Boolean.TRUE, decoded.getConflate());
+        Assert.assertNull(decoded.getPacket());
+        Assert.assertNull(decoded.getPackets());
+    }
+
+    @Test
+    public void singlePacket() {
+        WsMessage msg = new WsMessage();
+        msg.setPacket(PACKET);
+        WsMessage decoded = WsBinaryCodec.decode(WsBinaryCodec.encode(msg));
+        Assert.assertEquals(PACKET, decoded.getPacket());
+        Assert.assertNull(decoded.getAuthToken());
+    }
+
+    @Test
+    public void multiplePackets() {
+        // Long enough to need a two byte length
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            buf.append(PACKET).append("\r\n");
+        }
+        WsMessage msg = new WsMessage();
+        msg.setPackets(Arrays.asList(PACKET, buf.toString()));
+        WsMessage decoded = WsBinaryCodec.decode(WsBinaryCodec.encode(msg));
+        Assert.assertEquals(msg.getPackets(), decoded.getPackets());
+    }
+
+    @Test
+    public void filter() {
+        WsMessage msg = new WsMessage();
+        msg.setFilter(new FilterMessage(55.5, 11.25, 75000));
+        FilterMessage decoded = WsBinaryCodec.decode(WsBinaryCodec.encode(msg)).getFilter();
+        Assert.assertEquals(75000, decoded.getRadius());
+        Assert.assertEquals(55.5, decoded.getLat(), 0);
+        Assert.assertEquals(11.25, decoded.getLon(), 0);
+
+        msg.setFilter(new FilterMessage(null, null, 1000));
+        decoded = WsBinaryCodec.decode(WsBinaryCodec.encode(msg)).getFilter();
+        Assert.assertEquals(1000, decoded.getRadius());
+        Assert.assertNull(decoded.getLat());
+        Assert.assertNull(decoded.getMsgTypes());
+
+        msg.getFilter().setMsgTypes(Arrays.asList(1, 2, 3, 27));
+        msg.getFilter().setMmsis(Arrays.asList(219000123, 992199999));
+        decoded = WsBinaryCodec.decode(WsBinaryCodec.encode(msg)).getFilter();
+        Assert.assertEquals(msg.getFilter().getMsgTypes(), decoded.getMsgTypes());
+        Assert.assertEquals(msg.getFilter().getMmsis(), decoded.getMmsis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidFilterPosition() {
+        WsMessage msg = new WsMessage();
+        msg.setFilter(new FilterMessage(Double.NaN, 11.25, 75000));
+        WsBinaryCodec.decode(WsBinaryCodec.encode(msg));
+    }
+
+    @Test
+    public void unknownRecordSkipped() {
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        buf.put((byte) WsBinaryCodec.VERSION);
+        buf.put((byte) 99).put((byte) 3).put(new byte[] { 1, 2, 3 });
+        byte[] packet = PACKET.getBytes();
+        buf.put((byte) WsBinaryCodec.PACKET).put((byte) packet.length).put(packet);
+        buf.flip();
+        Assert.assertEquals(PACKET, WsBinaryCodec.decode(buf).getPacket());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedFrame() {
+        ByteBuffer buf = ByteBuffer.wrap(new byte[] { WsBinaryCodec.VERSION, WsBinaryCodec.PACKET, 10, 1, 2 });
+        WsBinaryCodec.decode(buf);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownVersion() {
+        WsBinaryCodec.decode(ByteBuffer.wrap(new byte[] { 42 }));
+    }
+
+    @Test
+    public void targetTableDelta() {
+        TargetTableDeltaMessage delta = new TargetTableDeltaMessage();
+        delta.setVersion(1383264000000000L);
+        delta.getRemoved().add(219000001);
+        TargetTableEntry target = new TargetTableEntry();
+        target.setMmsi(219000002);
+        target.setName("NORTHERN LIGHT");
+        target.setLastMessage(1383264000000L);
+        target.setLat(55.5);
+        target.setLon(11.25);
+        delta.getTargets().add(target);
+        target = new TargetTableEntry();
+        target.setMmsi(219000003);
+        delta.getTargets().add(target);
+        WsMessage msg = new WsMessage();
+        msg.setTargetTable(true);
+        msg.setTargetTableDelta(delta);
+
+        WsMessage decodedMsg = WsBinaryCodec.decode(WsBinaryCodec.encode(msg));
+        Assert.assertEquals(Boolean.TRUE, decodedMsg.getTargetTable());
+        TargetTableDeltaMessage decoded = decodedMsg.getTargetTableDelta();
+        Assert.assertEquals(delta.getVersion(), decoded.getVersion());
+        Assert.assertFalse(decoded.isFull());
+        Assert.assertEquals(delta.getRemoved(), decoded.getRemoved());
+        Assert.assertEquals(2, decoded.getTargets().size());
+        TargetTableEntry first = decoded.getTargets().get(0);
+        Assert.assertEquals(219000002, first.getMmsi());
+        Assert.assertEquals("NORTHERN LIGHT", first.getName());
+        Assert.assertEquals(1383264000000L, first.getLastMessage());
+        Assert.assertEquals(55.5, first.getLat(), 0);
+        Assert.assertEquals(11.25, first.getLon(), 0);
+        Assert.assertNull(decoded.getTargets().get(1).getName());
+    }
+
+    /**
+     * Record of target table changes with a single target whose name length is far beyond the frame
+     */
+    private static ByteBuffer hugeNameFrame() {
+        ByteBuffer payload = ByteBuffer.allocate(8 + 1 + 1 + 1 + 28 + 5);
+        payload.putLong(1);
+        payload.put((byte) 0);
+        payload.put((byte) 0);
+        payload.put((byte) 1);
+        payload.put(new byte[28]);
+        payload.put(new byte[] { (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07 });
+        ByteBuffer buf = ByteBuffer.allocate(3 + payload.capacity());
+        buf.put((byte) WsBinaryCodec.VERSION);
+        buf.put((byte) WsBinaryCodec.TARGET_TABLE_DELTA);
+        buf.put((byte) payload.capacity());
+        buf.put(payload.array());
+        buf.flip();
+        return buf;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nameLengthExceedsRecord() {
+        WsBinaryCodec.decode(hugeNameFrame());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void targetTableDeltaFromClient() {
+        WsMessage msg = new WsMessage();
+        msg.setTargetTableDelta(new TargetTableDeltaMessage());
+        WsBinaryCodec.decodeFromClient(WsBinaryCodec.encode(msg));
+    }
+
+}
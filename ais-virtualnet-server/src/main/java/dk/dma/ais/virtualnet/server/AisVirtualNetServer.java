@@ -14,10 +14,16 @@
  */
 package dk.dma.ais.virtualnet.server;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
 import org.slf4j.Logger;
@@ -29,7 +35,17 @@ import dk.dma.ais.bus.provider.CollectorProvider;
 import dk.dma.ais.packet.AisPacket;
 import dk.dma.ais.virtualnet.common.message.StatusMessage;
 import dk.dma.ais.virtualnet.common.table.TargetTable;
+import dk.dma.ais.virtualnet.common.table.TargetTableSnapshot;
+import dk.dma.ais.virtualnet.common.table.TrackHistory;
+import dk.dma.ais.virtualnet.common.websocket.EncodedPacket;
+import dk.dma.ais.virtualnet.server.fanout.FanoutScheduler;
+import dk.dma.ais.virtualnet.server.fanout.FanoutStatistics;
+import dk.dma.ais.virtualnet.server.fanout.PacketSequence;
+import dk.dma.ais.virtualnet.server.fanout.PacketRoute;
+import dk.dma.ais.virtualnet.server.fanout.SubscriptionIndex;
+import dk.dma.ais.virtualnet.server.fanout.TargetTableStream;
 import dk.dma.ais.virtualnet.server.rest.AisVirtualNetServerProvider;
+import dk.dma.ais.virtualnet.server.rest.TargetTableCache;
 import dk.dma.enav.util.function.Consumer;
 
 /**
@@ -40,6 +56,12 @@ public class AisVirtualNetServer extends Thread implements Consumer<AisPacket> {
 
     private static final Logger LOG = LoggerFactory.getLogger(AisVirtualNetServer.class);
 
+    /**
+     * Time between removing expired targets, tokens and MMSI reservations. Only entries due to expire are looked at,
+     * so this can be short.
+     */
+    private static final long CLEANUP_INTERVAL = 1000; // 1 sec
+
     private final AisBus aisBus;
 
     private final WebServer server;
@@ -48,12 +70,57 @@ public class AisVirtualNetServer extends Thread implements Consumer<AisPacket> {
 
     private final DistributerConsumer distributer = new DistributerConsumer();
 
-    private final TargetTable targetTable = new TargetTable();
+    private final TargetTable targetTable;
+
+    private final TargetTableCache targetTableCache;
+
+    private final TargetTableStream targetTableStream;
+
+    /**
+     * File the target table is saved in, null if not saved
+     */
+    private final Path snapshotFile;
+
+    private final long snapshotInterval;
+
+    /**
+     * Version of the target table last saved
+     */
+    @GuardedBy("this")
+    private long snapshotVersion = -1;
 
     private final Authenticator authenticator;
 
+    private final AuthenticationExecutor authenticationExecutor;
+
     private final MmsiBroker mmsiBroker;
 
+    private final FanoutStatistics fanoutStatistics = new FanoutStatistics();
+
+    private final FanoutScheduler fanoutScheduler;
+
+    /**
+     * Sequence numbers of the packets distributed to clients
+     */
+    private final PacketSequence packetSequence = new PacketSequence();
+
+    private final int sendQueueSize;
+
+    private final int maxSendLag;
+
+    private final int batchMaxPackets;
+
+    private final int batchFlushWindow;
+
+    private final int compressionLevel;
+
+    private final boolean compressionContextTakeover;
+
+    /**
+     * Subscriptions of authenticated clients
+     */
+    private final SubscriptionIndex<WebSocketServerSession> subscriptions = new SubscriptionIndex<>();
+
     /**
      * Connected clients
      */
@@ -66,13 +133,46 @@ public class AisVirtualNetServer extends Thread implements Consumer<AisPacket> {
         // Sets setReuseAddress
         // Create and register websocket handler
 
+        TrackHistory trackHistory = null;
+        if (conf.getTrackHistoryTargets() > 0) {
+            trackHistory = new TrackHistory(conf.getTrackHistoryTargets(), conf.getTrackHistoryFixes(),
+                    conf.getTrackHistoryInterval());
+        }
+        targetTable = new TargetTable(trackHistory);
+        targetTableCache = new TargetTableCache(targetTable, conf.getTargetTableMaxAge());
+
+        // Load targets saved before restart
+        snapshotFile = conf.getTargetTableSnapshotFile() == null ? null : Paths.get(conf.getTargetTableSnapshotFile());
+        snapshotInterval = conf.getTargetTableSnapshotInterval();
+        if (snapshotFile != null && Files.exists(snapshotFile)) {
+            long start = System.currentTimeMillis();
+            try {
+                int loaded = TargetTableSnapshot.load(targetTable, snapshotFile);
+                LOG.info("Loaded " + loaded + " targets from " + snapshotFile + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            } catch (IOException e) {
+                LOG.error("Failed to load target table: " + e.getMessage());
+            }
+        }
 
         // Create authenticator
-        authenticator = new Authenticator(usersFile);
+        authenticator = new Authenticator(usersFile, conf.getTokenKeysFile());
+        authenticationExecutor = new AuthenticationExecutor(conf.getAuthenticationThreads(),
+                conf.getAuthenticationQueueSize());
 
         // Create MMSI broker
         mmsiBroker = new MmsiBroker();
 
+        // Create writer threads for clients
+        fanoutScheduler = new FanoutScheduler(conf.getWriterThreads(), conf.isVirtualWriterThreads());
+        targetTableStream = new TargetTableStream(targetTable, fanoutScheduler, conf.getTargetTableStreamInterval());
+        sendQueueSize = conf.getSendQueueSize();
+        maxSendLag = conf.getMaxSendLag();
+        batchMaxPackets = conf.getBatchMaxPackets();
+        batchFlushWindow = conf.getBatchFlushWindow();
+        compressionLevel = conf.getCompressionLevel();
+        compressionContextTakeover = conf.isCompressionContextTakeover();
+
         // Create AisBus
         aisBus = conf.getAisbusConfiguration().getInstance();
         // Initialize distributer and register in aisbus
@@ -88,6 +188,18 @@ public class AisVirtualNetServer extends Thread implements Consumer<AisPacket> {
         StatusMessage message = new StatusMessage();
         message.setMessageRate(distributer.getStatus().getInRate());
         message.setConnectedClients(clients.size());
+        message.setEncodeRate(fanoutStatistics.getEncodeRate());
+        message.setSendRate(fanoutStatistics.getSendRate());
+        message.setFrameRate(fanoutStatistics.getFrameRate());
+        message.setEncodesAvoidedRate(fanoutStatistics.getEncodesAvoidedRate());
+        message.setConflateRate(fanoutStatistics.getConflateRate());
+        message.setAuthenticationQueue(authenticationExecutor.getQueueDepth());
+        message.setAuthenticationRate(authenticationExecutor.getVerifyRate());
+        message.setAuthenticationRejectRate(authenticationExecutor.getRejectRate());
+        message.setAuthenticationMillis(authenticationExecutor.getMeanVerifyMillis());
+        for (WebSocketServerSession client : clients) {
+            message.getSessions().add(client.getSessionStatus());
+        }
         return message;
     }
 
@@ -99,10 +211,25 @@ public class AisVirtualNetServer extends Thread implements Consumer<AisPacket> {
         LOG.debug("Accepted message from DistributerConsumer");
         // Maintain target table
         targetTable.update(packet);
+        if (clients.isEmpty()) {
+            return;
+        }
+        // Find interested clients
+        PacketRoute route = PacketRoute.create(packet, targetTable);
+        Collection<WebSocketServerSession> recipients = subscriptions.match(route);
+        if (recipients.isEmpty()) {
+            return;
+        }
+        // Encode once and share the frame between all clients
+        EncodedPacket encoded = new EncodedPacket(packet);
+        long sequence = packetSequence.next();
+        fanoutStatistics.frameEncoded();
+        // Position reports may replace older ones from the same target if conflation is on
+        int conflationKey = route != null && route.isPositionReport() ? route.getUserId() : -1;
         // Distribute packet to clients
-        for (WebSocketServerSession client : clients) {
+        for (WebSocketServerSession client : recipients) {
             LOG.debug("\tEnqueing at client");
-            client.enqueuePacket(packet);
+            client.enqueuePacket(sequence, encoded, conflationKey);
             LOG.debug("\t\tDone enqueing at client");
         }
     }
@@ -134,6 +261,7 @@ public class AisVirtualNetServer extends Thread implements Consumer<AisPacket> {
      */
     public void removeClient(WebSocketServerSession session) {
         LOG.info("Removing client");
+        subscriptions.unsubscribe(session);
         clients.remove(session);
         LOG.info("Client count: " + clients.size());
     }
@@ -160,6 +288,8 @@ public class AisVirtualNetServer extends Thread implements Consumer<AisPacket> {
         aisBus.startProviders();
         aisBus.start();
 
+        targetTableStream.start();
+
         super.start();
     }
 
@@ -181,6 +311,11 @@ public class AisVirtualNetServer extends Thread implements Consumer<AisPacket> {
             client.close();
         }
 
+        LOG.info("Stopping writer threads");
+        targetTableStream.stop();
+        fanoutScheduler.shutdown();
+        authenticationExecutor.shutdown();
+
         LOG.info("Waiting for server to stop");
         this.interrupt();
         try {
@@ -190,17 +325,47 @@ public class AisVirtualNetServer extends Thread implements Consumer<AisPacket> {
             e.printStackTrace();
         }
 
+        if (snapshotFile != null) {
+            LOG.info("Saving target table");
+            saveSnapshot();
+        }
+
     }
 
     @Override
     public void run() {
+        long lastSnapshot = System.currentTimeMillis();
         while (true) {
             try {
-                Thread.sleep(10000);
+                Thread.sleep(CLEANUP_INTERVAL);
             } catch (InterruptedException e) {
                 return;
             }
             targetTable.cleanup();
+            authenticator.cleanup();
+            mmsiBroker.cleanup();
+            if (snapshotFile != null && System.currentTimeMillis() - lastSnapshot >= snapshotInterval) {
+                saveSnapshot();
+                lastSnapshot = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Save the target table if it has changed since last saved
+     */
+    private synchronized void saveSnapshot() {
+        long version = targetTable.getVersion();
+        if (version == snapshotVersion) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            int saved = TargetTableSnapshot.write(targetTable, snapshotFile);
+            snapshotVersion = version;
+            LOG.debug("Saved " + saved + " targets in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            LOG.error("Failed to save target table: " + e.getMessage());
         }
     }
 
@@ -213,6 +378,114 @@ public class AisVirtualNetServer extends Thread implements Consumer<AisPacket> {
         return targetTable;
     }
 
+    /**
+     * Get serialized target table shared by requests
+     * 
+     * @return
+     */
+    public TargetTableCache getTargetTableCache() {
+        return targetTableCache;
+    }
+
+    /**
+     * Get the stream pushing target table changes to clients
+     * 
+     * @return
+     */
+    public TargetTableStream getTargetTableStream() {
+        return targetTableStream;
+    }
+
+    /**
+     * Get subscriptions of clients
+     * 
+     * @return
+     */
+    public SubscriptionIndex<WebSocketServerSession> getSubscriptions() {
+        return subscriptions;
+    }
+
+    /**
+     * Get fan-out statistics
+     * 
+     * @return
+     */
+    public FanoutStatistics getFanoutStatistics() {
+        return fanoutStatistics;
+    }
+
+    /**
+     * Get the sequence numbers of the packets distributed to clients
+     * 
+     * @return
+     */
+    public PacketSequence getPacketSequence() {
+        return packetSequence;
+    }
+
+    /**
+     * Get the scheduler running client writers
+     * 
+     * @return
+     */
+    public FanoutScheduler getFanoutScheduler() {
+        return fanoutScheduler;
+    }
+
+    /**
+     * Get maximum number of packets queued for a single client
+     * 
+     * @return
+     */
+    public int getSendQueueSize() {
+        return sendQueueSize;
+    }
+
+    /**
+     * Get number of packets a client may lag behind before packets for it are dropped
+     * 
+     * @return
+     */
+    public int getMaxSendLag() {
+        return maxSendLag;
+    }
+
+    /**
+     * Get maximum number of packets in a batched frame
+     * 
+     * @return
+     */
+    public int getBatchMaxPackets() {
+        return batchMaxPackets;
+    }
+
+    /**
+     * Get time in milliseconds to collect packets for a batched frame
+     * 
+     * @return
+     */
+    public int getBatchFlushWindow() {
+        return batchFlushWindow;
+    }
+
+    /**
+     * Get deflate level for permessage-deflate, 0 if compression is disabled
+     * 
+     * @return
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Get if the compression context is kept between messages
+     * 
+     * @return
+     */
+    public boolean isCompressionContextTakeover() {
+        return compressionContextTakeover;
+    }
+
     /**
      * Get authenticator
      * 
@@ -222,6 +495,10 @@ public class AisVirtualNetServer extends Thread implements Consumer<AisPacket> {
         return authenticator;
     }
 
+    public AuthenticationExecutor getAuthenticationExecutor() {
+        return authenticationExecutor;
+    }
+
     /**
      * Get MMSI broker
      * 
@@ -0,0 +1,184 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.dma.ais.virtualnet.server.fanout.RateCounter;
+
+/**
+ * Runs password verifications on a small dedicated set of threads with a bounded queue. Checking a BCrypt hash takes
+ * a lot of CPU time, and when many clients reconnect at the same time the verifications would otherwise occupy all
+ * request threads of the web server. Verifications that do not fit in the queue are rejected right away, so clients
+ * can be told to retry later.
+ * <p>
+ * The work following a verification, such as rendering the response, runs on separate request threads. It would
+ * otherwise hold the verification threads and count in the verification time used to estimate when to retry.
+ */
+@ThreadSafe
+public class AuthenticationExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuthenticationExecutor.class);
+
+    /**
+     * Longest time clients are asked to wait before retrying
+     */
+    private static final long MAX_RETRY_AFTER = 60; // 1 min
+
+    private final int threads;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Threads running the work following verifications
+     */
+    private final ExecutorService continuations;
+
+    private final RateCounter verified = new RateCounter();
+
+    private final RateCounter rejected = new RateCounter();
+
+    /**
+     * Total time spent in verifications
+     */
+    private final AtomicLong verifyNanos = new AtomicLong();
+
+    /**
+     * @param threads
+     *            number of verification threads, 0 for half the available processors
+     * @param queueSize
+     *            maximum number of verifications waiting for a thread
+     */
+    public AuthenticationExecutor(int threads, int queueSize) {
+        if (threads <= 0) {
+            threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        }
+        LOG.info("Using " + threads + " authentication threads");
+        this.threads = threads;
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), threadFactory("authentication-"));
+        continuations = Executors.newCachedThreadPool(threadFactory("authenticated-request-"));
+    }
+
+    private static ThreadFactory threadFactory(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Queue a task verifying a password
+     * 
+     * @param verification
+     *            the task verifying the password
+     * @param continuation
+     *            task run on a request thread after the verification, whether it succeeded or not
+     * @throws RejectedExecutionException
+     *             if the queue is full
+     */
+    public void execute(final Runnable verification, final Runnable continuation) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    try {
+                        verification.run();
+                    } finally {
+                        verifyNanos.addAndGet(System.nanoTime() - start);
+                        verified.mark();
+                        continuations.execute(continuation);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.mark();
+            throw e;
+        }
+    }
+
+    /**
+     * Estimate the time in seconds until a full queue has room again
+     * 
+     * @return
+     */
+    public long getRetryAfter() {
+        double seconds = (getQueueDepth() + threads) * getMeanVerifyMillis() / threads / 1000;
+        return Math.max(1, Math.min(MAX_RETRY_AFTER, (long) Math.ceil(seconds)));
+    }
+
+    /**
+     * Number of verifications waiting for a thread
+     * 
+     * @return
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Verifications per second
+     * 
+     * @return
+     */
+    public double getVerifyRate() {
+        return verified.getRate();
+    }
+
+    /**
+     * Verifications per second rejected because the queue was full
+     * 
+     * @return
+     */
+    public double getRejectRate() {
+        return rejected.getRate();
+    }
+
+    /**
+     * Mean time of a verification in milliseconds
+     * 
+     * @return
+     */
+    public double getMeanVerifyMillis() {
+        long count = verified.getCount();
+        return count == 0 ? 0 : verifyNanos.get() / 1e6 / count;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        continuations.shutdownNow();
+    }
+
+}
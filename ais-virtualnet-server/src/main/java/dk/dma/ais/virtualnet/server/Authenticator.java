@@ -19,11 +19,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 import net.jcip.annotations.ThreadSafe;
 
@@ -34,6 +31,9 @@ import dk.dma.ais.virtualnet.common.security.Password;
 
 /**
  * Class for handling authentication
+ * <p>
+ * Auth tokens are either random tokens kept in memory until they expire, or tokens signed by a {@link TokenSigner},
+ * which are checked without any record of issued tokens and are accepted by every server sharing the keys.
  */
 @ThreadSafe
 public class Authenticator {
@@ -42,11 +42,32 @@ public class Authenticator {
 
     private static final long TTL = 300000; // 5 min
 
-    private final ConcurrentHashMap<String, Long> tokenMap = new ConcurrentHashMap<>();
+    private final TokenStore tokens = new TokenStore(TTL);
+
+    /**
+     * Signs tokens, null if tokens are random and kept in {@link #tokens}
+     */
+    private final TokenSigner signer;
+
+    /**
+     * Credentials verified recently, so a client sending the same hashed password again is not verified again
+     */
+    private final TokenStore verified = new TokenStore(TTL);
 
     private final Map<String, String> usersMap = new HashMap<>();
 
     public Authenticator(String usersFile) throws IOException {
+        this(usersFile, null);
+    }
+
+    /**
+     * @param usersFile
+     * @param tokenKeysFile
+     *            file with keys to sign tokens with, null to use random tokens kept in memory
+     * @throws IOException
+     */
+    public Authenticator(String usersFile, String tokenKeysFile) throws IOException {
+        signer = tokenKeysFile == null ? null : new TokenSigner(tokenKeysFile, TTL);
         // Load users
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(usersFile)))) {
             for (String line = reader.readLine(); line != null; line = reader.readLine()) {
@@ -65,7 +86,8 @@ public class Authenticator {
     }
 
     /**
-     * Authenticate user. Returning auth token on success and null on failure.
+     * Authenticate user. Returning auth token on success and null on failure. Unless the credentials have been
+     * verified recently this checks a BCrypt hash, which takes a lot of CPU time.
      * 
      * @param username
      * @param hashed
@@ -75,44 +97,66 @@ public class Authenticator {
         if (username == null || hashed == null) {
             return null;
         }
-        // Get clear text password
-        String password = usersMap.get(username);
-        if (password == null) {
-            return null;
+        if (!isVerified(username, hashed)) {
+            // Get clear text password
+            String password = usersMap.get(username);
+            if (password == null) {
+                return null;
+            }
+            // Check password
+            if (!Password.checkPassword(password, hashed)) {
+                return null;
+            }
+            verified.add(username + "\n" + hashed, System.currentTimeMillis());
         }
-        // Check password
-        if (!Password.checkPassword(password, hashed)) {
-            return null;
+        long now = System.currentTimeMillis();
+        if (signer != null) {
+            return signer.issue(now);
         }
         String authToken = UUID.randomUUID().toString();
-        tokenMap.put(authToken, System.currentTimeMillis());
+        tokens.add(authToken, now);
         return authToken;
     }
 
     /**
-     * Validate token
+     * Return if credentials have been verified recently, so authenticating them is cheap
+     * 
+     * @param username
+     * @param hashed
+     * @return
+     */
+    public boolean isVerified(String username, String hashed) {
+        if (username == null || hashed == null) {
+            return false;
+        }
+        return verified.contains(username + "\n" + hashed, System.currentTimeMillis());
+    }
+
+    /**
+     * Validate token. Takes constant time regardless of the number of issued tokens, and signed tokens are checked
+     * without looking up any state.
      * 
      * @param authToken
      * @return
      */
     public boolean validate(String authToken) {
-        cleanup();
         if (authToken == null) {
             return false;
         }
-        return tokenMap.containsKey(authToken);
+        long now = System.currentTimeMillis();
+        return signer != null ? signer.validate(authToken, now) : tokens.contains(authToken, now);
     }
 
     /**
-     * Remove old tokens
+     * Remove expired tokens and pick up changes to the token keys. Expired tokens are rejected whether removed or not,
+     * so removing them only frees memory.
      */
-    private void cleanup() {
+    public void cleanup() {
         long now = System.currentTimeMillis();
-        for (Iterator<Entry<String, Long>> it = tokenMap.entrySet().iterator(); it.hasNext();) {
-            Long time = it.next().getValue();
-            if (now - time > TTL) {
-                it.remove();
-            }
+        tokens.sweep(now);
+        verified.sweep(now);
+        if (signer != null) {
+            signer.reload();
         }
     }
 
@@ -15,8 +15,12 @@
 package dk.dma.ais.virtualnet.server;
 
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
 import org.slf4j.Logger;
@@ -24,6 +28,16 @@ import org.slf4j.LoggerFactory;
 
 import dk.dma.ais.virtualnet.common.message.ReserveMmsiReplyMessage.ReserveResult;
 
+/**
+ * Table of MMSI reservations. A transponder reserves its MMSI with its auth token and activates the reservation when
+ * connecting. Reservations not activated within {@link #ACTIVATE_TIME} expire, so the MMSI of a client that crashed in
+ * between can be reserved again.
+ * <p>
+ * Bookings are kept in stripes by MMSI, each with its own lock, so clients reserving different MMSI numbers do not
+ * wait for each other. Bookings are also kept by auth token, so a reservation is found and released without searching.
+ * Bookings of MMSI numbers that need no reservation are kept in stripes by auth token until activated, so they expire
+ * like other bookings.
+ */
 @ThreadSafe
 public class MmsiBroker {
 
@@ -35,14 +49,22 @@ public class MmsiBroker {
     private static final long ACTIVATE_TIME = 60 * 1000; // 1 min
 
     /**
-     * Map from mmsi to booking
+     * Number of stripes, a power of two
      */
-    private final Map<Integer, Booking> mmsiBookingMap = new HashMap<>();
+    private static final int STRIPES = 64;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
 
     /**
-     * Map from authToken to mmsi
+     * Map from authToken to booking
      */
-    private final Map<String, Integer> authTokenMmsiMap = new HashMap<>();
+    private final ConcurrentHashMap<String, Booking> authTokenBookingMap = new ConcurrentHashMap<>();
+
+    public MmsiBroker() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
 
     /**
      * Reserve a mmsi
@@ -51,25 +73,46 @@ public class MmsiBroker {
      * @param authToken
      * @return
      */
-    public synchronized ReserveResult reserve(int mmsi, String authToken) {
-        LOG.info("Reserve mmsi: " + mmsi + " authToken: " + authToken);
+    public ReserveResult reserve(int mmsi, String authToken) {
+        return reserve(mmsi, authToken, System.currentTimeMillis());
+    }
+
+    ReserveResult reserve(int mmsi, String authToken, long now) {
+        LOG.debug("Reserve mmsi: {} authToken: {}", mmsi, authToken);
+        Booking booking = new Booking(mmsi, authToken, now + ACTIVATE_TIME);
         // No reservation needed for 0 and 9xxxx MMSI
         if (nonReservableMmsi(mmsi)) {
-            authTokenMmsiMap.put(authToken, mmsi);
-            return ReserveResult.MMSI_RESERVED;
+            Stripe stripe = stripe(authToken);
+            synchronized (stripe) {
+                // Put last to keep the order of deadlines
+                stripe.unreserved.remove(authToken);
+                stripe.unreserved.put(authToken, booking);
+            }
+        } else {
+            Stripe stripe = stripe(mmsi);
+            synchronized (stripe) {
+                Booking existing = stripe.bookings.get(mmsi);
+                if (existing != null && existing.isReserved(now)) {
+                    return ReserveResult.MMSI_ALREADY_RESERVED;
+                }
+                // Determine if target is visible
+                // if (!targetTable.exists(mmsi)) {
+                // return ReserveResult.MMSI_NOT_FOUND;
+                // }
+                if (existing != null) {
+                    authTokenBookingMap.remove(existing.authToken, existing);
+                    stripe.pending.remove(mmsi);
+                }
+                stripe.bookings.put(mmsi, booking);
+                stripe.pending.put(mmsi, booking);
+            }
         }
-        Booking booking = mmsiBookingMap.get(mmsi);
-        if (booking == null || !booking.isReserved()) {
-            // Determine if target is visible
-            // if (!targetTable.exists(mmsi)) {
-            // return ReserveResult.MMSI_NOT_FOUND;
-            // }
-            booking = new Booking();
-            mmsiBookingMap.put(mmsi, booking);
-            authTokenMmsiMap.put(authToken, mmsi);
-            return ReserveResult.MMSI_RESERVED;
+        Booking previous = authTokenBookingMap.put(authToken, booking);
+        if (previous != null) {
+            // Token used to reserve another MMSI before
+            remove(previous);
         }
-        return ReserveResult.MMSI_ALREADY_RESERVED;
+        return ReserveResult.MMSI_RESERVED;
     }
 
     /**
@@ -77,75 +120,199 @@ public class MmsiBroker {
      * 
      * @param authToken
      */
-    public synchronized boolean activate(String authToken) {
-        LOG.info("Activate mmsi authToken: " + authToken);
-        Integer mmsi = authTokenMmsiMap.get(authToken);
-        if (mmsi == null) {
+    public boolean activate(String authToken) {
+        return activate(authToken, System.currentTimeMillis());
+    }
+
+    boolean activate(String authToken, long now) {
+        LOG.debug("Activate mmsi authToken: {}", authToken);
+        Booking booking = authTokenBookingMap.get(authToken);
+        if (booking == null) {
             LOG.error("No MMSI for authToken: " + authToken);
             return false;
         }
-        if (nonReservableMmsi(mmsi)) {
+        if (nonReservableMmsi(booking.mmsi)) {
+            Stripe stripe = stripe(authToken);
+            synchronized (stripe) {
+                if (!booking.isReserved(now)) {
+                    LOG.error("No booking for auth token: " + authToken);
+                    return false;
+                }
+                booking.activated = true;
+                if (stripe.unreserved.get(authToken) == booking) {
+                    stripe.unreserved.remove(authToken);
+                }
+            }
             return true;
         }
-        Booking booking = mmsiBookingMap.get(mmsi);
-        if (booking == null) {
-            LOG.error("No booking for MMSI: " + mmsi);
-            return false;
-        }
-        if (booking.isActivated()) {
-            LOG.error("Booking already activate for MMSI: " + mmsi);
-            return false;
+        Stripe stripe = stripe(booking.mmsi);
+        synchronized (stripe) {
+            if (stripe.bookings.get(booking.mmsi) != booking || !booking.isReserved(now)) {
+                LOG.error("No booking for MMSI: " + booking.mmsi);
+                return false;
+            }
+            if (booking.activated) {
+                LOG.error("Booking already activate for MMSI: " + booking.mmsi);
+                return false;
+            }
+            booking.activated = true;
+            stripe.pending.remove(booking.mmsi);
         }
-        booking.activate();
         return true;
     }
 
-    public synchronized void release(String authToken) {
-        LOG.info("Release mmsi authToken: " + authToken);
-        Integer mmsi = authTokenMmsiMap.get(authToken);
-        authTokenMmsiMap.remove(authToken);
-        if (mmsi == null) {
-            LOG.error("No MMSI for authToken: " + authToken);
+    /**
+     * Get the MMSI reserved with the token
+     * 
+     * @param authToken
+     * @return the MMSI or null if nothing has been reserved
+     */
+    public Integer getMmsi(String authToken) {
+        Booking booking = authTokenBookingMap.get(authToken);
+        return booking == null ? null : booking.mmsi;
+    }
+
+    public void release(String authToken) {
+        LOG.debug("Release mmsi authToken: {}", authToken);
+        Booking booking = authTokenBookingMap.remove(authToken);
+        if (booking == null) {
+            LOG.debug("No MMSI for authToken: {}", authToken);
             return;
         }
-        if (nonReservableMmsi(mmsi)) {
-            return;
+        remove(booking);
+    }
+
+    /**
+     * Remove reservations not activated in time. Only bookings due to expire are looked at, so this can be called
+     * often.
+     */
+    public void cleanup() {
+        cleanup(System.currentTimeMillis());
+    }
+
+    void cleanup(long now) {
+        int expired = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                Iterator<Booking> it = stripe.pending.values().iterator();
+                while (it.hasNext()) {
+                    Booking booking = it.next();
+                    if (booking.deadline > now) {
+                        break;
+                    }
+                    it.remove();
+                    stripe.bookings.remove(booking.mmsi);
+                    authTokenBookingMap.remove(booking.authToken, booking);
+                    expired++;
+                }
+                it = stripe.unreserved.values().iterator();
+                while (it.hasNext()) {
+                    Booking booking = it.next();
+                    if (booking.deadline > now) {
+                        break;
+                    }
+                    it.remove();
+                    authTokenBookingMap.remove(booking.authToken, booking);
+                    expired++;
+                }
+            }
         }
-        Booking booking = mmsiBookingMap.get(mmsi);
-        if (booking == null) {
-            LOG.error("No booking for MMSI: " + mmsi);
+        if (expired > 0) {
+            LOG.debug("Expired " + expired + " MMSI reservations not activated in time");
+        }
+    }
+
+    /**
+     * Number of reserved MMSI numbers, including expired reservations not yet removed
+     * 
+     * @return
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.bookings.size();
+            }
+        }
+        return size;
+    }
+
+    private void remove(Booking booking) {
+        if (nonReservableMmsi(booking.mmsi)) {
+            Stripe stripe = stripe(booking.authToken);
+            synchronized (stripe) {
+                if (stripe.unreserved.get(booking.authToken) == booking) {
+                    stripe.unreserved.remove(booking.authToken);
+                }
+            }
             return;
         }
-        mmsiBookingMap.remove(mmsi);
+        Stripe stripe = stripe(booking.mmsi);
+        synchronized (stripe) {
+            // The MMSI may have been reserved by another token after the booking expired
+            if (stripe.bookings.get(booking.mmsi) == booking) {
+                stripe.bookings.remove(booking.mmsi);
+                stripe.pending.remove(booking.mmsi);
+            }
+        }
+    }
+
+    private Stripe stripe(int mmsi) {
+        // MMSI numbers of a region share the leading digits, so mix in the high bits
+        return stripes[(mmsi ^ mmsi >>> 16) & STRIPES - 1];
+    }
+
+    private Stripe stripe(String authToken) {
+        int h = authToken.hashCode();
+        return stripes[(h ^ h >>> 16) & STRIPES - 1];
     }
 
     public static boolean nonReservableMmsi(int mmsi) {
         return mmsi == 0 || mmsi >= 900000000;
     }
 
-    private class Booking {
-        private final long created;
+    private static final class Stripe {
+        @GuardedBy("this")
+        private final Map<Integer, Booking> bookings = new HashMap<>();
 
-        private long activated;
+        /**
+         * Bookings waiting for activation. All bookings have the same time to activate, so in order of reservation
+         * they are in order of deadline.
+         */
+        @GuardedBy("this")
+        private final Map<Integer, Booking> pending = new LinkedHashMap<>();
 
-        public Booking() {
-            this.created = System.currentTimeMillis();
-        }
+        /**
+         * Bookings of MMSI numbers needing no reservation waiting for activation, by auth token and in order of
+         * deadline
+         */
+        @GuardedBy("this")
+        private final Map<String, Booking> unreserved = new LinkedHashMap<>();
+    }
 
-        public void activate() {
-            this.activated = System.currentTimeMillis();
-        }
+    private static final class Booking {
+        private final int mmsi;
+
+        private final String authToken;
 
-        public boolean isActivated() {
-            return activated > 0;
+        /**
+         * Time to activate before
+         */
+        private final long deadline;
+
+        /**
+         * Guarded by the lock of the stripe of the MMSI
+         */
+        private boolean activated;
+
+        Booking(int mmsi, String authToken, long deadline) {
+            this.mmsi = mmsi;
+            this.authToken = authToken;
+            this.deadline = deadline;
         }
 
-        public boolean isReserved() {
-            if (isActivated()) {
-                return true;
-            }
-            long reserveAge = created - System.currentTimeMillis();
-            return reserveAge < ACTIVATE_TIME;
+        boolean isReserved(long now) {
+            return activated || now < deadline;
         }
 
     }
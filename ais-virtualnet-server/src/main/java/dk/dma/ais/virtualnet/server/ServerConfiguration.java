@@ -40,6 +40,42 @@ public class ServerConfiguration {
 
     private int port = 8080;
 
+    private int writerThreads;
+
+    private boolean virtualWriterThreads;
+
+    private int sendQueueSize = 10000;
+
+    private int maxSendLag = 24576;
+
+    private int targetTableMaxAge = 1000; // 1 sec
+
+    private int targetTableStreamInterval = 1000; // 1 sec
+
+    private String targetTableSnapshotFile;
+
+    private int targetTableSnapshotInterval = 60000; // 1 min
+
+    private int trackHistoryTargets = 20000;
+
+    private int trackHistoryFixes = 60;
+
+    private int trackHistoryInterval = 10000; // 10 sec
+
+    private int batchMaxPackets = 50;
+
+    private int batchFlushWindow = 20; // 20 ms
+
+    private int compressionLevel = -1; // default deflate level
+
+    private boolean compressionContextTakeover = true;
+
+    private int authenticationThreads;
+
+    private int authenticationQueueSize = 100;
+
+    private String tokenKeysFile;
+
     @Parameter(names = "-conf", description = "AisVirtualNetServer server configuration file")
     String confFile = "server.xml";
 
@@ -64,6 +100,211 @@ public class ServerConfiguration {
         this.port = port;
     }
 
+    /**
+     * Number of threads writing to clients. 0 means one per available processor.
+     */
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    public void setWriterThreads(int writerThreads) {
+        this.writerThreads = writerThreads;
+    }
+
+    /**
+     * Use virtual threads for writing to clients if the JVM supports it
+     */
+    public boolean isVirtualWriterThreads() {
+        return virtualWriterThreads;
+    }
+
+    public void setVirtualWriterThreads(boolean virtualWriterThreads) {
+        this.virtualWriterThreads = virtualWriterThreads;
+    }
+
+    /**
+     * Maximum number of packets waiting to be sent to a single client
+     */
+    public int getSendQueueSize() {
+        return sendQueueSize;
+    }
+
+    public void setSendQueueSize(int sendQueueSize) {
+        this.sendQueueSize = sendQueueSize;
+    }
+
+    /**
+     * Number of packets distributed since the packet a client is to receive next before further packets for the client
+     * are dropped
+     */
+    public int getMaxSendLag() {
+        return maxSendLag;
+    }
+
+    public void setMaxSendLag(int maxSendLag) {
+        this.maxSendLag = maxSendLag;
+    }
+
+    /**
+     * Minimum time in milliseconds between serializations of the target table served by the REST service. Requests
+     * in between share the last serialized table.
+     */
+    public int getTargetTableMaxAge() {
+        return targetTableMaxAge;
+    }
+
+    public void setTargetTableMaxAge(int targetTableMaxAge) {
+        this.targetTableMaxAge = targetTableMaxAge;
+    }
+
+    /**
+     * Time in milliseconds between pushing target table changes to clients subscribed to the target table
+     */
+    public int getTargetTableStreamInterval() {
+        return targetTableStreamInterval;
+    }
+
+    public void setTargetTableStreamInterval(int targetTableStreamInterval) {
+        this.targetTableStreamInterval = targetTableStreamInterval;
+    }
+
+    /**
+     * File to save the target table in, so it can be loaded when the server is restarted. Null to disable.
+     */
+    public String getTargetTableSnapshotFile() {
+        return targetTableSnapshotFile;
+    }
+
+    public void setTargetTableSnapshotFile(String targetTableSnapshotFile) {
+        this.targetTableSnapshotFile = targetTableSnapshotFile;
+    }
+
+    /**
+     * Time in milliseconds between saving the target table
+     */
+    public int getTargetTableSnapshotInterval() {
+        return targetTableSnapshotInterval;
+    }
+
+    public void setTargetTableSnapshotInterval(int targetTableSnapshotInterval) {
+        this.targetTableSnapshotInterval = targetTableSnapshotInterval;
+    }
+
+    /**
+     * Number of targets to keep recent positions for. Memory is allocated up front, 16 bytes per fix. 0 to disable.
+     */
+    public int getTrackHistoryTargets() {
+        return trackHistoryTargets;
+    }
+
+    public void setTrackHistoryTargets(int trackHistoryTargets) {
+        this.trackHistoryTargets = trackHistoryTargets;
+    }
+
+    /**
+     * Number of positions kept per target
+     */
+    public int getTrackHistoryFixes() {
+        return trackHistoryFixes;
+    }
+
+    public void setTrackHistoryFixes(int trackHistoryFixes) {
+        this.trackHistoryFixes = trackHistoryFixes;
+    }
+
+    /**
+     * Minimum time in milliseconds between kept positions of a target
+     */
+    public int getTrackHistoryInterval() {
+        return trackHistoryInterval;
+    }
+
+    public void setTrackHistoryInterval(int trackHistoryInterval) {
+        this.trackHistoryInterval = trackHistoryInterval;
+    }
+
+    /**
+     * Maximum number of packets in a frame sent to clients accepting batched frames
+     */
+    public int getBatchMaxPackets() {
+        return batchMaxPackets;
+    }
+
+    public void setBatchMaxPackets(int batchMaxPackets) {
+        this.batchMaxPackets = batchMaxPackets;
+    }
+
+    /**
+     * Time in milliseconds to collect packets before a batched frame is sent
+     */
+    public int getBatchFlushWindow() {
+        return batchFlushWindow;
+    }
+
+    public void setBatchFlushWindow(int batchFlushWindow) {
+        this.batchFlushWindow = batchFlushWindow;
+    }
+
+    /**
+     * Deflate level (0-9, -1 for default) for permessage-deflate. 0 disables compression. The web socket container
+     * uses its own deflater, so other values only apply to the per-session compression estimates.
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Keep the compression context between messages. Better compression at the cost of a deflater window per
+     * session.
+     */
+    public boolean isCompressionContextTakeover() {
+        return compressionContextTakeover;
+    }
+
+    public void setCompressionContextTakeover(boolean compressionContextTakeover) {
+        this.compressionContextTakeover = compressionContextTakeover;
+    }
+
+    /**
+     * Number of threads verifying passwords, 0 for half the available processors
+     */
+    public int getAuthenticationThreads() {
+        return authenticationThreads;
+    }
+
+    public void setAuthenticationThreads(int authenticationThreads) {
+        this.authenticationThreads = authenticationThreads;
+    }
+
+    /**
+     * Maximum number of password verifications waiting for a thread. Requests beyond it get 503 Service
+     * Unavailable.
+     */
+    public int getAuthenticationQueueSize() {
+        return authenticationQueueSize;
+    }
+
+    public void setAuthenticationQueueSize(int authenticationQueueSize) {
+        this.authenticationQueueSize = authenticationQueueSize;
+    }
+
+    /**
+     * File with keys to sign auth tokens with, one <code>id:secret</code> line per key with the signing key first.
+     * Signed tokens are accepted by all servers with the same keys. If not set, tokens are random and only known to
+     * this server.
+     */
+    public String getTokenKeysFile() {
+        return tokenKeysFile;
+    }
+
+    public void setTokenKeysFile(String tokenKeysFile) {
+        this.tokenKeysFile = tokenKeysFile;
+    }
+
     public static void save(String filename, ServerConfiguration conf) throws JAXBException, FileNotFoundException {
         JAXBContext context = JAXBContext.newInstance(ServerConfiguration.class);
         Marshaller m = context.createMarshaller();
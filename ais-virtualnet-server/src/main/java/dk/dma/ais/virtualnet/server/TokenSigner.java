@@ -0,0 +1,265 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Issues and checks auth tokens signed with HMAC-SHA256. A token carries its expiry time and the id of the key it was
+ * signed with, so checking it is a computation that needs no record of issued tokens. Servers sharing the keys accept
+ * each other's tokens, and tokens stay valid across restarts.
+ * <p>
+ * A token has the form <code>keyId.expiry.nonce.signature</code>, where the random nonce makes every token unique and
+ * the signature covers everything before it.
+ * <p>
+ * The keys are read from a file with a line <code>id:secret</code> per key. Tokens are signed with the first key and
+ * accepted when signed with any key in the file. To rotate keys, add the new key last on all servers, then move it
+ * first, and remove the old key once the tokens signed with it have expired. The file is read again by
+ * {@link #reload()} when it has changed.
+ */
+@ThreadSafe
+public class TokenSigner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TokenSigner.class);
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /**
+     * Shortest secret accepted
+     */
+    static final int MIN_SECRET_LENGTH = 16;
+
+    private static final int NONCE_LENGTH = 8;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Mac instances are not thread safe, so each thread has its own
+     */
+    private static final ThreadLocal<Mac> MAC = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance(ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final Path keysFile;
+
+    private final long ttl;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private volatile Keys keys;
+
+    private volatile FileTime keysModified;
+
+    /**
+     * @param keysFile
+     *            file with the keys
+     * @param ttl
+     *            time in milliseconds tokens are valid
+     * @throws IOException
+     *             if the file cannot be read or holds no valid keys
+     */
+    public TokenSigner(String keysFile, long ttl) throws IOException {
+        this.keysFile = Paths.get(keysFile);
+        this.ttl = ttl;
+        keysModified = Files.getLastModifiedTime(this.keysFile);
+        keys = readKeys(this.keysFile);
+        LOG.info("Signing tokens with key " + keys.signingId + " of " + keys.keys.size() + " keys");
+    }
+
+    /**
+     * Read the keys file again if it has changed. If the file cannot be read or holds no valid keys the current keys
+     * are kept, and the file is read again on the next call, as it may have been only partly written.
+     */
+    public void reload() {
+        try {
+            FileTime modified = Files.getLastModifiedTime(keysFile);
+            if (modified.equals(keysModified)) {
+                return;
+            }
+            keys = readKeys(keysFile);
+            keysModified = modified;
+            LOG.info("Reloaded token keys, signing with key " + keys.signingId + " of " + keys.keys.size() + " keys");
+        } catch (IOException e) {
+            LOG.error("Failed to reload token keys, keeping current keys: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Issue a new token
+     * 
+     * @param now
+     * @return
+     */
+    public String issue(long now) {
+        Keys k = keys;
+        byte[] nonce = new byte[NONCE_LENGTH];
+        random.nextBytes(nonce);
+        String payload = k.signingId + "." + (now + ttl) + "." + toHex(nonce);
+        return payload + "." + toHex(sign(k.keys.get(k.signingId), payload));
+    }
+
+    /**
+     * Check that token is signed with a known key and has not expired. The signature is compared in constant time.
+     * 
+     * @param token
+     * @param now
+     * @return
+     */
+    public boolean validate(String token, long now) {
+        int keyEnd = token.indexOf('.');
+        int expiryEnd = keyEnd < 0 ? -1 : token.indexOf('.', keyEnd + 1);
+        int payloadEnd = token.lastIndexOf('.');
+        if (keyEnd <= 0 || expiryEnd < 0 || payloadEnd <= expiryEnd) {
+            return false;
+        }
+        long expiry;
+        try {
+            expiry = Long.parseLong(token.substring(keyEnd + 1, expiryEnd));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (expiry <= now) {
+            return false;
+        }
+        SecretKeySpec key = keys.keys.get(token.substring(0, keyEnd));
+        byte[] signature = fromHex(token.substring(payloadEnd + 1));
+        if (key == null || signature == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(sign(key, token.substring(0, payloadEnd)), signature);
+    }
+
+    private static byte[] sign(SecretKeySpec key, String payload) {
+        Mac mac = MAC.get();
+        try {
+            mac.init(key);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read keys from file. Malformed lines and keys with too short secrets are skipped.
+     * 
+     * @param file
+     * @return
+     * @throws IOException
+     *             if the file cannot be read or holds no valid keys
+     */
+    static Keys readKeys(Path file) throws IOException {
+        String signingId = null;
+        Map<String, SecretKeySpec> keys = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                String[] parts = line.split(":", 2);
+                if (parts.length != 2 || parts[0].length() == 0 || parts[0].indexOf('.') >= 0) {
+                    LOG.error("Malformed line in " + file);
+                    continue;
+                }
+                if (parts[1].length() < MIN_SECRET_LENGTH) {
+                    LOG.error("Secret of key " + parts[0] + " in " + file + " is shorter than " + MIN_SECRET_LENGTH
+                            + " characters");
+                    continue;
+                }
+                keys.put(parts[0], new SecretKeySpec(parts[1].getBytes(StandardCharsets.UTF_8), ALGORITHM));
+                if (signingId == null) {
+                    signingId = parts[0];
+                }
+            }
+        }
+        if (signingId == null) {
+            throw new IOException("No valid keys in " + file);
+        }
+        return new Keys(signingId, keys);
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @param hex
+     * @return the bytes or null if not hex
+     */
+    private static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            bytes[i] = (byte) (hi << 4 | lo);
+        }
+        return bytes;
+    }
+
+    /**
+     * Keys by id and the id of the key to sign with
+     */
+    @Immutable
+    static final class Keys {
+        final String signingId;
+        final Map<String, SecretKeySpec> keys;
+
+        Keys(String signingId, Map<String, SecretKeySpec> keys) {
+            this.signingId = signingId;
+            this.keys = Collections.unmodifiableMap(keys);
+        }
+    }
+
+}
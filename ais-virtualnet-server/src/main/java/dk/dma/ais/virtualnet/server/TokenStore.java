@@ -0,0 +1,137 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Issued tokens with a fixed time to live. Validation is a single map lookup, and a token found to be expired is
+ * removed right away.
+ * <p>
+ * As all tokens live equally long, tokens expire in the order they were added. Besides the map they are kept in a
+ * queue in that order, so removing expired tokens only looks at the head of the queue instead of at all tokens.
+ * Adding a token removes a few expired tokens, and {@link #sweep(long)} removes all of them. Validation never
+ * waits for removals.
+ */
+@ThreadSafe
+public class TokenStore {
+
+    /**
+     * Number of expired tokens removed when adding a token
+     */
+    private static final int SWEEP_ON_ADD = 4;
+
+    private final long ttl;
+
+    /**
+     * Expiry time of tokens
+     */
+    private final ConcurrentHashMap<String, Long> expiries = new ConcurrentHashMap<>();
+
+    /**
+     * Tokens in the order they were added, so in order of expiry
+     */
+    private final ConcurrentLinkedQueue<Token> queue = new ConcurrentLinkedQueue<>();
+
+    @Immutable
+    private static final class Token {
+        final String token;
+        final long expiry;
+
+        Token(String token, long expiry) {
+            this.token = token;
+            this.expiry = expiry;
+        }
+    }
+
+    /**
+     * @param ttl
+     *            time to live of tokens in milliseconds
+     */
+    public TokenStore(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Add token
+     * 
+     * @param token
+     * @param now
+     *            the current time
+     */
+    public void add(String token, long now) {
+        sweep(now, SWEEP_ON_ADD);
+        long expiry = now + ttl;
+        expiries.put(token, expiry);
+        queue.add(new Token(token, expiry));
+    }
+
+    /**
+     * Return if token has been added and has not expired
+     * 
+     * @param token
+     * @param now
+     *            the current time
+     * @return
+     */
+    public boolean contains(String token, long now) {
+        Long expiry = expiries.get(token);
+        if (expiry == null) {
+            return false;
+        }
+        if (now < expiry) {
+            return true;
+        }
+        expiries.remove(token, expiry);
+        return false;
+    }
+
+    /**
+     * Remove all expired tokens
+     * 
+     * @param now
+     *            the current time
+     * @return the number of tokens removed
+     */
+    public int sweep(long now) {
+        return sweep(now, Integer.MAX_VALUE);
+    }
+
+    private synchronized int sweep(long now, int max) {
+        int removed = 0;
+        Token head;
+        // Tokens are only taken off the queue here, so the head stays the same between peek and poll
+        while (removed < max && (head = queue.peek()) != null && head.expiry <= now) {
+            queue.poll();
+            expiries.remove(head.token, head.expiry);
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Number of tokens, including expired tokens not yet removed
+     * 
+     * @return
+     */
+    public int size() {
+        return expiries.size();
+    }
+
+}
@@ -14,7 +14,13 @@
  */
 package dk.dma.ais.virtualnet.server;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import javax.websocket.DeploymentException;
+import javax.websocket.Extension;
 import javax.websocket.server.ServerContainer;
 import javax.websocket.server.ServerEndpointConfig;
 import javax.websocket.server.ServerEndpointConfig.Builder;
@@ -29,6 +35,8 @@ import org.glassfish.jersey.servlet.ServletContainer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.dma.ais.virtualnet.common.websocket.PerMessageDeflate;
+import dk.dma.ais.virtualnet.common.websocket.WsProtocol;
 import dk.dma.ais.virtualnet.server.rest.RestService;
 
 
@@ -69,6 +77,8 @@ public class WebServer {
         ResourceConfig config = new ResourceConfig();
         config.register(new RestService(aserver));
         ServletHolder sho = new ServletHolder(new ServletContainer(config));
+        // Password verification suspends requests until done on the authentication threads
+        sho.setAsyncSupported(true);
         sho.setClassName("org.glassfish.jersey.servlet.ServletContainer");
         context.addServlet(sho, "/rest/*");
 
@@ -79,11 +89,36 @@ public class WebServer {
         // Add our default endpoint.
 
         Builder b = ServerEndpointConfig.Builder.create(WebSocketServerSession.class, "/ws/");
+        // Clients not asking for a subprotocol get JSON
+        b.subprotocols(Arrays.asList(WsProtocol.BINARY, WsProtocol.JSON));
+        // Offer permessage-deflate unless compression is disabled
+        final Extension deflate = aserver.getCompressionLevel() == 0 ? null : new PerMessageDeflate(
+                aserver.isCompressionContextTakeover());
+        if (deflate != null) {
+            b.extensions(Collections.singletonList(deflate));
+        }
         b.configurator(new ServerEndpointConfig.Configurator() {
             @SuppressWarnings({ "unchecked" })
             public <S> S getEndpointInstance(Class<S> endpointClass) throws InstantiationException {
                 return (S) new WebSocketServerSession(aserver);
             }
+
+            @Override
+            public List<Extension> getNegotiatedExtensions(List<Extension> installed, List<Extension> requested) {
+                List<Extension> negotiated = new ArrayList<>();
+                for (Extension extension : requested) {
+                    if (PerMessageDeflate.NAME.equals(extension.getName())) {
+                        // Answer with our own context takeover parameters, unless the client asks for none
+                        if (deflate != null && PerMessageDeflate.find(negotiated) == null) {
+                            negotiated.add(PerMessageDeflate.isServerContextTakeover(extension) ? deflate
+                                    : new PerMessageDeflate(false));
+                        }
+                    } else if (isInstalled(installed, extension)) {
+                        negotiated.add(extension);
+                    }
+                }
+                return negotiated;
+            }
         });
 
         try {
@@ -113,4 +148,13 @@ public class WebServer {
         // server.setHandler(hw);
         server.start();
     }
+
+    private static boolean isInstalled(List<Extension> installed, Extension extension) {
+        for (Extension e : installed) {
+            if (e.getName().equals(extension.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
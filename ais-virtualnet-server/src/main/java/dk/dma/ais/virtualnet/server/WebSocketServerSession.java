@@ -14,7 +14,11 @@
  */
 package dk.dma.ais.virtualnet.server;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 import javax.websocket.CloseReason;
+import javax.websocket.Extension;
 import javax.websocket.OnClose;
 import javax.websocket.OnOpen;
 import javax.websocket.Session;
@@ -27,16 +31,20 @@ import org.slf4j.LoggerFactory;
 
 import dk.dma.ais.bus.OverflowLogger;
 import dk.dma.ais.packet.AisPacket;
-import dk.dma.ais.queue.BlockingMessageQueue;
-import dk.dma.ais.queue.IQueueEntryHandler;
-import dk.dma.ais.queue.MessageQueueOverflowException;
-import dk.dma.ais.queue.MessageQueueReader;
+import dk.dma.ais.virtualnet.common.message.FilterMessage;
+import dk.dma.ais.virtualnet.common.message.SessionStatus;
 import dk.dma.ais.virtualnet.common.message.WsMessage;
+import dk.dma.ais.virtualnet.common.websocket.EncodedPacket;
+import dk.dma.ais.virtualnet.common.websocket.PerMessageDeflate;
 import dk.dma.ais.virtualnet.common.websocket.WebSocketSession;
+import dk.dma.ais.virtualnet.common.websocket.WsBinaryCodec;
+import dk.dma.ais.virtualnet.common.websocket.WsProtocol;
+import dk.dma.ais.virtualnet.server.fanout.SessionFilter;
+import dk.dma.ais.virtualnet.server.fanout.SessionWriter;
 
 @ThreadSafe
-@ServerEndpoint(value = "/")
-public class WebSocketServerSession extends WebSocketSession implements IQueueEntryHandler<AisPacket> {
+@ServerEndpoint(value = "/", subprotocols = { WsProtocol.BINARY, WsProtocol.JSON })
+public class WebSocketServerSession extends WebSocketSession {
 
     private static final Logger LOG = LoggerFactory.getLogger(WebSocketServerSession.class);
 
@@ -48,9 +56,24 @@ public class WebSocketServerSession extends WebSocketSession implements IQueueEn
 
     private volatile boolean authenticated;
 
+    /**
+     * Authenticated without an MMSI reservation to receive the target table only
+     */
+    private volatile boolean watchOnly;
+
     private volatile String authToken;
 
-    private volatile MessageQueueReader<AisPacket> queueReader;
+    private volatile SessionWriter writer;
+
+    /**
+     * MMSI reserved with the token
+     */
+    private volatile int ownMmsi;
+
+    /**
+     * Filter sent by the client, null to receive everything
+     */
+    private volatile FilterMessage filterMessage;
 
     private long overflowStart;
 
@@ -60,33 +83,44 @@ public class WebSocketServerSession extends WebSocketSession implements IQueueEn
 
     @OnOpen
     public void onWebSocketConnect(Session session) {
-        // Setup message queue and message queue reader
-        queueReader = new MessageQueueReader<>(this, new BlockingMessageQueue<AisPacket>(), 10);
-        queueReader.start();
+        // Setup writer sending queued packets on the shared writer threads
+        writer = new SessionWriter(this, server.getPacketSequence(), server.getFanoutScheduler(),
+                server.getFanoutStatistics(), server.getSendQueueSize(), server.getMaxSendLag(),
+                server.getBatchMaxPackets(), server.getBatchFlushWindow());
         super.onWebSocketConnect(session);
         server.addClient(this);
     }
 
     @OnClose
     public void onWebSocketClose(CloseReason reason) {
-        MessageQueueReader<AisPacket> qr = queueReader;
+        SessionWriter w = writer;
         String at = authToken;
-        if (qr != null) {
-            qr.cancel();
+        if (w != null) {
+            server.getTargetTableStream().unsubscribe(w);
+            w.cancel();
         }
-        queueReader = null;
+        writer = null;
         server.removeClient(this);
-        if (at != null) {
+        if (at != null && !watchOnly) {
             server.getMmsiBroker().release(at);
         }
         super.onWebSocketClose(reason);
     }
 
-    public void enqueuePacket(AisPacket packet) {
-        if (queueReader != null) {
-            try {
-                queueReader.getQueue().push(packet);
-            } catch (MessageQueueOverflowException e) {
+    /**
+     * Queue packet for sending
+     * 
+     * @param sequence
+     *            sequence number of the packet
+     * @param packet
+     *            the packet published with the sequence number
+     * @param conflationKey
+     *            key for replacing queued packets, negative if the packet should never be replaced
+     */
+    public void enqueuePacket(long sequence, EncodedPacket packet, int conflationKey) {
+        SessionWriter w = writer;
+        if (w != null && authenticated) {
+            if (!w.offer(sequence, packet, conflationKey)) {
                 overflowLogger.log("Write queue is full");
                 if (overflowStart == 0) {
                     overflowStart = System.currentTimeMillis();
@@ -100,11 +134,6 @@ public class WebSocketServerSession extends WebSocketSession implements IQueueEn
         }
     }
 
-    @Override
-    public void receive(AisPacket packet) {
-        sendPacket(packet);
-    }
-
     @Override
     public void sendPacket(AisPacket packet) {
         if (!authenticated) {
@@ -113,6 +142,31 @@ public class WebSocketServerSession extends WebSocketSession implements IQueueEn
         super.sendPacket(packet);
     }
 
+    @Override
+    public SessionStatus getSessionStatus() {
+        SessionStatus status = super.getSessionStatus();
+        SessionWriter w = writer;
+        if (w != null) {
+            status.setDropped(w.getDropped());
+        }
+        return status;
+    }
+
+    @Override
+    protected WsMessage decodeBinary(ByteBuffer payload) {
+        return WsBinaryCodec.decodeFromClient(payload);
+    }
+
+    @Override
+    protected int getCompressionLevel() {
+        return server.getCompressionLevel();
+    }
+
+    @Override
+    protected boolean isContextTakeover(Extension deflate) {
+        return PerMessageDeflate.isServerContextTakeover(deflate);
+    }
+
     @Override
     protected void handleMessage(WsMessage wsMessage) {
         // Maybe message a token
@@ -120,17 +174,59 @@ public class WebSocketServerSession extends WebSocketSession implements IQueueEn
             authToken = wsMessage.getAuthToken();
             authenticated = server.checkToken(wsMessage.getAuthToken());
             LOG.info("Authentication result: " + authenticated);
-            // Maybe activate MMSI reservation
-            if (authenticated) {
+            // Clients not asking for batched frames get one packet per frame, and all position reports unless
+            // asking for conflation
+            SessionWriter w = writer;
+            if (w != null) {
+                w.setBatched(Boolean.TRUE.equals(wsMessage.getBatched()));
+                w.setConflate(Boolean.TRUE.equals(wsMessage.getConflate()));
+            }
+            // Maybe activate MMSI reservation. Clients only asking for the target table need no reservation.
+            watchOnly = authenticated && Boolean.TRUE.equals(wsMessage.getTargetTable())
+                    && server.getMmsiBroker().getMmsi(wsMessage.getAuthToken()) == null;
+            if (watchOnly) {
+                ownMmsi = 0;
+            } else if (authenticated) {
                 if (!server.getMmsiBroker().activate(wsMessage.getAuthToken())) {
                     LOG.error("Failed to activate MMSI reservation");
                     close();
                     return;
                 }
+                Integer mmsi = server.getMmsiBroker().getMmsi(wsMessage.getAuthToken());
+                ownMmsi = mmsi == null ? 0 : mmsi;
+            } else {
+                server.getSubscriptions().unsubscribe(this);
+            }
+        }
+        // Maybe update filter
+        if (wsMessage.getFilter() != null) {
+            filterMessage = wsMessage.getFilter();
+            LOG.debug("Filter: lat=" + filterMessage.getLat() + " lon=" + filterMessage.getLon() + " radius="
+                    + filterMessage.getRadius());
+        }
+        if (authenticated && !watchOnly && (wsMessage.getAuthToken() != null || wsMessage.getFilter() != null)) {
+            SessionFilter filter;
+            try {
+                filter = SessionFilter.create(ownMmsi, filterMessage);
+            } catch (IllegalArgumentException e) {
+                LOG.error("Invalid filter: " + e.getMessage());
+                closeWithProtocolError("Invalid filter");
+                return;
+            }
+            server.getSubscriptions().subscribe(this, filter);
+        }
+        // Maybe start sending the target table
+        SessionWriter w = writer;
+        if (w != null) {
+            if (authenticated && Boolean.TRUE.equals(wsMessage.getTargetTable())) {
+                server.getTargetTableStream().subscribe(w);
+            } else if (!authenticated) {
+                server.getTargetTableStream().unsubscribe(w);
             }
         }
         String strPacket = wsMessage.getPacket();
-        if (strPacket == null) {
+        List<String> strPackets = wsMessage.getPackets();
+        if (strPacket == null && strPackets == null) {
             return;
         }
         if (!authenticated) {
@@ -138,6 +234,22 @@ public class WebSocketServerSession extends WebSocketSession implements IQueueEn
             close();
             return;
         }
+        if (watchOnly) {
+            LOG.error("Client sending messages without MMSI reservation");
+            close();
+            return;
+        }
+        if (strPacket != null) {
+            distribute(strPacket);
+        }
+        if (strPackets != null) {
+            for (String p : strPackets) {
+                distribute(p);
+            }
+        }
+    }
+
+    private void distribute(String strPacket) {
         LOG.info("Received message from client:\n" + strPacket);
         server.distribute(AisPacket.from(strPacket));
     }
@@ -0,0 +1,254 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server.fanout;
+
+import java.util.Arrays;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Bounded FIFO queue of elements with their {@link PacketSequence} sequence numbers where an element added with a key
+ * replaces one with the same key that is still waiting in the queue. The replacing element takes the place of the
+ * replaced one, so the order between keys is kept. Elements added without a key are never replaced. Replacing does not
+ * take space in the queue.
+ * <p>
+ * Used with the MMSI as key for position reports, so a slow consumer gets the latest position of every target
+ * instead of every position. The queue is an array that grows up to the capacity, and waiting keys are found through
+ * an open addressing table of primitive ints that grows with it, so queuing does not allocate.
+ * 
+ * @param <T>
+ *            type of elements
+ */
+@ThreadSafe
+public class ConflatingQueue<T> {
+
+    /**
+     * The element was added to the queue
+     */
+    public static final int ADDED = 0;
+
+    /**
+     * The element replaced one waiting in the queue
+     */
+    public static final int REPLACED = 1;
+
+    /**
+     * The queue is full
+     */
+    public static final int FULL = 2;
+
+    private static final int INITIAL_SIZE = 16;
+
+    /**
+     * Free entry in the key table, keys are never negative
+     */
+    private static final int NO_KEY = -1;
+
+    private final int capacity;
+
+    @GuardedBy("this")
+    private long[] sequences;
+
+    @GuardedBy("this")
+    private Object[] elements;
+
+    @GuardedBy("this")
+    private int[] keys;
+
+    @GuardedBy("this")
+    private int head;
+
+    @GuardedBy("this")
+    private int size;
+
+    /**
+     * Keys of waiting elements, linear probing with twice as many entries as the queue array
+     */
+    @GuardedBy("this")
+    private int[] tableKeys;
+
+    /**
+     * Index in the queue array of the element with the key in the same entry of {@link #tableKeys}
+     */
+    @GuardedBy("this")
+    private int[] tableSlots;
+
+    public ConflatingQueue(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        allocate(Math.min(INITIAL_SIZE, this.capacity));
+    }
+
+    /**
+     * Add element to the queue
+     * 
+     * @param sequence
+     *            sequence number of the element
+     * @param element
+     * @param key
+     *            key for replacement or a negative value if the element should never be replaced
+     * @return {@link #ADDED}, {@link #REPLACED} or {@link #FULL}
+     */
+    public synchronized int offer(long sequence, T element, int key) {
+        if (key >= 0) {
+            int slot = findSlot(key);
+            if (slot >= 0) {
+                sequences[slot] = sequence;
+                elements[slot] = element;
+                return REPLACED;
+            }
+        }
+        if (size == capacity) {
+            return FULL;
+        }
+        if (size == sequences.length) {
+            grow();
+        }
+        int i = (head + size) % sequences.length;
+        sequences[i] = sequence;
+        elements[i] = element;
+        keys[i] = key;
+        size++;
+        if (key >= 0) {
+            insertKey(key, i);
+        }
+        return ADDED;
+    }
+
+    /**
+     * Take the element at the head of the queue
+     * 
+     * @return the element or null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T poll() {
+        if (size == 0) {
+            return null;
+        }
+        T element = (T) elements[head];
+        elements[head] = null;
+        if (keys[head] >= 0) {
+            // Any later element with this key must be added again
+            removeKey(keys[head]);
+        }
+        head = (head + 1) % sequences.length;
+        size--;
+        return element;
+    }
+
+    /**
+     * Sequence number of the element at the head of the queue, which is the next to be taken
+     * 
+     * @return the sequence number or -1 if the queue is empty
+     */
+    public synchronized long peek() {
+        return size == 0 ? -1 : sequences[head];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(elements, null);
+        Arrays.fill(tableKeys, NO_KEY);
+        head = 0;
+        size = 0;
+    }
+
+    @GuardedBy("this")
+    private void allocate(int length) {
+        sequences = new long[length];
+        elements = new Object[length];
+        keys = new int[length];
+        tableKeys = new int[2 * Integer.highestOneBit(2 * length - 1)];
+        tableSlots = new int[tableKeys.length];
+        Arrays.fill(tableKeys, NO_KEY);
+    }
+
+    @GuardedBy("this")
+    private void grow() {
+        long[] s = sequences;
+        Object[] e = elements;
+        int[] k = keys;
+        allocate((int) Math.min(capacity, 2L * s.length));
+        for (int i = 0; i < size; i++) {
+            int j = (head + i) % s.length;
+            sequences[i] = s[j];
+            elements[i] = e[j];
+            keys[i] = k[j];
+            if (k[j] >= 0) {
+                insertKey(k[j], i);
+            }
+        }
+        head = 0;
+    }
+
+    private int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ h >>> 16) & tableKeys.length - 1;
+    }
+
+    /**
+     * @return index in the queue array of the element with the key, or -1 if none is waiting
+     */
+    @GuardedBy("this")
+    private int findSlot(int key) {
+        int mask = tableKeys.length - 1;
+        for (int i = hash(key);; i = i + 1 & mask) {
+            if (tableKeys[i] == key) {
+                return tableSlots[i];
+            }
+            if (tableKeys[i] == NO_KEY) {
+                return -1;
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void insertKey(int key, int slot) {
+        int mask = tableKeys.length - 1;
+        int i = hash(key);
+        while (tableKeys[i] != NO_KEY) {
+            i = i + 1 & mask;
+        }
+        tableKeys[i] = key;
+        tableSlots[i] = slot;
+    }
+
+    @GuardedBy("this")
+    private void removeKey(int key) {
+        int mask = tableKeys.length - 1;
+        int i = hash(key);
+        while (tableKeys[i] != key) {
+            i = i + 1 & mask;
+        }
+        // Shift later entries of the probe sequence back, so lookups never stop early at the freed entry
+        for (int j = i + 1 & mask; tableKeys[j] != NO_KEY; j = j + 1 & mask) {
+            int home = hash(tableKeys[j]);
+            if ((j - home & mask) >= (j - i & mask)) {
+                tableKeys[i] = tableKeys[j];
+                tableSlots[i] = tableSlots[j];
+                i = j;
+            }
+        }
+        tableKeys[i] = NO_KEY;
+    }
+
+}
@@ -0,0 +1,136 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server.fanout;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the writers of all client sessions on a small shared set of threads. Writers only occupy a thread while
+ * starting an asynchronous send, so the number of threads does not depend on the number of connected clients.
+ */
+@ThreadSafe
+public class FanoutScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FanoutScheduler.class);
+
+    private final ExecutorService executor;
+
+    /**
+     * Timer for delayed flushing of batched frames
+     */
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new WriterThreadFactory(
+            "fanout-timer-"));
+
+    /**
+     * Create scheduler
+     * 
+     * @param threads
+     *            number of writer threads, 0 for one per available processor
+     * @param virtualThreads
+     *            use a virtual thread per task when supported by the JVM
+     */
+    public FanoutScheduler(int threads, boolean virtualThreads) {
+        ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadExecutor() : null;
+        if (virtualExecutor != null) {
+            LOG.info("Using virtual writer threads");
+            executor = virtualExecutor;
+        } else {
+            if (threads <= 0) {
+                threads = Runtime.getRuntime().availableProcessors();
+            }
+            LOG.info("Using " + threads + " writer threads");
+            executor = Executors.newFixedThreadPool(threads, new WriterThreadFactory("fanout-writer-"));
+        }
+    }
+
+    /**
+     * Schedule a writer to run
+     * 
+     * @param writer
+     */
+    public void execute(Runnable writer) {
+        try {
+            executor.execute(writer);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            LOG.debug("Writer rejected: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run a task after a delay. The task should only hand work over to {@link #execute(Runnable)}.
+     * 
+     * @param task
+     * @param delay
+     *            delay in milliseconds
+     */
+    public void schedule(Runnable task, long delay) {
+        try {
+            timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Timer task rejected: " + e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOG.warn("Virtual threads not supported by this JVM, falling back to writer thread pool");
+            return null;
+        }
+    }
+
+    private static class WriterThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        private final String prefix;
+
+        WriterThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
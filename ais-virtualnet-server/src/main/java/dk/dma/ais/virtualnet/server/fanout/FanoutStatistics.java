@@ -0,0 +1,102 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server.fanout;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Counters for the distribution of packets to connected clients. Every distributed packet is encoded once, and the
+ * difference between packets sent and packets encoded is the encoding work avoided by sharing frames.
+ */
+@ThreadSafe
+public class FanoutStatistics {
+
+    private final RateCounter encoded = new RateCounter();
+
+    private final RateCounter sent = new RateCounter();
+
+    private final RateCounter frames = new RateCounter();
+
+    private final RateCounter conflated = new RateCounter();
+
+    /**
+     * A packet has been encoded
+     */
+    public void frameEncoded() {
+        encoded.mark();
+    }
+
+    /**
+     * A frame holding one or more packets has been sent to a client
+     * 
+     * @param packets
+     */
+    public void frameSent(int packets) {
+        frames.mark();
+        sent.mark(packets);
+    }
+
+    /**
+     * A queued packet has been replaced by a newer one for the same target
+     */
+    public void packetConflated() {
+        conflated.mark();
+    }
+
+    public double getEncodeRate() {
+        return encoded.getRate();
+    }
+
+    /**
+     * Packets sent per second
+     * 
+     * @return
+     */
+    public double getSendRate() {
+        return sent.getRate();
+    }
+
+    /**
+     * Frames sent per second
+     * 
+     * @return
+     */
+    public double getFrameRate() {
+        return frames.getRate();
+    }
+
+    /**
+     * Encodings per second that would have been done without shared frames
+     * 
+     * @return
+     */
+    public double getEncodesAvoidedRate() {
+        return Math.max(0, getSendRate() - getEncodeRate());
+    }
+
+    /**
+     * Packets per second replaced in the queues of slow clients
+     * 
+     * @return
+     */
+    public double getConflateRate() {
+        return conflated.getRate();
+    }
+
+    public long getEncodesAvoided() {
+        return Math.max(0, sent.getCount() - encoded.getCount());
+    }
+
+}
@@ -0,0 +1,157 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server.fanout;
+
+import net.jcip.annotations.Immutable;
+import dk.dma.ais.message.AisMessage;
+import dk.dma.ais.message.AisMessage12;
+import dk.dma.ais.message.AisMessage6;
+import dk.dma.ais.message.AisMessage7;
+import dk.dma.ais.message.IVesselPositionMessage;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.virtualnet.common.table.TargetTable;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * What session filters need to know about a packet: the sender, the sender's position and the addressees. Computed
+ * once per packet and shared by all sessions.
+ */
+@Immutable
+public final class PacketRoute {
+
+    private static final int[] NO_DESTINATIONS = new int[0];
+
+    private final int msgId;
+
+    private final int userId;
+
+    private final Position position;
+
+    private final int[] destinations;
+
+    PacketRoute(int msgId, int userId, Position position, int[] destinations) {
+        this.msgId = msgId;
+        this.userId = userId;
+        this.position = position;
+        this.destinations = destinations;
+    }
+
+    /**
+     * Determine route of packet. Packets without a position take the last known position of the sender from the
+     * target table.
+     * 
+     * @param packet
+     * @param targetTable
+     * @return the route or null if the packet cannot be parsed
+     */
+    public static PacketRoute create(AisPacket packet, TargetTable targetTable) {
+        AisMessage message = packet.tryGetAisMessage();
+        if (message == null) {
+            return null;
+        }
+        Position position = null;
+        if (message instanceof IVesselPositionMessage) {
+            IVesselPositionMessage posMsg = (IVesselPositionMessage) message;
+            if (posMsg.isPositionValid()) {
+                position = posMsg.getPos().getGeoLocation();
+            }
+        } else {
+            position = targetTable.getPosition(message.getUserId());
+        }
+        int[] destinations = NO_DESTINATIONS;
+        if (message instanceof AisMessage6) {
+            destinations = new int[] { ((AisMessage6) message).getDestination() };
+        } else if (message instanceof AisMessage12) {
+            destinations = new int[] { (int) ((AisMessage12) message).getDestination() };
+        } else if (message instanceof AisMessage7) {
+            // Also covers safety acknowledge 13
+            AisMessage7 msg7 = (AisMessage7) message;
+            destinations = new int[] { (int) msg7.getDest1(), (int) msg7.getDest2(), (int) msg7.getDest3(),
+                    (int) msg7.getDest4() };
+        }
+        return new PacketRoute(message.getMsgId(), message.getUserId(), position, destinations);
+    }
+
+    public int getMsgId() {
+        return msgId;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Return if the packet is a position report that is superseded by the next report from the same target
+     * 
+     * @return
+     */
+    public boolean isPositionReport() {
+        switch (msgId) {
+        case 1:
+        case 2:
+        case 3:
+        case 18:
+        case 19:
+        case 27:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Position of the sender
+     * 
+     * @return the position or null if unknown
+     */
+    public Position getPosition() {
+        return position;
+    }
+
+    /**
+     * Number of destinations of an addressed packet
+     * 
+     * @return
+     */
+    public int getDestinationCount() {
+        return destinations.length;
+    }
+
+    /**
+     * Get MMSI the packet is addressed to
+     * 
+     * @param index
+     * @return the MMSI, 0 for unused destinations
+     */
+    public int getDestination(int index) {
+        return destinations[index];
+    }
+
+    /**
+     * Return if the packet is addressed to the MMSI
+     * 
+     * @param mmsi
+     * @return
+     */
+    public boolean isAddressedTo(int mmsi) {
+        for (int destination : destinations) {
+            if (destination == mmsi) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
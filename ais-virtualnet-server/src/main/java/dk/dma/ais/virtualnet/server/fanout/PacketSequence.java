@@ -0,0 +1,52 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server.fanout;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Sequence numbers of the packets distributed to clients. Sessions queue packets with their sequence numbers, so a
+ * session can tell in constant time how far it is behind by comparing the sequence number of its next packet with the
+ * cursor.
+ */
+@ThreadSafe
+public class PacketSequence {
+
+    /**
+     * Sequence number of the last packet
+     */
+    private final AtomicLong cursor = new AtomicLong(-1);
+
+    /**
+     * Get sequence number for the next packet
+     * 
+     * @return the sequence number
+     */
+    public long next() {
+        return cursor.incrementAndGet();
+    }
+
+    /**
+     * Sequence number of the last packet, -1 if there has been none
+     * 
+     * @return
+     */
+    public long getCursor() {
+        return cursor.get();
+    }
+
+}
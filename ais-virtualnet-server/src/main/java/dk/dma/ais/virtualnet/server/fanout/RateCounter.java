@@ -0,0 +1,67 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server.fanout;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Counter of events that can report an approximate rate in events per second. The rate is recalculated when it is
+ * read and at least one window has passed since the last calculation.
+ */
+@ThreadSafe
+public class RateCounter {
+
+    private static final long WINDOW = 10 * 1000; // 10 sec
+
+    private final AtomicLong count = new AtomicLong();
+
+    private long windowStart = System.currentTimeMillis();
+
+    private long windowCount;
+
+    private double rate;
+
+    public void mark() {
+        count.incrementAndGet();
+    }
+
+    public void mark(long n) {
+        count.addAndGet(n);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Get the rate in events per second over the last window
+     * 
+     * @return
+     */
+    public synchronized double getRate() {
+        long now = System.currentTimeMillis();
+        long elapsed = now - windowStart;
+        if (elapsed >= WINDOW) {
+            long c = count.get();
+            rate = (c - windowCount) * 1000.0 / elapsed;
+            windowStart = now;
+            windowCount = c;
+        }
+        return rate;
+    }
+
+}
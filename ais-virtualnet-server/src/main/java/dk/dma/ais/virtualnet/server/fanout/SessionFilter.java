@@ -0,0 +1,256 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server.fanout;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.jcip.annotations.Immutable;
+import dk.dma.ais.virtualnet.common.message.FilterMessage;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Subscription of a session. Packets from the session's own MMSI and packets addressed to it always pass. Other
+ * packets must be of one of the subscribed message types, if any are given, and come from a watched MMSI or from a
+ * target known to be within the radius of the center. Without an area and watched MMSI all locations pass.
+ */
+@Immutable
+public final class SessionFilter {
+
+    /**
+     * Meters per degree of latitude, rounded down so the bounding box is never too small
+     */
+    private static final double METERS_PER_DEGREE = 110000;
+
+    private final int ownMmsi;
+
+    private final Position center;
+
+    private final int radius;
+
+    /**
+     * Message types or null for all types
+     */
+    private final Set<Integer> msgTypes;
+
+    private final Set<Integer> mmsis;
+
+    private final double minLat;
+
+    private final double maxLat;
+
+    private final double lonSpan;
+
+    public SessionFilter(int ownMmsi, Position center, int radius) {
+        this(ownMmsi, center, radius, null, Collections.<Integer> emptySet());
+    }
+
+    /**
+     * @param ownMmsi
+     * @param center
+     *            center of area or null
+     * @param radius
+     *            radius of area in meters, 0 for no area
+     * @param msgTypes
+     *            message types or null for all types
+     * @param mmsis
+     *            watched MMSI
+     */
+    public SessionFilter(int ownMmsi, Position center, int radius, Set<Integer> msgTypes, Set<Integer> mmsis) {
+        this.ownMmsi = ownMmsi;
+        this.center = center;
+        this.radius = Math.max(0, radius);
+        this.msgTypes = msgTypes == null ? null : Collections.unmodifiableSet(new HashSet<>(msgTypes));
+        this.mmsis = Collections.unmodifiableSet(new HashSet<>(mmsis));
+        if (center != null && this.radius > 0) {
+            double latSpan = this.radius / METERS_PER_DEGREE;
+            minLat = center.getLatitude() - latSpan;
+            maxLat = center.getLatitude() + latSpan;
+            double cos = Math.cos(Math.toRadians(Math.min(90, Math.max(Math.abs(minLat), Math.abs(maxLat)))));
+            // Near the poles the box covers all longitudes
+            lonSpan = cos < 0.01 ? 180 : Math.min(180, latSpan / cos);
+        } else {
+            minLat = 0;
+            maxLat = 0;
+            lonSpan = 0;
+        }
+    }
+
+    /**
+     * Create filter from message sent by client
+     * 
+     * @param ownMmsi
+     * @param message
+     * @return the filter or null if the client does not want any filtering
+     * @throws IllegalArgumentException
+     *             if the position or radius is invalid
+     */
+    public static SessionFilter create(int ownMmsi, FilterMessage message) {
+        if (message == null) {
+            return null;
+        }
+        Double lat = message.getLat();
+        Double lon = message.getLon();
+        if (lat != null && !(Math.abs(lat) <= 90) || lon != null && !(Math.abs(lon) <= 180)) {
+            throw new IllegalArgumentException("Invalid filter position: " + lat + ", " + lon);
+        }
+        if (message.getRadius() < 0) {
+            throw new IllegalArgumentException("Invalid filter radius: " + message.getRadius());
+        }
+        Set<Integer> msgTypes = toSet(message.getMsgTypes());
+        Set<Integer> mmsis = toSet(message.getMmsis());
+        if (message.getRadius() <= 0 && msgTypes == null && mmsis == null) {
+            return null;
+        }
+        Position center = null;
+        if (lat != null && lon != null) {
+            center = Position.create(lat, lon);
+        }
+        return new SessionFilter(ownMmsi, center, message.getRadius(), msgTypes,
+                mmsis == null ? Collections.<Integer> emptySet() : mmsis);
+    }
+
+    private static Set<Integer> toSet(List<Integer> list) {
+        return list == null || list.isEmpty() ? null : new HashSet<>(list);
+    }
+
+    /**
+     * Return if packet should be sent to the session
+     * 
+     * @param route
+     *            the route of the packet, null if it could not be parsed
+     * @return
+     */
+    public boolean accept(PacketRoute route) {
+        if (route == null) {
+            return msgTypes == null && !isLocationRestricted();
+        }
+        if (isOwn(route)) {
+            return true;
+        }
+        if (msgTypes != null && !msgTypes.contains(route.getMsgId())) {
+            return false;
+        }
+        if (!isLocationRestricted() || mmsis.contains(route.getUserId())) {
+            return true;
+        }
+        return isWithinArea(route.getPosition());
+    }
+
+    /**
+     * Return if packet is from the session's own MMSI or addressed to it
+     * 
+     * @param route
+     * @return
+     */
+    public boolean isOwn(PacketRoute route) {
+        // Unused destinations of 7 and 13 are 0
+        return ownMmsi != 0 && (route.getUserId() == ownMmsi || route.isAddressedTo(ownMmsi));
+    }
+
+    /**
+     * Return if position is within the area of the filter
+     * 
+     * @param position
+     * @return
+     */
+    public boolean isWithinArea(Position position) {
+        if (!hasArea() || position == null) {
+            return false;
+        }
+        // Cheap bounding box test before the distance
+        if (position.getLatitude() < minLat || position.getLatitude() > maxLat) {
+            return false;
+        }
+        double dLon = Math.abs(position.getLongitude() - center.getLongitude());
+        if (Math.min(dLon, 360 - dLon) > lonSpan) {
+            return false;
+        }
+        return position.rhumbLineDistanceTo(center) <= radius;
+    }
+
+    /**
+     * Return if only some locations pass the filter
+     * 
+     * @return
+     */
+    public boolean isLocationRestricted() {
+        return radius > 0 || !mmsis.isEmpty();
+    }
+
+    /**
+     * Return if the filter has an area with a known center
+     * 
+     * @return
+     */
+    public boolean hasArea() {
+        return center != null && radius > 0;
+    }
+
+    public int getOwnMmsi() {
+        return ownMmsi;
+    }
+
+    public Position getCenter() {
+        return center;
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * Subscribed message types
+     * 
+     * @return the types or null for all types
+     */
+    public Set<Integer> getMsgTypes() {
+        return msgTypes;
+    }
+
+    public Set<Integer> getMmsis() {
+        return mmsis;
+    }
+
+    /**
+     * Southern edge of the bounding box of the area
+     * 
+     * @return
+     */
+    public double getMinLat() {
+        return minLat;
+    }
+
+    /**
+     * Northern edge of the bounding box of the area
+     * 
+     * @return
+     */
+    public double getMaxLat() {
+        return maxLat;
+    }
+
+    /**
+     * Half width of the bounding box of the area in degrees of longitude
+     * 
+     * @return
+     */
+    public double getLonSpan() {
+        return lonSpan;
+    }
+
+}
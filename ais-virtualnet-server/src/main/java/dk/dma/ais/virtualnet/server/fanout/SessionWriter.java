@@ -0,0 +1,311 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server.fanout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.dma.ais.virtualnet.common.websocket.EncodedMessage;
+import dk.dma.ais.virtualnet.common.websocket.EncodedPacket;
+import dk.dma.ais.virtualnet.common.websocket.WebSocketSession;
+
+/**
+ * Outgoing queue of a single session. At most one send is outstanding at any time. When a send completes the writer
+ * is rescheduled on the {@link FanoutScheduler} to send the next frame, so a slow socket never holds a thread while
+ * waiting.
+ * <p>
+ * In batched mode packets are collected into frames of up to a maximum number of packets. A frame is sent when it is
+ * full or when the flush window has passed since the first packet was queued.
+ * <p>
+ * In conflating mode a position report replaces a queued position report from the same target, so a client that
+ * cannot keep up receives fewer positions per target instead of being disconnected. Other packets are never replaced.
+ * <p>
+ * Packets are queued with their sequence numbers from the shared {@link PacketSequence}. The lag of the session is
+ * the distance from the sequence number of the packet to be sent next to the cursor of the sequence. The queue counts
+ * as full when the lag reaches the maximum lag, and packets offered while it is full are dropped and counted. Queued
+ * packets are never dropped.
+ * <p>
+ * Besides packets the writer holds a single pending message, which is sent before any queued packets. The sender of
+ * messages is expected to wait for the pending message to be sent before offering the next.
+ */
+@ThreadSafe
+public class SessionWriter implements Runnable, SendHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionWriter.class);
+
+    /**
+     * Nothing queued and no send outstanding
+     */
+    private static final int IDLE = 0;
+
+    /**
+     * Packets queued and waiting for the flush window to pass
+     */
+    private static final int WAITING = 1;
+
+    /**
+     * Writer scheduled or send outstanding
+     */
+    private static final int SENDING = 2;
+
+    private final WebSocketSession session;
+
+    private final FanoutScheduler scheduler;
+
+    private final FanoutStatistics statistics;
+
+    private final PacketSequence packetSequence;
+
+    /**
+     * Maximum lag before the queue counts as full
+     */
+    private final long maxLag;
+
+    private final int batchMaxPackets;
+
+    private final long batchFlushWindow;
+
+    private final ConflatingQueue<EncodedPacket> queue;
+
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+
+    private final AtomicReference<EncodedMessage> pendingMessage = new AtomicReference<>();
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            if (state.compareAndSet(WAITING, SENDING)) {
+                scheduler.execute(SessionWriter.this);
+            }
+        }
+    };
+
+    private volatile boolean batched;
+
+    private volatile boolean conflate;
+
+    private volatile boolean cancelled;
+
+    /**
+     * Number of packets in the outstanding frame
+     */
+    private volatile int sending;
+
+    /**
+     * Number of packets dropped because the queue was full
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    public SessionWriter(WebSocketSession session, PacketSequence packetSequence, FanoutScheduler scheduler,
+            FanoutStatistics statistics, int capacity, long maxLag, int batchMaxPackets, long batchFlushWindow) {
+        this.session = session;
+        this.packetSequence = packetSequence;
+        this.scheduler = scheduler;
+        this.statistics = statistics;
+        this.queue = new ConflatingQueue<>(capacity);
+        this.maxLag = maxLag;
+        this.batchMaxPackets = Math.max(1, batchMaxPackets);
+        this.batchFlushWindow = batchFlushWindow;
+    }
+
+    /**
+     * Add packet to the queue
+     * 
+     * @param sequence
+     *            sequence number of the packet
+     * @param packet
+     * @return false if the queue is full and the packet was dropped
+     */
+    public boolean offer(long sequence, EncodedPacket packet) {
+        return offer(sequence, packet, -1);
+    }
+
+    /**
+     * Add packet to the queue
+     * 
+     * @param sequence
+     *            sequence number of the packet
+     * @param packet
+     * @param conflationKey
+     *            in conflating mode the packet replaces a queued packet with the same key. Negative if the packet
+     *            should never be replaced.
+     * @return false if the queue is full and the packet was dropped
+     */
+    public boolean offer(long sequence, EncodedPacket packet, int conflationKey) {
+        if (cancelled) {
+            return true;
+        }
+        if (getLag() >= maxLag) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        int result = queue.offer(sequence, packet, conflate ? conflationKey : -1);
+        if (result == ConflatingQueue.REPLACED) {
+            // Already queued and scheduled
+            statistics.packetConflated();
+            return true;
+        }
+        if (result == ConflatingQueue.FULL) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        if (!batched || batchFlushWindow <= 0) {
+            if (state.compareAndSet(IDLE, SENDING)) {
+                scheduler.execute(this);
+            }
+        } else if (queue.size() >= batchMaxPackets) {
+            // Frame is full, flush now
+            if (state.compareAndSet(IDLE, SENDING) || state.compareAndSet(WAITING, SENDING)) {
+                scheduler.execute(this);
+            }
+        } else if (state.compareAndSet(IDLE, WAITING)) {
+            scheduler.schedule(flushTask, batchFlushWindow);
+        }
+        return true;
+    }
+
+    /**
+     * Send message before any queued packets
+     * 
+     * @param message
+     * @return false if a message is already pending
+     */
+    public boolean offerMessage(EncodedMessage message) {
+        if (cancelled) {
+            return true;
+        }
+        if (!pendingMessage.compareAndSet(null, message)) {
+            return false;
+        }
+        if (state.compareAndSet(IDLE, SENDING) || state.compareAndSet(WAITING, SENDING)) {
+            scheduler.execute(this);
+        }
+        return true;
+    }
+
+    /**
+     * Return if a message offered is still waiting to be sent
+     * 
+     * @return
+     */
+    public boolean isMessagePending() {
+        return pendingMessage.get() != null;
+    }
+
+    /**
+     * Start sending the next frame
+     */
+    @Override
+    public void run() {
+        while (!cancelled) {
+            EncodedMessage message = pendingMessage.getAndSet(null);
+            if (message != null) {
+                sending = 0;
+                session.sendEncodedMessage(message, this);
+                return;
+            }
+            int max = batched ? batchMaxPackets : 1;
+            List<EncodedPacket> packets = new ArrayList<>(Math.min(max, Math.max(1, queue.size())));
+            EncodedPacket packet;
+            while (packets.size() < max && (packet = queue.poll()) != null) {
+                packets.add(packet);
+            }
+            if (!packets.isEmpty()) {
+                sending = packets.size();
+                // Completion continues in onResult
+                session.sendEncodedPackets(packets, this);
+                return;
+            }
+            state.set(IDLE);
+            // A packet or message may have been added after poll but before going idle
+            if (queue.isEmpty() && pendingMessage.get() == null || !state.compareAndSet(IDLE, SENDING)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onResult(SendResult result) {
+        if (result.isOK()) {
+            statistics.frameSent(sending);
+        } else {
+            LOG.error("Failed to send frame: " + result.getException());
+        }
+        scheduler.execute(this);
+    }
+
+    /**
+     * Set if packets should be collected into frames with multiple packets
+     * 
+     * @param batched
+     */
+    public void setBatched(boolean batched) {
+        this.batched = batched;
+    }
+
+    /**
+     * Set if queued position reports should be replaced by newer ones from the same target
+     * 
+     * @param conflate
+     */
+    public void setConflate(boolean conflate) {
+        this.conflate = conflate;
+    }
+
+    /**
+     * Stop sending and discard queued packets
+     */
+    public void cancel() {
+        cancelled = true;
+        queue.clear();
+        pendingMessage.set(null);
+    }
+
+    public int getSize() {
+        return queue.size();
+    }
+
+    /**
+     * Number of packets distributed since the packet to be sent next. For a replaced position report this is
+     * the replacing one.
+     * 
+     * @return the lag or 0 if the queue is empty
+     */
+    public long getLag() {
+        long next = queue.peek();
+        return next < 0 ? 0 : packetSequence.getCursor() - next;
+    }
+
+    /**
+     * Number of packets dropped because the queue was full
+     * 
+     * @return
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+}
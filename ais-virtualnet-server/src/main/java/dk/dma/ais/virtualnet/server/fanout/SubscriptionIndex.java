@@ -0,0 +1,330 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server.fanout;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.jcip.annotations.ThreadSafe;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Reverse index from packets to the subscribers that should receive them. Subscribers are indexed by the grid cells
+ * their area overlaps, by watched MMSI, by own MMSI and, for subscribers not restricted by location, by message type.
+ * Matching a packet only visits the subscribers registered under the packet's cell, sender and addressees, so the
+ * cost depends on the number of recipients rather than on the number of subscribers.
+ * <p>
+ * The size of the area is chosen by the client, so areas overlapping more than {@link #MAX_AREA_CELLS} cells are not
+ * registered by cell. Their subscribers are checked for every packet with a position instead.
+ * <p>
+ * Changes are serialized, matching runs concurrently with changes without locking. When a subscription changes the
+ * new registrations are added before the old ones are removed, so a concurrent match never misses a subscriber that
+ * is interested both before and after the change.
+ * 
+ * @param <T>
+ *            the subscriber type
+ */
+@ThreadSafe
+public class SubscriptionIndex<T> {
+
+    /**
+     * Cell size in degrees
+     */
+    private static final double CELL_SIZE = 0.5;
+
+    private static final int LAT_CELLS = (int) (180 / CELL_SIZE);
+
+    private static final int LON_CELLS = (int) (360 / CELL_SIZE);
+
+    /**
+     * Largest number of cells an area is registered under
+     */
+    static final int MAX_AREA_CELLS = 1024;
+
+    private final ConcurrentHashMap<T, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * Subscribers receiving all packets
+     */
+    private final Set<T> everything = Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+
+    /**
+     * Subscribers receiving all locations but only some message types
+     */
+    private final ConcurrentHashMap<Integer, Set<T>> byMsgType = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Long, Set<T>> byCell = new ConcurrentHashMap<>();
+
+    /**
+     * Subscribers with areas too large to register by cell
+     */
+    private final Set<T> wideAreas = Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+
+    private final ConcurrentHashMap<Integer, Set<T>> byWatchedMmsi = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Integer, Set<T>> byOwnMmsi = new ConcurrentHashMap<>();
+
+    /**
+     * Add or change the subscription of a subscriber
+     * 
+     * @param subscriber
+     * @param filter
+     *            the filter or null to receive all packets
+     */
+    public synchronized void subscribe(T subscriber, SessionFilter filter) {
+        Subscription sub = new Subscription(filter);
+        Subscription old = subscriptions.put(subscriber, sub);
+        register(subscriber, sub);
+        if (old != null) {
+            unregister(subscriber, old, sub);
+        }
+    }
+
+    /**
+     * Remove the subscription of a subscriber
+     * 
+     * @param subscriber
+     */
+    public synchronized void unsubscribe(T subscriber) {
+        Subscription old = subscriptions.remove(subscriber);
+        if (old != null) {
+            unregister(subscriber, old, new Subscription(null, false));
+        }
+    }
+
+    /**
+     * Find subscribers that should receive a packet
+     * 
+     * @param route
+     *            the route of the packet, null if it could not be parsed
+     * @return the subscribers
+     */
+    public Collection<T> match(PacketRoute route) {
+        Set<T> result = new HashSet<>(everything);
+        if (route == null) {
+            return result;
+        }
+        addAll(result, byMsgType.get(route.getMsgId()));
+        // Own and addressed packets always pass
+        addAll(result, byOwnMmsi.get(route.getUserId()));
+        for (int i = 0; i < route.getDestinationCount(); i++) {
+            if (route.getDestination(i) != 0) {
+                addAll(result, byOwnMmsi.get(route.getDestination(i)));
+            }
+        }
+        addAccepted(result, byWatchedMmsi.get(route.getUserId()), route);
+        Position position = route.getPosition();
+        if (position != null) {
+            addAccepted(result, byCell.get(cell(latIndex(position.getLatitude()), lonIndex(position.getLongitude()))),
+                    route);
+            addAccepted(result, wideAreas, route);
+        }
+        return result;
+    }
+
+    /**
+     * Number of subscribers
+     * 
+     * @return
+     */
+    public int size() {
+        return subscriptions.size();
+    }
+
+    private static <T> void addAll(Set<T> result, Set<T> subscribers) {
+        if (subscribers != null) {
+            result.addAll(subscribers);
+        }
+    }
+
+    private void addAccepted(Set<T> result, Set<T> candidates, PacketRoute route) {
+        if (candidates == null) {
+            return;
+        }
+        for (T candidate : candidates) {
+            if (result.contains(candidate)) {
+                continue;
+            }
+            Subscription sub = subscriptions.get(candidate);
+            if (sub != null && sub.filter != null && sub.filter.accept(route)) {
+                result.add(candidate);
+            }
+        }
+    }
+
+    private void register(T subscriber, Subscription sub) {
+        if (sub.everything) {
+            everything.add(subscriber);
+        }
+        for (Integer msgType : sub.msgTypes) {
+            add(byMsgType, msgType, subscriber);
+        }
+        for (Long cell : sub.cells) {
+            add(byCell, cell, subscriber);
+        }
+        if (sub.wideArea) {
+            wideAreas.add(subscriber);
+        }
+        for (Integer mmsi : sub.watchedMmsis) {
+            add(byWatchedMmsi, mmsi, subscriber);
+        }
+        if (sub.ownMmsi != 0) {
+            add(byOwnMmsi, sub.ownMmsi, subscriber);
+        }
+    }
+
+    /**
+     * Remove registrations of the old subscription that are not part of the new subscription
+     */
+    private void unregister(T subscriber, Subscription old, Subscription sub) {
+        if (old.everything && !sub.everything) {
+            everything.remove(subscriber);
+        }
+        for (Integer msgType : old.msgTypes) {
+            if (!sub.msgTypes.contains(msgType)) {
+                remove(byMsgType, msgType, subscriber);
+            }
+        }
+        for (Long cell : old.cells) {
+            if (!sub.cells.contains(cell)) {
+                remove(byCell, cell, subscriber);
+            }
+        }
+        if (old.wideArea && !sub.wideArea) {
+            wideAreas.remove(subscriber);
+        }
+        for (Integer mmsi : old.watchedMmsis) {
+            if (!sub.watchedMmsis.contains(mmsi)) {
+                remove(byWatchedMmsi, mmsi, subscriber);
+            }
+        }
+        if (old.ownMmsi != 0 && old.ownMmsi != sub.ownMmsi) {
+            remove(byOwnMmsi, old.ownMmsi, subscriber);
+        }
+    }
+
+    private static <K, T> void add(Map<K, Set<T>> map, K key, T subscriber) {
+        Set<T> set = map.get(key);
+        if (set == null) {
+            set = Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+            map.put(key, set);
+        }
+        set.add(subscriber);
+    }
+
+    private static <K, T> void remove(Map<K, Set<T>> map, K key, T subscriber) {
+        Set<T> set = map.get(key);
+        if (set != null) {
+            set.remove(subscriber);
+            if (set.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Cells overlapping the bounding box of the area of the filter
+     * 
+     * @return the cells, or null if there are more than {@link #MAX_AREA_CELLS}
+     */
+    private static Set<Long> cells(SessionFilter filter) {
+        Position center = filter.getCenter();
+        int latFrom = latIndex(filter.getMinLat());
+        int latTo = latIndex(filter.getMaxLat());
+        double minLon = center.getLongitude() - filter.getLonSpan();
+        double maxLon = center.getLongitude() + filter.getLonSpan();
+        int lonFrom = (int) Math.floor((minLon + 180) / CELL_SIZE);
+        int lonCount = Math.min(LON_CELLS, (int) Math.floor((maxLon + 180) / CELL_SIZE) - lonFrom + 1);
+        if ((long) (latTo - latFrom + 1) * lonCount > MAX_AREA_CELLS) {
+            return null;
+        }
+        Set<Long> cells = new HashSet<>();
+        for (int latIdx = latFrom; latIdx <= latTo; latIdx++) {
+            for (int i = 0; i < lonCount; i++) {
+                cells.add(cell(latIdx, wrap(lonFrom + i)));
+            }
+        }
+        return cells;
+    }
+
+    private static int latIndex(double lat) {
+        int idx = (int) Math.floor((lat + 90) / CELL_SIZE);
+        return Math.max(0, Math.min(LAT_CELLS - 1, idx));
+    }
+
+    private static int lonIndex(double lon) {
+        return wrap((int) Math.floor((lon + 180) / CELL_SIZE));
+    }
+
+    private static int wrap(int lonIdx) {
+        int idx = lonIdx % LON_CELLS;
+        return idx < 0 ? idx + LON_CELLS : idx;
+    }
+
+    private static long cell(int latIdx, int lonIdx) {
+        return (long) latIdx << 32 | lonIdx;
+    }
+
+    /**
+     * The registrations of a subscriber
+     */
+    private static final class Subscription {
+        final SessionFilter filter;
+        final boolean everything;
+        final Set<Integer> msgTypes;
+        final Set<Long> cells;
+        final boolean wideArea;
+        final Set<Integer> watchedMmsis;
+        final int ownMmsi;
+
+        Subscription(SessionFilter filter) {
+            this(filter, true);
+        }
+
+        Subscription(SessionFilter filter, boolean registered) {
+            this.filter = filter;
+            if (!registered) {
+                everything = false;
+                msgTypes = Collections.emptySet();
+                cells = Collections.emptySet();
+                wideArea = false;
+                watchedMmsis = Collections.emptySet();
+                ownMmsi = 0;
+            } else if (filter == null) {
+                everything = true;
+                msgTypes = Collections.emptySet();
+                cells = Collections.emptySet();
+                wideArea = false;
+                watchedMmsis = Collections.emptySet();
+                ownMmsi = 0;
+            } else {
+                boolean restricted = filter.isLocationRestricted();
+                everything = !restricted && filter.getMsgTypes() == null;
+                msgTypes = restricted || filter.getMsgTypes() == null ? Collections.<Integer> emptySet() : filter
+                        .getMsgTypes();
+                Set<Long> areaCells = filter.hasArea() ? cells(filter) : Collections.<Long> emptySet();
+                wideArea = areaCells == null;
+                cells = wideArea ? Collections.<Long> emptySet() : areaCells;
+                watchedMmsis = filter.getMmsis();
+                ownMmsi = filter.getOwnMmsi();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server.fanout;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.dma.ais.virtualnet.common.message.TargetTableDeltaMessage;
+import dk.dma.ais.virtualnet.common.message.WsMessage;
+import dk.dma.ais.virtualnet.common.table.TargetTable;
+import dk.dma.ais.virtualnet.common.websocket.EncodedMessage;
+
+/**
+ * Pushes the target table to subscribed sessions. A new subscriber first gets the whole table, and then the changes
+ * once per interval. Changes within an interval are coalesced, so a target updated many times is sent once with its
+ * latest state.
+ * <p>
+ * The changes since the previous interval are computed and encoded once and shared by all subscribers that are up to
+ * date. A subscriber still sending an earlier message is skipped, and catches up later with a single message holding
+ * everything it missed.
+ * <p>
+ * The whole table sent to new subscribers is encoded at most once per interval and shared by all of them, so a burst
+ * of subscribers does not keep a writer thread busy encoding the table again and again.
+ */
+@ThreadSafe
+public class TargetTableStream implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TargetTableStream.class);
+
+    private final TargetTable targetTable;
+
+    private final FanoutScheduler scheduler;
+
+    private final long interval;
+
+    /**
+     * Subscribers and the version of the table they have been sent, -1 if nothing has been sent
+     */
+    private final ConcurrentMap<SessionWriter, Long> subscribers = new ConcurrentHashMap<>();
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            if (!stopped) {
+                scheduler.execute(TargetTableStream.this);
+                scheduler.schedule(this, interval);
+            }
+        }
+    };
+
+    /**
+     * Version of the changes last shared by subscribers
+     */
+    @GuardedBy("this")
+    private long version = -1;
+
+    /**
+     * Encoded whole table shared by new subscribers, null if not encoded
+     */
+    @GuardedBy("this")
+    private EncodedMessage full;
+
+    @GuardedBy("this")
+    private long fullVersion;
+
+    @GuardedBy("this")
+    private long fullTime;
+
+    private volatile boolean stopped;
+
+    /**
+     * @param targetTable
+     * @param scheduler
+     * @param interval
+     *            time in milliseconds between sending changes
+     */
+    public TargetTableStream(TargetTable targetTable, FanoutScheduler scheduler, long interval) {
+        this.targetTable = targetTable;
+        this.scheduler = scheduler;
+        this.interval = Math.max(1, interval);
+    }
+
+    public void start() {
+        scheduler.schedule(tick, interval);
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Start sending the table to a session. The whole table is sent right away.
+     * 
+     * @param writer
+     *            writer of the session
+     */
+    public void subscribe(SessionWriter writer) {
+        if (subscribers.containsKey(writer)) {
+            return;
+        }
+        subscribers.put(writer, -1L);
+        scheduler.execute(this);
+    }
+
+    public void unsubscribe(SessionWriter writer) {
+        subscribers.remove(writer);
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Send changes to the subscribers ready for them
+     */
+    @Override
+    public synchronized void run() {
+        if (subscribers.isEmpty()) {
+            full = null;
+            return;
+        }
+        long current = targetTable.getVersion();
+        EncodedMessage shared = null;
+        long sharedSince = version;
+        if (current != version) {
+            TargetTableDeltaMessage delta = targetTable.getDelta(version);
+            version = delta.getVersion();
+            if (!isEmpty(delta)) {
+                shared = encode(delta);
+            }
+        }
+        for (Map.Entry<SessionWriter, Long> e : subscribers.entrySet()) {
+            SessionWriter writer = e.getKey();
+            long since = e.getValue();
+            if (since == version || writer.isMessagePending()) {
+                continue;
+            }
+            long sent;
+            EncodedMessage message;
+            if (since == sharedSince && since >= 0) {
+                sent = version;
+                message = shared;
+            } else if (since < 0) {
+                message = getFull();
+                sent = fullVersion;
+            } else {
+                // Fallen behind
+                TargetTableDeltaMessage delta = targetTable.getDelta(since);
+                if (delta.isFull()) {
+                    message = getFull();
+                    sent = fullVersion;
+                } else {
+                    sent = delta.getVersion();
+                    message = isEmpty(delta) ? null : encode(delta);
+                }
+            }
+            if (message != null && !writer.offerMessage(message)) {
+                continue;
+            }
+            // Only update subscribers still there
+            if (subscribers.replace(writer, since, sent)) {
+                LOG.debug("Target table version " + sent + " queued, was " + since);
+            }
+        }
+    }
+
+    /**
+     * Get the encoded whole table, encoding it again if it has changed and is older than the interval
+     */
+    @GuardedBy("this")
+    private EncodedMessage getFull() {
+        long now = System.currentTimeMillis();
+        if (full == null || fullVersion != targetTable.getVersion() && now - fullTime >= interval) {
+            TargetTableDeltaMessage delta = targetTable.getDelta(0);
+            full = encode(delta);
+            fullVersion = delta.getVersion();
+            fullTime = now;
+        }
+        return full;
+    }
+
+    private static boolean isEmpty(TargetTableDeltaMessage delta) {
+        return !delta.isFull() && delta.getTargets().isEmpty() && delta.getRemoved().isEmpty();
+    }
+
+    private static EncodedMessage encode(TargetTableDeltaMessage delta) {
+        WsMessage message = new WsMessage();
+        message.setTargetTableDelta(delta);
+        return new EncodedMessage(message);
+    }
+
+}
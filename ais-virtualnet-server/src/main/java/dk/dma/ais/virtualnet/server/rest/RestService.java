@@ -16,11 +16,24 @@ package dk.dma.ais.virtualnet.server.rest;
 
 import static java.util.Objects.requireNonNull;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,17 +42,46 @@ import dk.dma.ais.virtualnet.common.message.AuthenticationReplyMessage;
 import dk.dma.ais.virtualnet.common.message.ReserveMmsiReplyMessage;
 import dk.dma.ais.virtualnet.common.message.ReserveMmsiReplyMessage.ReserveResult;
 import dk.dma.ais.virtualnet.common.message.StatusMessage;
+import dk.dma.ais.virtualnet.common.message.TargetTableDeltaMessage;
+import dk.dma.ais.virtualnet.common.message.TargetTableJson;
 import dk.dma.ais.virtualnet.common.message.TargetTableMessage;
+import dk.dma.ais.virtualnet.common.message.TrackMessage;
+import dk.dma.ais.virtualnet.common.table.TargetTable;
+import dk.dma.ais.virtualnet.common.table.TargetTableEntry;
+import dk.dma.ais.virtualnet.common.table.TargetTrack;
 import dk.dma.ais.virtualnet.server.AisVirtualNetServer;
+import dk.dma.ais.virtualnet.server.AuthenticationExecutor;
+import dk.dma.ais.virtualnet.server.Authenticator;
+import dk.dma.enav.model.geometry.Position;
 
 /**
  * JAX-RS rest services
+ * <p>
+ * Requests carrying a password are suspended while the password is verified on the authentication threads, so an
+ * authentication storm cannot occupy the request threads needed by cheap requests.
  */
 @Path("/")
 public class RestService {
 
     private static final Logger LOG = LoggerFactory.getLogger(RestService.class);
 
+    /**
+     * Number of targets returned by a search when no limit is given
+     */
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+
+    private static final int MAX_SEARCH_LIMIT = 1000;
+
+    /**
+     * Maximum number of targets in a track request
+     */
+    private static final int MAX_TRACK_TARGETS = 100;
+
+    /**
+     * Largest radius in meters of a target table query, larger radii are reduced to this
+     */
+    private static final double MAX_RADIUS = 1000000; // 1000 km
+
     private final AisVirtualNetServer server;
 
     public RestService(AisVirtualNetServer server) {
@@ -54,33 +96,242 @@ public class RestService {
     }
 
 
+    /**
+     * Get alive targets, optionally within an area. The full table is served from a shared serialized copy tagged
+     * with the table version, and a request with a matching If-None-Match header gets 304 Not Modified. Targets are
+     * streamed to the response, gzip compressed if the client accepts it.
+     */
     @GET
     @Path("target_table")
     @Produces(MediaType.APPLICATION_JSON)
-    public TargetTableMessage getTargetTable(@QueryParam("username") String username,
-            @QueryParam("password") String password) {
+    public void getTargetTable(@QueryParam("username") String username, @QueryParam("password") String password,
+            @QueryParam("lat") final Double lat, @QueryParam("lon") final Double lon,
+            @QueryParam("radius") final Double radius, @QueryParam("nearest") final Integer nearest,
+            @QueryParam("minLat") final Double minLat, @QueryParam("minLon") final Double minLon,
+            @QueryParam("maxLat") final Double maxLat, @QueryParam("maxLon") final Double maxLon,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) final String ifNoneMatch,
+            @HeaderParam(HttpHeaders.ACCEPT_ENCODING) final String acceptEncoding,
+            @Suspended AsyncResponse response) {
         LOG.info("Getting target table for user: " + username + " password: " + password);
-        if (server.getAuthenticator().authenticate(username, password) == null) {
-            LOG.error("\tFailed to authenticate user");
-            return new TargetTableMessage();
+        authenticated(username, password, response, new AuthenticatedRequest() {
+            @Override
+            public Object run(String authToken) throws IOException {
+                if (authToken == null) {
+                    LOG.error("\tFailed to authenticate user");
+                    return Response.ok(new TargetTableMessage()).build();
+                }
+                return getTargetTable(lat, lon, radius, nearest, minLat, minLon, maxLat, maxLon, ifNoneMatch,
+                        acceptEncoding);
+            }
+        });
+    }
+
+    private Response getTargetTable(Double lat, Double lon, Double radius, Integer nearest, Double minLat,
+            Double minLon, Double maxLat, Double maxLon, String ifNoneMatch, String acceptEncoding)
+            throws IOException {
+        final boolean gzip = acceptsGzip(acceptEncoding);
+        TargetTable targetTable = server.getTargetTable();
+        final List<TargetTableEntry> targets;
+        if (lat != null && lon != null && (radius != null || nearest != null)) {
+            if (!isLatitude(lat) || !isLongitude(lon)) {
+                return badRequest("Invalid position");
+            }
+            if (radius != null) {
+                if (!(radius >= 0)) {
+                    return badRequest("Invalid radius");
+                }
+                targets = targetTable.findWithinRadius(Position.create(lat, lon), Math.min(radius, MAX_RADIUS));
+            } else {
+                targets = targetTable.findNearest(Position.create(lat, lon),
+                        Math.max(0, Math.min(nearest, MAX_SEARCH_LIMIT)));
+            }
+        } else if (minLat != null && minLon != null && maxLat != null && maxLon != null) {
+            if (!isLatitude(minLat) || !isLatitude(maxLat) || !isLongitude(minLon) || !isLongitude(maxLon)) {
+                return badRequest("Invalid bounding box");
+            }
+            targets = targetTable.findWithinBox(minLat, minLon, maxLat, maxLon);
+        } else {
+            final TargetTableCache.Snapshot snapshot = server.getTargetTableCache().get();
+            if (snapshot.matches(ifNoneMatch, gzip)) {
+                return Response.notModified(snapshot.getTag(gzip)).build();
+            }
+            if (gzip) {
+                return Response.ok(snapshot.getData(), MediaType.APPLICATION_JSON_TYPE)
+                        .header(HttpHeaders.CONTENT_ENCODING, "gzip").header("Vary", HttpHeaders.ACCEPT_ENCODING)
+                        .tag(snapshot.getTag(true)).build();
+            }
+            StreamingOutput output = new StreamingOutput() {
+                @Override
+                public void write(OutputStream out) throws IOException {
+                    snapshot.writeUncompressed(out);
+                }
+            };
+            return Response.ok(output, MediaType.APPLICATION_JSON_TYPE).header("Vary", HttpHeaders.ACCEPT_ENCODING)
+                    .tag(snapshot.getTag(false)).build();
+        }
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                if (gzip) {
+                    GZIPOutputStream gzipOut = new GZIPOutputStream(out, 8192);
+                    TargetTableJson.write(targets.iterator(), gzipOut);
+                    gzipOut.finish();
+                } else {
+                    TargetTableJson.write(targets.iterator(), out);
+                }
+            }
+        };
+        Response.ResponseBuilder builder = Response.ok(output, MediaType.APPLICATION_JSON_TYPE).header("Vary",
+                HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            builder.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return builder.build();
+    }
+
+    private static boolean isLatitude(double lat) {
+        return lat >= -90 && lat <= 90;
+    }
+
+    private static boolean isLongitude(double lon) {
+        return lon >= -180 && lon <= 180;
+    }
+
+    private static Response badRequest(String message) {
+        return Response.status(Response.Status.BAD_REQUEST).entity(message).type(MediaType.TEXT_PLAIN).build();
+    }
+
+    /**
+     * Return if an Accept-Encoding header allows gzip
+     * 
+     * @param acceptEncoding
+     *            the header value, may be null
+     * @return
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String value : acceptEncoding.split(",")) {
+            String[] parts = value.split(";");
+            String coding = parts[0].trim();
+            if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) {
+                continue;
+            }
+            boolean rejected = false;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim().replace(" ", "");
+                if (param.startsWith("q=") && param.substring(2).matches("0(\\.0*)?")) {
+                    rejected = true;
+                }
+            }
+            if (!rejected) {
+                return true;
+            }
         }
-        return server.getTargetTable().getAliveTargetTableMessage();
+        return false;
+    }
+
+    /**
+     * Find alive targets by name or MMSI, best matches first. Queries of three or more characters match anywhere in
+     * the name or MMSI, shorter queries match the start of them.
+     */
+    @GET
+    @Path("target_search")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void searchTargets(@QueryParam("username") String username, @QueryParam("password") String password,
+            @QueryParam("query") final String query, @QueryParam("limit") final Integer limit,
+            @Suspended AsyncResponse response) {
+        LOG.info("Searching targets for user: " + username + " query: " + query);
+        authenticated(username, password, response, new AuthenticatedRequest() {
+            @Override
+            public Object run(String authToken) {
+                TargetTableMessage message = new TargetTableMessage();
+                if (authToken == null) {
+                    LOG.error("\tFailed to authenticate user");
+                    return message;
+                }
+                if (query == null) {
+                    return message;
+                }
+                int max = limit == null ? DEFAULT_SEARCH_LIMIT : Math.max(0, Math.min(limit, MAX_SEARCH_LIMIT));
+                message.setTargets(server.getTargetTable().search(query, max));
+                return message;
+            }
+        });
+    }
+
+    /**
+     * Get recent positions of one or more alive targets, oldest first. Unknown targets are left out.
+     */
+    @GET
+    @Path("track")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void getTracks(@QueryParam("username") String username, @QueryParam("password") String password,
+            @QueryParam("mmsi") final List<Integer> mmsis, @QueryParam("since") final Long since,
+            @Suspended AsyncResponse response) {
+        LOG.info("Getting tracks for user: " + username + " mmsi: " + mmsis);
+        authenticated(username, password, response, new AuthenticatedRequest() {
+            @Override
+            public Object run(String authToken) {
+                TrackMessage message = new TrackMessage();
+                if (authToken == null) {
+                    LOG.error("\tFailed to authenticate user");
+                    return message;
+                }
+                TargetTable targetTable = server.getTargetTable();
+                for (Integer mmsi : mmsis.subList(0, Math.min(mmsis.size(), MAX_TRACK_TARGETS))) {
+                    TargetTrack track = mmsi == null ? null : targetTable.getTrack(mmsi, since == null ? 0 : since);
+                    if (track != null) {
+                        message.getTracks().add(track);
+                    }
+                }
+                return message;
+            }
+        });
+    }
+
+    /**
+     * Get changes to the alive targets since a version returned by an earlier call. Without a known version the whole
+     * table is returned with full set.
+     */
+    @GET
+    @Path("target_table_delta")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void getTargetTableDelta(@QueryParam("username") String username,
+            @QueryParam("password") String password, @QueryParam("since") final Long since,
+            @Suspended AsyncResponse response) {
+        LOG.info("Getting target table changes for user: " + username + " since: " + since);
+        authenticated(username, password, response, new AuthenticatedRequest() {
+            @Override
+            public Object run(String authToken) {
+                if (authToken == null) {
+                    LOG.error("\tFailed to authenticate user");
+                    return new TargetTableDeltaMessage();
+                }
+                return server.getTargetTable().getDelta(since == null ? 0 : since);
+            }
+        });
     }
 
     @GET
     @Path("authenticate")
     @Produces(MediaType.APPLICATION_JSON)
-    public AuthenticationReplyMessage authenticate(@QueryParam("username") String username,
-            @QueryParam("password") String password) {
+    public void authenticate(@QueryParam("username") String username, @QueryParam("password") String password,
+            @Suspended AsyncResponse response) {
         LOG.info("Authenticating user: " + username);
-        AuthenticationReplyMessage reply = new AuthenticationReplyMessage();
-        String authToken = server.getAuthenticator().authenticate(username, password);
-        reply.setAuthToken(authToken);
-        if (authToken == null) {
-            reply.setErrorMessage("\tWrong credentials");
-        }
-        LOG.info("\tAuthentication token: " + authToken);
-        return reply;
+        authenticated(username, password, response, new AuthenticatedRequest() {
+            @Override
+            public Object run(String authToken) {
+                AuthenticationReplyMessage reply = new AuthenticationReplyMessage();
+                reply.setAuthToken(authToken);
+                if (authToken == null) {
+                    reply.setErrorMessage("\tWrong credentials");
+                }
+                LOG.info("\tAuthentication token: " + authToken);
+                return reply;
+            }
+        });
     }
 
     @GET
@@ -114,4 +365,58 @@ public class RestService {
         return new ReserveMmsiReplyMessage(result);
     }
 
+    /**
+     * Request to complete once the user has been authenticated
+     */
+    private interface AuthenticatedRequest {
+        /**
+         * @param authToken
+         *            the new token, or null if authentication failed
+         * @return the response entity
+         */
+        Object run(String authToken) throws IOException;
+    }
+
+    /**
+     * Authenticate user and resume the response with the result of the request. Credentials verified recently are
+     * accepted right away. Otherwise the password is verified on the authentication threads, and the request is
+     * completed on a request thread of the authentication executor. When too many verifications are waiting the
+     * response is 503 Service Unavailable with an estimate of when to retry.
+     */
+    private void authenticated(final String username, final String password, final AsyncResponse response,
+            final AuthenticatedRequest request) {
+        final Authenticator authenticator = server.getAuthenticator();
+        if (authenticator.isVerified(username, password)) {
+            complete(response, request, authenticator.authenticate(username, password));
+            return;
+        }
+        final AtomicReference<String> authToken = new AtomicReference<>();
+        AuthenticationExecutor executor = server.getAuthenticationExecutor();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    authToken.set(authenticator.authenticate(username, password));
+                }
+            }, new Runnable() {
+                @Override
+                public void run() {
+                    complete(response, request, authToken.get());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Authentication queue full, rejecting user: " + username);
+            response.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, executor.getRetryAfter()).build());
+        }
+    }
+
+    private static void complete(AsyncResponse response, AuthenticatedRequest request, String authToken) {
+        try {
+            response.resume(request.run(authToken));
+        } catch (IOException | RuntimeException e) {
+            response.resume(e);
+        }
+    }
+
 }
@@ -0,0 +1,236 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.core.EntityTag;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.dma.ais.virtualnet.common.message.TargetTableJson;
+import dk.dma.ais.virtualnet.common.table.TargetTable;
+
+/**
+ * Serialized target table of alive targets shared between requests. The table is serialized again when it has
+ * changed, but at most once per maximum age. Requests arriving while the table is being serialized wait for the
+ * result instead of serializing it themselves.
+ * <p>
+ * Targets are streamed from the table into gzip compressed JSON, and only the compressed form is kept. Clients
+ * accepting gzip get it as is, other clients get it decompressed while it is written to them.
+ */
+@ThreadSafe
+public class TargetTableCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TargetTableCache.class);
+
+    private final TargetTable targetTable;
+
+    private final long maxAge;
+
+    /**
+     * Distinguishes tags from different server runs, as the table version starts over
+     */
+    private final String instance = Long.toHexString(System.currentTimeMillis());
+
+    private volatile Snapshot snapshot;
+
+    private final Object renderLock = new Object();
+
+    /**
+     * @param targetTable
+     * @param maxAge
+     *            minimum time in milliseconds between serializations of a changing table
+     */
+    public TargetTableCache(TargetTable targetTable, long maxAge) {
+        this.targetTable = targetTable;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Get serialized table
+     * 
+     * @return
+     * @throws IOException
+     */
+    public Snapshot get() throws IOException {
+        Snapshot s = snapshot;
+        if (isCurrent(s)) {
+            return s;
+        }
+        synchronized (renderLock) {
+            s = snapshot;
+            if (isCurrent(s)) {
+                return s;
+            }
+            s = render();
+            snapshot = s;
+            return s;
+        }
+    }
+
+    private boolean isCurrent(Snapshot s) {
+        return s != null
+                && (s.version == targetTable.getVersion() || System.currentTimeMillis() - s.created < maxAge);
+    }
+
+    @GuardedBy("renderLock")
+    private Snapshot render() throws IOException {
+        long start = System.nanoTime();
+        // Read the version first, so changes made while serializing give a new version
+        long version = targetTable.getVersion();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CountingOutputStream counter;
+        int count;
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192)) {
+            counter = new CountingOutputStream(gzip);
+            count = TargetTableJson.write(targetTable.aliveTargets(), counter);
+        }
+        Snapshot s = new Snapshot(version, instance + "-" + version, out.toByteArray());
+        LOG.debug("Serialized " + count + " targets in " + (System.nanoTime() - start) / 1000 + " us, "
+                + counter.count + " bytes compressed to " + s.data.length);
+        return s;
+    }
+
+    /**
+     * Counts the bytes written before compression
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Serialized table of a given version
+     */
+    @Immutable
+    public static final class Snapshot {
+
+        private final long version;
+
+        private final EntityTag tag;
+
+        /**
+         * Tag of the compressed representation, which must differ from the tag of the uncompressed one
+         */
+        private final EntityTag gzipTag;
+
+        private final byte[] data;
+
+        private final long created = System.currentTimeMillis();
+
+        Snapshot(long version, String tag, byte[] data) {
+            this.version = version;
+            this.tag = new EntityTag(tag);
+            this.gzipTag = new EntityTag(tag + "-gzip");
+            this.data = data;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Get entity tag of the table
+         * 
+         * @param gzip
+         *            true for the tag of the compressed table
+         * @return
+         */
+        public EntityTag getTag(boolean gzip) {
+            return gzip ? gzipTag : tag;
+        }
+
+        /**
+         * Get the gzip compressed table. Must not be modified.
+         * 
+         * @return
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * Write the uncompressed table. Only a small buffer is used regardless of the table size.
+         * 
+         * @param out
+         * @throws IOException
+         */
+        public void writeUncompressed(OutputStream out) throws IOException {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data), 8192)) {
+                byte[] buffer = new byte[8192];
+                int len;
+                while ((len = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, len);
+                }
+            }
+        }
+
+        /**
+         * Return if an If-None-Match header matches this snapshot
+         * 
+         * @param ifNoneMatch
+         *            the header value, may be null
+         * @param gzip
+         *            true if the compressed table would be sent
+         * @return
+         */
+        public boolean matches(String ifNoneMatch, boolean gzip) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            String current = "\"" + getTag(gzip).getValue() + "\"";
+            for (String value : ifNoneMatch.split(",")) {
+                value = value.trim();
+                if (value.startsWith("W/")) {
+                    value = value.substring(2);
+                }
+                if (value.equals("*") || value.equals(current)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
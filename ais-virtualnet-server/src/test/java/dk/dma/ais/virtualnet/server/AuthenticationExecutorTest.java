@@ -0,0 +1,121 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AuthenticationExecutorTest {
+
+    private static final Runnable NOTHING = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Test
+    public void rejectWhenQueueFull() throws InterruptedException {
+        AuthenticationExecutor executor = new AuthenticationExecutor(1, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        Runnable blocking = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        };
+        Runnable queued = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+        try {
+            executor.execute(blocking, NOTHING);
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            executor.execute(queued, NOTHING);
+            Assert.assertEquals(1, executor.getQueueDepth());
+            try {
+                executor.execute(queued, NOTHING);
+                Assert.fail("Expected rejection");
+            } catch (RejectedExecutionException e) {
+                // Expected
+            }
+            Assert.assertTrue(executor.getRetryAfter() >= 1);
+            release.countDown();
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(0, executor.getQueueDepth());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void continuationOnRequestThread() throws InterruptedException {
+        AuthenticationExecutor executor = new AuthenticationExecutor(1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        Runnable blocking = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        };
+        Runnable counting = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+        try {
+            // A slow continuation does not hold the verification thread
+            executor.execute(NOTHING, blocking);
+            executor.execute(NOTHING, counting);
+            Assert.assertTrue(waitFor(done, 1));
+            release.countDown();
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static boolean waitFor(CountDownLatch latch, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (latch.getCount() > count) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+}
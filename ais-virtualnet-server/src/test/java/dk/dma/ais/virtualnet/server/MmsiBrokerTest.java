@@ -0,0 +1,115 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.ais.virtualnet.common.message.ReserveMmsiReplyMessage.ReserveResult;
+
+public class MmsiBrokerTest {
+
+    @Test
+    public void reserveActivateRelease() {
+        MmsiBroker broker = new MmsiBroker();
+        Assert.assertEquals(ReserveResult.MMSI_RESERVED, broker.reserve(219000001, "a", 0));
+        Assert.assertEquals(ReserveResult.MMSI_ALREADY_RESERVED, broker.reserve(219000001, "b", 0));
+        Assert.assertEquals(Integer.valueOf(219000001), broker.getMmsi("a"));
+        Assert.assertNull(broker.getMmsi("b"));
+        Assert.assertTrue(broker.activate("a", 0));
+        Assert.assertFalse(broker.activate("a", 0));
+        Assert.assertFalse(broker.activate("b", 0));
+        broker.release("a");
+        Assert.assertNull(broker.getMmsi("a"));
+        Assert.assertEquals(0, broker.size());
+        Assert.assertEquals(ReserveResult.MMSI_RESERVED, broker.reserve(219000001, "b", 0));
+    }
+
+    @Test
+    public void nonReservable() {
+        MmsiBroker broker = new MmsiBroker();
+        Assert.assertEquals(ReserveResult.MMSI_RESERVED, broker.reserve(0, "a", 0));
+        Assert.assertEquals(ReserveResult.MMSI_RESERVED, broker.reserve(0, "b", 0));
+        Assert.assertTrue(broker.activate("a", 0));
+        Assert.assertTrue(broker.activate("b", 0));
+        Assert.assertEquals(Integer.valueOf(0), broker.getMmsi("b"));
+        Assert.assertEquals(0, broker.size());
+    }
+
+    @Test
+    public void expireNonReservable() {
+        MmsiBroker broker = new MmsiBroker();
+        broker.reserve(0, "a", 0);
+        broker.reserve(992199999, "b", 0);
+        broker.activate("b", 1000);
+        broker.cleanup(59999);
+        Assert.assertEquals(Integer.valueOf(0), broker.getMmsi("a"));
+        broker.cleanup(60000);
+        Assert.assertNull(broker.getMmsi("a"));
+        Assert.assertFalse(broker.activate("a", 60000));
+        Assert.assertEquals(Integer.valueOf(992199999), broker.getMmsi("b"));
+        // Reserving again with the same token starts a new deadline
+        broker.reserve(0, "c", 0);
+        broker.reserve(0, "c", 30000);
+        broker.cleanup(60000);
+        Assert.assertEquals(Integer.valueOf(0), broker.getMmsi("c"));
+        broker.release("c");
+        Assert.assertNull(broker.getMmsi("c"));
+    }
+
+    @Test
+    public void expireUnactivated() {
+        MmsiBroker broker = new MmsiBroker();
+        broker.reserve(219000001, "a", 0);
+        broker.reserve(219000002, "b", 0);
+        broker.activate("b", 1000);
+        // Still reserved just before the deadline
+        Assert.assertEquals(ReserveResult.MMSI_ALREADY_RESERVED, broker.reserve(219000001, "c", 59999));
+        broker.cleanup(59999);
+        Assert.assertEquals(2, broker.size());
+        broker.cleanup(60000);
+        Assert.assertEquals(1, broker.size());
+        Assert.assertNull(broker.getMmsi("a"));
+        Assert.assertFalse(broker.activate("a", 60000));
+        Assert.assertEquals(Integer.valueOf(219000002), broker.getMmsi("b"));
+        Assert.assertEquals(ReserveResult.MMSI_ALREADY_RESERVED, broker.reserve(219000002, "c", 120000));
+    }
+
+    @Test
+    public void takeOverExpired() {
+        MmsiBroker broker = new MmsiBroker();
+        broker.reserve(219000001, "a", 0);
+        // Expired but not yet removed by cleanup
+        Assert.assertEquals(ReserveResult.MMSI_RESERVED, broker.reserve(219000001, "b", 60000));
+        Assert.assertNull(broker.getMmsi("a"));
+        Assert.assertFalse(broker.activate("a", 60000));
+        // Releasing the old token does not release the new reservation
+        broker.release("a");
+        broker.cleanup(60000);
+        Assert.assertTrue(broker.activate("b", 60000));
+        Assert.assertEquals(1, broker.size());
+    }
+
+    @Test
+    public void reserveAnother() {
+        MmsiBroker broker = new MmsiBroker();
+        broker.reserve(219000001, "a", 0);
+        broker.reserve(219000002, "a", 0);
+        Assert.assertEquals(Integer.valueOf(219000002), broker.getMmsi("a"));
+        Assert.assertEquals(1, broker.size());
+        Assert.assertEquals(ReserveResult.MMSI_RESERVED, broker.reserve(219000001, "b", 0));
+    }
+
+}
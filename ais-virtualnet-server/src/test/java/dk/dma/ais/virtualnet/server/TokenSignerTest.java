@@ -0,0 +1,118 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenSignerTest {
+
+    private static final long TTL = 300000;
+
+    private static File keysFile(String... lines) throws IOException {
+        File file = File.createTempFile("keys", ".txt");
+        file.deleteOnExit();
+        writeKeys(file, lines);
+        return file;
+    }
+
+    private static void writeKeys(File file, String... lines) throws IOException {
+        try (PrintWriter writer = new PrintWriter(file)) {
+            for (String line : lines) {
+                writer.println(line);
+            }
+        }
+    }
+
+    @Test
+    public void issueAndValidate() throws IOException {
+        TokenSigner signer = new TokenSigner(keysFile("a:0123456789abcdef0123").getAbsolutePath(), TTL);
+        String token = signer.issue(1000);
+        Assert.assertTrue(token.startsWith("a."));
+        Assert.assertTrue(signer.validate(token, 1000));
+        Assert.assertTrue(signer.validate(token, 1000 + TTL - 1));
+        Assert.assertFalse(signer.validate(token, 1000 + TTL));
+        Assert.assertFalse(token.equals(signer.issue(1000)));
+    }
+
+    @Test
+    public void rejectForged() throws IOException {
+        String keys = keysFile("a:0123456789abcdef0123").getAbsolutePath();
+        TokenSigner signer = new TokenSigner(keys, TTL);
+        String token = signer.issue(1000);
+        String[] parts = token.split("\\.");
+        // Extended expiry
+        Assert.assertFalse(signer.validate(parts[0] + "." + (Long.parseLong(parts[1]) + TTL) + "." + parts[2] + "."
+                + parts[3], 1000));
+        // Changed signature
+        char c = parts[3].charAt(0) == '0' ? '1' : '0';
+        Assert.assertFalse(signer.validate(parts[0] + "." + parts[1] + "." + parts[2] + "." + c
+                + parts[3].substring(1), 1000));
+        Assert.assertFalse(signer.validate(token.substring(0, token.length() - 2), 1000));
+        // Signed with another secret
+        TokenSigner other = new TokenSigner(keysFile("a:fedcba9876543210fedc").getAbsolutePath(), TTL);
+        Assert.assertFalse(signer.validate(other.issue(1000), 1000));
+        Assert.assertFalse(signer.validate("", 1000));
+        Assert.assertFalse(signer.validate("a.b.c.d", 1000));
+        Assert.assertFalse(signer.validate("9b2c0a36-5c5d-4f5e-8f4e-1b7d1c7b2a11", 1000));
+    }
+
+    @Test
+    public void rotateKeys() throws IOException {
+        File keys = keysFile("a:0123456789abcdef0123");
+        // Distinct modification times for each change, as writes may fall within the time resolution of the file
+        long modified = keys.lastModified();
+        TokenSigner signer = new TokenSigner(keys.getAbsolutePath(), TTL);
+        TokenSigner otherServer = new TokenSigner(keys.getAbsolutePath(), TTL);
+        String oldToken = signer.issue(1000);
+        Assert.assertTrue(otherServer.validate(oldToken, 1000));
+
+        writeKeys(keys, "b:fedcba9876543210fedc", "a:0123456789abcdef0123");
+        keys.setLastModified(modified += 2000);
+        signer.reload();
+        String newToken = signer.issue(1000);
+        Assert.assertTrue(newToken.startsWith("b."));
+        Assert.assertTrue(signer.validate(oldToken, 1000));
+        Assert.assertTrue(signer.validate(newToken, 1000));
+
+        writeKeys(keys, "b:fedcba9876543210fedc");
+        keys.setLastModified(modified += 2000);
+        signer.reload();
+        Assert.assertFalse(signer.validate(oldToken, 1000));
+        Assert.assertTrue(signer.validate(newToken, 1000));
+
+        // Bad file keeps the current keys
+        writeKeys(keys, "c:short");
+        keys.setLastModified(modified += 2000);
+        signer.reload();
+        Assert.assertTrue(signer.validate(newToken, 1000));
+
+        // Completed with the same modification time as the bad file
+        writeKeys(keys, "c:0123456789abcdef0123");
+        keys.setLastModified(modified);
+        signer.reload();
+        Assert.assertTrue(signer.issue(1000).startsWith("c."));
+    }
+
+    @Test(expected = IOException.class)
+    public void noValidKeys() throws IOException {
+        new TokenSigner(keysFile("# comment", "a:short", "b.c:0123456789abcdef0123").getAbsolutePath(), TTL);
+    }
+
+}
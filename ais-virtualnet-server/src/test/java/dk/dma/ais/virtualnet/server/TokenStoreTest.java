@@ -0,0 +1,50 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenStoreTest {
+
+    @Test
+    public void expireLazily() {
+        TokenStore store = new TokenStore(1000);
+        store.add("a", 0);
+        Assert.assertTrue(store.contains("a", 999));
+        Assert.assertFalse(store.contains("b", 0));
+        Assert.assertFalse(store.contains("a", 1000));
+        // Removed when found expired
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void sweepExpired() {
+        TokenStore store = new TokenStore(1000);
+        for (int i = 0; i < 10; i++) {
+            store.add("t" + i, i * 100);
+        }
+        Assert.assertEquals(4, store.sweep(1300));
+        Assert.assertEquals(6, store.size());
+        Assert.assertFalse(store.contains("t3", 1300));
+        Assert.assertTrue(store.contains("t4", 1300));
+        // Adding removes a few expired tokens, here t4 to t7
+        store.add("new", 1700);
+        Assert.assertEquals(3, store.size());
+        Assert.assertEquals(3, store.sweep(5000));
+        Assert.assertEquals(0, store.size());
+    }
+
+}
@@ -0,0 +1,89 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server.fanout;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConflatingQueueTest {
+
+    @Test
+    public void replaceKeepsPlace() {
+        ConflatingQueue<String> queue = new ConflatingQueue<>(10);
+        Assert.assertEquals(ConflatingQueue.ADDED, queue.offer(1, "a1", 219000001));
+        Assert.assertEquals(ConflatingQueue.ADDED, queue.offer(2, "b", -1));
+        Assert.assertEquals(ConflatingQueue.REPLACED, queue.offer(3, "a3", 219000001));
+        Assert.assertEquals(2, queue.size());
+        // The lag is measured from the replacing element
+        Assert.assertEquals(3, queue.peek());
+        Assert.assertEquals("a3", queue.poll());
+        Assert.assertEquals("b", queue.poll());
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void noReplaceAfterTaken() {
+        ConflatingQueue<String> queue = new ConflatingQueue<>(10);
+        queue.offer(1, "a1", 219000001);
+        Assert.assertEquals("a1", queue.poll());
+        Assert.assertEquals(ConflatingQueue.ADDED, queue.offer(2, "a2", 219000001));
+        Assert.assertEquals("a2", queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void bounded() {
+        ConflatingQueue<Long> queue = new ConflatingQueue<>(20);
+        for (long i = 0; i < 20; i++) {
+            Assert.assertEquals(ConflatingQueue.ADDED, queue.offer(i, i, -1));
+        }
+        Assert.assertEquals(ConflatingQueue.FULL, queue.offer(20, 20L, 219000001));
+        // Rejected key must not be replaced later
+        Assert.assertEquals(ConflatingQueue.FULL, queue.offer(21, 21L, 219000001));
+        Assert.assertEquals(0, queue.peek());
+        for (long i = 0; i < 20; i++) {
+            Assert.assertEquals(Long.valueOf(i), queue.poll());
+        }
+        Assert.assertEquals(-1, queue.peek());
+    }
+
+    @Test
+    public void manyKeysAcrossGrowth() {
+        ConflatingQueue<Integer> queue = new ConflatingQueue<>(5000);
+        // Keys collide in the table and are removed in FIFO order while others are waiting
+        for (int round = 0; round < 3; round++) {
+            for (int key = 0; key < 4000; key++) {
+                Assert.assertEquals(ConflatingQueue.ADDED, queue.offer(key, key, key * 64));
+            }
+            for (int key = 0; key < 4000; key++) {
+                Assert.assertEquals(ConflatingQueue.REPLACED, queue.offer(4000 + key, -key, key * 64));
+            }
+            for (int key = 0; key < 2000; key++) {
+                Assert.assertEquals(Integer.valueOf(-key), queue.poll());
+            }
+            for (int key = 0; key < 2000; key++) {
+                Assert.assertEquals(ConflatingQueue.ADDED, queue.offer(key, key, key * 64));
+            }
+            for (int key = 2000; key < 4000; key++) {
+                Assert.assertEquals(Integer.valueOf(-key), queue.poll());
+            }
+            for (int key = 0; key < 2000; key++) {
+                Assert.assertEquals(Integer.valueOf(key), queue.poll());
+            }
+            Assert.assertTrue(queue.isEmpty());
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server.fanout;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.ais.virtualnet.common.message.FilterMessage;
+
+public class SessionFilterTest {
+
+    @Test
+    public void invalidValuesRejected() {
+        Assert.assertNotNull(SessionFilter.create(0, new FilterMessage(-90.0, 180.0, 1000)));
+        assertRejected(new FilterMessage(Double.NaN, 11.0, 1000));
+        assertRejected(new FilterMessage(55.0, Double.POSITIVE_INFINITY, 1000));
+        assertRejected(new FilterMessage(91.0, 11.0, 1000));
+        assertRejected(new FilterMessage(55.0, -181.0, 1000));
+        assertRejected(new FilterMessage(55.0, 11.0, -1));
+    }
+
+    private static void assertRejected(FilterMessage message) {
+        try {
+            SessionFilter.create(0, message);
+            Assert.fail("Accepted " + message.getLat() + ", " + message.getLon() + ", " + message.getRadius());
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+}
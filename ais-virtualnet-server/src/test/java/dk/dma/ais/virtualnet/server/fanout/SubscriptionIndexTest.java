@@ -0,0 +1,91 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server.fanout;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.enav.model.geometry.Position;
+
+public class SubscriptionIndexTest {
+
+    private static final int[] NONE = new int[0];
+
+    @Test
+    public void areaAndEverything() {
+        SubscriptionIndex<String> index = new SubscriptionIndex<>();
+        index.subscribe("all", null);
+        index.subscribe("near", new SessionFilter(219000001, Position.create(55.0, 11.0), 20000));
+        PacketRoute inside = new PacketRoute(1, 219000002, Position.create(55.1, 11.1), NONE);
+        PacketRoute outside = new PacketRoute(1, 219000003, Position.create(57.0, 11.0), NONE);
+        Assert.assertEquals(new HashSet<>(Arrays.asList("all", "near")), index.match(inside));
+        Assert.assertEquals(Collections.singleton("all"), index.match(outside));
+        Assert.assertEquals(Collections.singleton("all"), index.match(null));
+    }
+
+    @Test
+    public void ownAndAddressed() {
+        SubscriptionIndex<String> index = new SubscriptionIndex<>();
+        index.subscribe("ship", new SessionFilter(219000001, null, 20000));
+        Assert.assertEquals(Collections.singleton("ship"),
+                index.match(new PacketRoute(1, 219000001, Position.create(0.0, 0.0), NONE)));
+        Assert.assertEquals(Collections.singleton("ship"),
+                index.match(new PacketRoute(6, 219000002, null, new int[] { 219000001 })));
+        Assert.assertTrue(index.match(new PacketRoute(6, 219000002, null, new int[] { 219000003 })).isEmpty());
+    }
+
+    @Test
+    public void msgTypesAndWatchList() {
+        SubscriptionIndex<String> index = new SubscriptionIndex<>();
+        index.subscribe("static", new SessionFilter(0, null, 0, Collections.singleton(5),
+                Collections.<Integer> emptySet()));
+        index.subscribe("watch", new SessionFilter(0, null, 0, null, Collections.singleton(219000002)));
+        Assert.assertEquals(Collections.singleton("static"), index.match(new PacketRoute(5, 219000003, null, NONE)));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("static", "watch")),
+                index.match(new PacketRoute(5, 219000002, null, NONE)));
+        Assert.assertEquals(Collections.singleton("watch"), index.match(new PacketRoute(1, 219000002, null, NONE)));
+    }
+
+    @Test
+    public void moveAndUnsubscribe() {
+        SubscriptionIndex<String> index = new SubscriptionIndex<>();
+        index.subscribe("ship", new SessionFilter(219000001, Position.create(55.0, 11.0), 20000));
+        index.subscribe("ship", new SessionFilter(219000001, Position.create(57.0, 11.0), 20000));
+        Assert.assertTrue(index.match(new PacketRoute(1, 219000002, Position.create(55.0, 11.0), NONE)).isEmpty());
+        Assert.assertEquals(Collections.singleton("ship"),
+                index.match(new PacketRoute(1, 219000002, Position.create(57.0, 11.0), NONE)));
+        index.unsubscribe("ship");
+        Assert.assertEquals(0, index.size());
+        Assert.assertTrue(index.match(new PacketRoute(1, 219000001, Position.create(57.0, 11.0), NONE)).isEmpty());
+    }
+
+    @Test
+    public void wideArea() {
+        SubscriptionIndex<String> index = new SubscriptionIndex<>();
+        index.subscribe("wide", new SessionFilter(219000001, Position.create(55.0, 11.0), 2000000));
+        Assert.assertEquals(Collections.singleton("wide"),
+                index.match(new PacketRoute(1, 219000002, Position.create(65.0, 20.0), NONE)));
+        Assert.assertTrue(index.match(new PacketRoute(1, 219000002, Position.create(10.0, 11.0), NONE)).isEmpty());
+        index.subscribe("wide", new SessionFilter(219000001, Position.create(55.0, 11.0), 20000));
+        Assert.assertTrue(index.match(new PacketRoute(1, 219000002, Position.create(65.0, 20.0), NONE)).isEmpty());
+        Assert.assertEquals(Collections.singleton("wide"),
+                index.match(new PacketRoute(1, 219000002, Position.create(55.0, 11.0), NONE)));
+    }
+
+}
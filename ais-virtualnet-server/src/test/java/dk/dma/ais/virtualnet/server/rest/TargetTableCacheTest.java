@@ -0,0 +1,90 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.server.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.virtualnet.common.message.TargetTableJson;
+import dk.dma.ais.virtualnet.common.message.TargetTableMessage;
+import dk.dma.ais.virtualnet.common.table.TargetTable;
+
+public class TargetTableCacheTest {
+
+    private static TargetTableMessage uncompressed(TargetTableCache.Snapshot snapshot) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.writeUncompressed(out);
+        return TargetTableJson.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void reuseUntilChanged() throws IOException {
+        TargetTable table = new TargetTable();
+        TargetTableCache cache = new TargetTableCache(table, 0);
+        TargetTableCache.Snapshot first = cache.get();
+        Assert.assertSame(first, cache.get());
+        Assert.assertEquals(0, uncompressed(first).getTargets().size());
+
+        table.update(AisPacket.from("!AIVDM,1,1,,A,13u?etPv2;0n:dDPwUM1U1Cb069D,0*23"));
+        TargetTableCache.Snapshot second = cache.get();
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(1, uncompressed(second).getTargets().size());
+        Assert.assertTrue(second.getVersion() > first.getVersion());
+        // The compressed data is a gzip stream of the same document
+        TargetTableMessage message = TargetTableJson.read(new GZIPInputStream(new ByteArrayInputStream(second
+                .getData())));
+        Assert.assertEquals(1, message.getTargets().size());
+    }
+
+    @Test
+    public void maxAge() throws IOException {
+        TargetTable table = new TargetTable();
+        TargetTableCache cache = new TargetTableCache(table, 60000);
+        TargetTableCache.Snapshot first = cache.get();
+        table.update(AisPacket.from("!AIVDM,1,1,,A,13u?etPv2;0n:dDPwUM1U1Cb069D,0*23"));
+        Assert.assertSame(first, cache.get());
+    }
+
+    @Test
+    public void ifNoneMatch() throws IOException {
+        TargetTableCache.Snapshot snapshot = new TargetTableCache(new TargetTable(), 0).get();
+        String tag = "\"" + snapshot.getTag(false).getValue() + "\"";
+        String gzipTag = "\"" + snapshot.getTag(true).getValue() + "\"";
+        Assert.assertTrue(snapshot.matches(tag, false));
+        Assert.assertTrue(snapshot.matches("\"other\", W/" + tag, false));
+        Assert.assertTrue(snapshot.matches(gzipTag, true));
+        Assert.assertFalse(snapshot.matches(gzipTag, false));
+        Assert.assertTrue(snapshot.matches("*", true));
+        Assert.assertFalse(snapshot.matches("\"other\"", false));
+        Assert.assertFalse(snapshot.matches(null, true));
+    }
+
+    @Test
+    public void acceptsGzip() {
+        Assert.assertTrue(RestService.acceptsGzip("gzip, deflate"));
+        Assert.assertTrue(RestService.acceptsGzip("deflate, GZIP;q=0.5"));
+        Assert.assertTrue(RestService.acceptsGzip("*"));
+        Assert.assertFalse(RestService.acceptsGzip("gzip;q=0"));
+        Assert.assertFalse(RestService.acceptsGzip("deflate"));
+        Assert.assertFalse(RestService.acceptsGzip(null));
+    }
+
+}
@@ -14,10 +14,15 @@
  */
 package dk.dma.ais.virtualnet.transponder;
 
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
 
 import org.slf4j.Logger;
@@ -25,7 +30,10 @@ import org.slf4j.LoggerFactory;
 
 import dk.dma.ais.virtualnet.common.message.AuthenticationReplyMessage;
 import dk.dma.ais.virtualnet.common.message.ReserveMmsiReplyMessage;
+import dk.dma.ais.virtualnet.common.message.TargetTableDeltaMessage;
+import dk.dma.ais.virtualnet.common.message.TargetTableJson;
 import dk.dma.ais.virtualnet.common.message.TargetTableMessage;
+import dk.dma.ais.virtualnet.common.message.TrackMessage;
 import dk.dma.ais.virtualnet.common.security.Password;
 
 /**
@@ -37,13 +45,20 @@ public class RestClient {
 
     private final WebTarget service;
 
+    /**
+     * Last password hashed and its hash. The server accepts a hash it has verified recently without verifying it
+     * again, which only works if the same hash is sent every time.
+     */
+    private String password;
+    private String hashed;
+
     public RestClient(String hostname, int port) {
         Client client = ClientBuilder.newClient();
         service = client.target(UriBuilder.fromUri(String.format("http://%s:%d/rest", hostname, port)).build());
     }
 
     public AuthenticationReplyMessage authenticate(String username, String password) throws RestException {
-        String hashed = Password.hashPassword(password);
+        String hashed = hash(password);
         LOG.info("Authenticate username: " + username + " password: " + hashed);
         try {
             return service.path("authenticate").queryParam("username", username)
@@ -65,17 +80,130 @@ public class RestClient {
         }
     }
 
+    /**
+     * Get the target table. The table is requested gzip compressed and parsed while it is read.
+     * 
+     * @param username
+     * @param password
+     * @return
+     * @throws RestException
+     */
     public TargetTableMessage getTargetTable(String username, String password) throws RestException {
-        String hashed = Password.hashPassword(password);
+        String hashed = hash(password);
+        try {
+            Response response = service.path("target_table").queryParam("username", username)
+                    .queryParam("password", hashed).request(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.ACCEPT_ENCODING, "gzip").get();
+            try {
+                if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+                    throw new RestException("Unexpected response status: " + response.getStatus());
+                }
+                InputStream in = response.readEntity(InputStream.class);
+                if ("gzip".equalsIgnoreCase(response.getHeaderString(HttpHeaders.CONTENT_ENCODING))) {
+                    in = new GZIPInputStream(in, 8192);
+                }
+                try (InputStream body = in) {
+                    return TargetTableJson.read(body);
+                }
+            } finally {
+                response.close();
+            }
+        } catch (RestException e) {
+            LOG.error("RestClient failed: " + e.getMessage());
+            throw e;
+        } catch (Exception e) {
+            LOG.error("RestClient failed: " + e.getMessage());
+            throw new RestException(e);
+        }
+    }
+
+    /**
+     * Find targets by name or MMSI on the server without getting the whole table
+     * 
+     * @param username
+     * @param password
+     * @param query
+     * @param limit
+     *            maximum number of targets
+     * @return the targets, best matches first
+     * @throws RestException
+     */
+    public TargetTableMessage searchTargets(String username, String password, String query, int limit)
+            throws RestException {
+        String hashed = hash(password);
         try {
-            return service.path("target_table").queryParam("username", username)
-                    .queryParam("password", hashed).request(MediaType.APPLICATION_JSON).get(TargetTableMessage.class);
+            return service.path("target_search").queryParam("username", username)
+                    .queryParam("password", hashed).queryParam("query", query)
+                    .queryParam("limit", Integer.toString(limit)).request(MediaType.APPLICATION_JSON)
+                    .get(TargetTableMessage.class);
         } catch (Exception e) {
             LOG.error("RestClient failed: " + e.getMessage());
             throw new RestException(e);
         }
     }
 
+    /**
+     * Get recent positions of targets
+     * 
+     * @param username
+     * @param password
+     * @param mmsis
+     * @param since
+     *            time of the oldest position to get, 0 for all
+     * @return
+     * @throws RestException
+     */
+    public TrackMessage getTracks(String username, String password, int[] mmsis, long since) throws RestException {
+        String hashed = hash(password);
+        try {
+            WebTarget target = service.path("track").queryParam("username", username).queryParam("password", hashed)
+                    .queryParam("since", Long.toString(since));
+            for (int mmsi : mmsis) {
+                target = target.queryParam("mmsi", Integer.toString(mmsi));
+            }
+            return target.request(MediaType.APPLICATION_JSON).get(TrackMessage.class);
+        } catch (Exception e) {
+            LOG.error("RestClient failed: " + e.getMessage());
+            throw new RestException(e);
+        }
+    }
+
+    /**
+     * Get changes to the target table since a version
+     * 
+     * @param username
+     * @param password
+     * @param since
+     *            version from the last delta, 0 for the whole table
+     * @return
+     * @throws RestException
+     */
+    public TargetTableDeltaMessage getTargetTableDelta(String username, String password, long since)
+            throws RestException {
+        String hashed = hash(password);
+        try {
+            return service.path("target_table_delta").queryParam("username", username)
+                    .queryParam("password", hashed).queryParam("since", Long.toString(since))
+                    .request(MediaType.APPLICATION_JSON).get(TargetTableDeltaMessage.class);
+        } catch (Exception e) {
+            LOG.error("RestClient failed: " + e.getMessage());
+            throw new RestException(e);
+        }
+    }
+
+    /**
+     * Hash password, reusing the hash of the last password
+     * @param password
+     * @return
+     */
+    private synchronized String hash(String password) {
+        if (hashed == null || !password.equals(this.password)) {
+            hashed = Password.hashPassword(password);
+            this.password = password;
+        }
+        return hashed;
+    }
+
     public String test() {
         try {
             return service.path("test").request(MediaType.TEXT_PLAIN).get(String.class);
@@ -22,4 +22,8 @@ public class RestException extends Exception {
         super(e);
     }
 
+    public RestException(String message) {
+        super(message);
+    }
+
 }
@@ -27,6 +27,7 @@ import dk.dma.ais.packet.AisPacket;
 import dk.dma.ais.virtualnet.common.message.AuthenticationReplyMessage;
 import dk.dma.ais.virtualnet.common.message.ReserveMmsiReplyMessage;
 import dk.dma.ais.virtualnet.common.message.ReserveMmsiReplyMessage.ReserveResult;
+import dk.dma.enav.model.geometry.Position;
 
 /**
  * Class that maintains the connection to the server
@@ -64,6 +65,27 @@ public class ServerConnection extends Thread {
 
     }
 
+    /**
+     * Own position has changed. The area filter at the server is updated if the ship has moved far enough.
+     * 
+     * @param ownPos
+     */
+    public void ownPositionChanged(Position ownPos) {
+        WebSocketClientSession s = session;
+        if (s != null && transponder.getStatus().isServerConnected()) {
+            s.updateFilter(ownPos);
+        }
+    }
+
+    /**
+     * Get current own position
+     * 
+     * @return
+     */
+    public Position getOwnPos() {
+        return transponder.getStatus().getOwnPos();
+    }
+
     public void shutdown() {
         this.interrupt();
         if (session != null) {
@@ -128,7 +150,7 @@ public class ServerConnection extends Thread {
 
         String serverUrl = conf.createServerUrl();
         try {
-            client.connectToServer(session, new URI(serverUrl));
+            session.connect(client, new URI(serverUrl));
             if (!session.getConnected().await(10, TimeUnit.SECONDS)) {
                 LOG.error("Connection timeout");
                 transponder.getStatus().setServerError("Connection timeout");
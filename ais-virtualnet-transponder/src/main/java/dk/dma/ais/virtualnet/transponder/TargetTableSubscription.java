@@ -0,0 +1,158 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.virtualnet.transponder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.CloseReason;
+import javax.websocket.ContainerProvider;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.Extension;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.dma.ais.virtualnet.common.message.AuthenticationReplyMessage;
+import dk.dma.ais.virtualnet.common.message.WsMessage;
+import dk.dma.ais.virtualnet.common.websocket.PerMessageDeflate;
+import dk.dma.ais.virtualnet.common.websocket.WebSocketSession;
+import dk.dma.ais.virtualnet.common.websocket.WsProtocol;
+
+/**
+ * Live copy of the server target table. A web socket is opened without reserving an MMSI, and the server sends the
+ * whole table followed by the changes as they happen.
+ */
+@ThreadSafe
+public class TargetTableSubscription extends WebSocketSession {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TargetTableSubscription.class);
+
+    /**
+     * Largest message accepted. The first message holds the whole table, which is far above the default of 64 KB.
+     */
+    private static final int MAX_MESSAGE_SIZE = 64 * 1024 * 1024;
+
+    private final TransponderConfiguration conf;
+
+    private final ITargetTableListener listener;
+
+    private volatile String authToken;
+
+    public TargetTableSubscription(TransponderConfiguration conf, ITargetTableListener listener) {
+        this.conf = conf;
+        this.listener = listener;
+    }
+
+    /**
+     * Authenticate and connect to the server
+     * 
+     * @throws RestException
+     *             if authentication fails
+     * @throws IOException
+     *             if the web socket cannot be connected
+     */
+    public void connect() throws RestException, IOException {
+        RestClient restClient = new RestClient(conf.getServerHost(), conf.getServerPort());
+        AuthenticationReplyMessage authReply = restClient.authenticate(conf.getUsername(), conf.getPassword());
+        if (authReply.getAuthToken() == null) {
+            throw new RestException(authReply.getErrorMessage());
+        }
+        authToken = authReply.getAuthToken();
+        ClientEndpointConfig.Builder b = ClientEndpointConfig.Builder.create();
+        if (conf.isBinaryProtocol()) {
+            b.preferredSubprotocols(Arrays.asList(WsProtocol.BINARY, WsProtocol.JSON));
+        }
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        try {
+            container.connectToServer(new Endpoint() {
+                @Override
+                public void onOpen(Session session, EndpointConfig config) {
+                    session.setMaxTextMessageBufferSize(MAX_MESSAGE_SIZE);
+                    session.setMaxBinaryMessageBufferSize(MAX_MESSAGE_SIZE);
+                    session.addMessageHandler(new MessageHandler.Whole<String>() {
+                        @Override
+                        public void onMessage(String message) {
+                            onWebSocketText(message);
+                        }
+                    });
+                    session.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
+                        @Override
+                        public void onMessage(ByteBuffer message) {
+                            onWebSocketBinary(message);
+                        }
+                    });
+                    onWebSocketConnect(session);
+                }
+
+                @Override
+                public void onClose(Session session, CloseReason reason) {
+                    onWebSocketClose(reason);
+                }
+
+                @Override
+                public void onError(Session session, Throwable t) {
+                    onWebSocketError(t);
+                }
+            }, b.build(), new URI(conf.createServerUrl()));
+            if (!getConnected().await(10, TimeUnit.SECONDS)) {
+                close();
+                throw new IOException("Connection timeout");
+            }
+        } catch (DeploymentException | URISyntaxException e) {
+            throw new IOException("Failed to connect web socket: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IOException("Interrupted while connecting");
+        }
+    }
+
+    @Override
+    public void onWebSocketConnect(Session session) {
+        super.onWebSocketConnect(session);
+        WsMessage msg = new WsMessage();
+        msg.setAuthToken(authToken);
+        msg.setTargetTable(true);
+        sendMessage(msg);
+    }
+
+    @Override
+    protected boolean isContextTakeover(Extension deflate) {
+        return PerMessageDeflate.isClientContextTakeover(deflate);
+    }
+
+    @Override
+    protected void handleMessage(WsMessage wsMessage) {
+        if (wsMessage.getTargetTableDelta() != null) {
+            LOG.debug("Target table changes: " + wsMessage.getTargetTableDelta().getTargets().size() + " targets "
+                    + wsMessage.getTargetTableDelta().getRemoved().size() + " removed");
+            listener.targetTableChanged(wsMessage.getTargetTableDelta());
+        }
+    }
+
+}
@@ -159,6 +159,7 @@ public class Transponder extends Thread {
                 // Save own position if valid
                 if (posMsg.isPositionValid()) {
                     status.setOwnPos(posMsg.getPos().getGeoLocation());
+                    serverConnection.ownPositionChanged(status.getOwnPos());
                 }
             } else {
                 // Is this message valid and within radius
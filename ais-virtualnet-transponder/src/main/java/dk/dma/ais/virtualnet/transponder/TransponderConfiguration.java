@@ -37,6 +37,11 @@ public class TransponderConfiguration {
     private String username;
     private String password;
     private boolean sendPsttSentence = true;
+    private boolean batchedFrames = true;
+    private boolean binaryProtocol = true;
+    private boolean conflatePositions = true;
+    private int compressionLevel = -1; // default deflate level
+    private boolean compressionContextTakeover = true;
 
     public TransponderConfiguration() {
 
@@ -118,6 +123,63 @@ public class TransponderConfiguration {
         this.sendPsttSentence = sendPsttSentence;
     }
     
+    /**
+     * Accept frames with multiple packets from the server. If false the server sends one packet per frame.
+     */
+    public boolean isBatchedFrames() {
+        return batchedFrames;
+    }
+
+    public void setBatchedFrames(boolean batchedFrames) {
+        this.batchedFrames = batchedFrames;
+    }
+    
+    /**
+     * Ask the server for the binary wire protocol. Servers not supporting it will use JSON.
+     */
+    public boolean isBinaryProtocol() {
+        return binaryProtocol;
+    }
+
+    public void setBinaryProtocol(boolean binaryProtocol) {
+        this.binaryProtocol = binaryProtocol;
+    }
+    
+    /**
+     * Let the server drop older position reports from a target when it has newer ones queued for the transponder.
+     * On a slow link the transponder then gets fewer positions instead of being disconnected.
+     */
+    public boolean isConflatePositions() {
+        return conflatePositions;
+    }
+
+    public void setConflatePositions(boolean conflatePositions) {
+        this.conflatePositions = conflatePositions;
+    }
+    
+    /**
+     * Deflate level (0-9, -1 for default) for permessage-deflate. 0 disables compression. The web socket container
+     * uses its own deflater, so other values only apply to the compression estimate.
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+    
+    /**
+     * Ask the server to keep the compression context between messages
+     */
+    public boolean isCompressionContextTakeover() {
+        return compressionContextTakeover;
+    }
+
+    public void setCompressionContextTakeover(boolean compressionContextTakeover) {
+        this.compressionContextTakeover = compressionContextTakeover;
+    }
+    
     public static void save(String filename, TransponderConfiguration conf) throws JAXBException, FileNotFoundException {
         JAXBContext context = JAXBContext.newInstance(TransponderConfiguration.class);
         Marshaller m = context.createMarshaller();
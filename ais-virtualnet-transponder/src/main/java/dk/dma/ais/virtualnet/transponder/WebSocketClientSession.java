@@ -14,18 +14,31 @@
  */
 package dk.dma.ais.virtualnet.transponder;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.concurrent.CountDownLatch;
 
-import javax.websocket.ClientEndpoint;
+import javax.websocket.ClientEndpointConfig;
 import javax.websocket.CloseReason;
-import javax.websocket.OnClose;
-import javax.websocket.OnOpen;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.Extension;
+import javax.websocket.MessageHandler;
 import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
 
+import net.jcip.annotations.GuardedBy;
+import dk.dma.ais.virtualnet.common.message.FilterMessage;
 import dk.dma.ais.virtualnet.common.message.WsMessage;
+import dk.dma.ais.virtualnet.common.websocket.PerMessageDeflate;
 import dk.dma.ais.virtualnet.common.websocket.WebSocketSession;
+import dk.dma.ais.virtualnet.common.websocket.WsProtocol;
+import dk.dma.enav.model.geometry.Position;
 
-@ClientEndpoint
 public class WebSocketClientSession extends WebSocketSession {
 
     private final CountDownLatch closed = new CountDownLatch(1);
@@ -33,29 +46,135 @@ public class WebSocketClientSession extends WebSocketSession {
     private final ServerConnection connection;
     private final String authToken;
 
+    @GuardedBy("this")
+    private boolean filterSent;
+
+    @GuardedBy("this")
+    private Position filterCenter;
+
     public WebSocketClientSession(ServerConnection connection, String authToken) {
         this.connection = connection;
         this.authToken = authToken;
     }
 
-    @OnOpen
+    /**
+     * Connect to the server. The binary subprotocol and permessage-deflate are requested if enabled in the
+     * configuration.
+     * 
+     * @param container
+     * @param uri
+     * @throws DeploymentException
+     * @throws IOException
+     */
+    public void connect(WebSocketContainer container, URI uri) throws DeploymentException, IOException {
+        ClientEndpointConfig.Builder b = ClientEndpointConfig.Builder.create();
+        if (connection.getConf().isBinaryProtocol()) {
+            b.preferredSubprotocols(Arrays.asList(WsProtocol.BINARY, WsProtocol.JSON));
+        }
+        if (connection.getConf().getCompressionLevel() != 0) {
+            b.extensions(Collections.<Extension> singletonList(new PerMessageDeflate(connection.getConf()
+                    .isCompressionContextTakeover())));
+        }
+        container.connectToServer(new Endpoint() {
+            @Override
+            public void onOpen(Session session, EndpointConfig config) {
+                session.addMessageHandler(new MessageHandler.Whole<String>() {
+                    @Override
+                    public void onMessage(String message) {
+                        onWebSocketText(message);
+                    }
+                });
+                session.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
+                    @Override
+                    public void onMessage(ByteBuffer message) {
+                        onWebSocketBinary(message);
+                    }
+                });
+                onWebSocketConnect(session);
+            }
+
+            @Override
+            public void onClose(Session session, CloseReason reason) {
+                onWebSocketClose(reason);
+            }
+
+            @Override
+            public void onError(Session session, Throwable t) {
+                onWebSocketError(t);
+            }
+        }, b.build(), uri);
+    }
+
+    @Override
     public void onWebSocketConnect(Session session) {
         super.onWebSocketConnect(session);
         // Send credentials
         WsMessage msg = new WsMessage();
         msg.setAuthToken(authToken);
+        if (connection.getConf().isBatchedFrames()) {
+            msg.setBatched(true);
+        }
+        if (connection.getConf().isConflatePositions()) {
+            msg.setConflate(true);
+        }
+        sendMessage(msg);
+        // Only receive packets from within receive radius
+        updateFilter(connection.getOwnPos());
+    }
+
+    /**
+     * Send area filter to the server if not sent before or if the ship has moved more than the margin added to the
+     * radius. Packets near the edge are filtered exactly by the transponder.
+     * 
+     * @param ownPos
+     */
+    public synchronized void updateFilter(Position ownPos) {
+        int radius = connection.getConf().getReceiveRadius();
+        if (radius <= 0) {
+            return;
+        }
+        int margin = radius / 10;
+        if (filterSent) {
+            if (ownPos == null || filterCenter != null && ownPos.rhumbLineDistanceTo(filterCenter) < margin) {
+                return;
+            }
+        }
+        FilterMessage filter = ownPos == null ? new FilterMessage(null, null, radius + margin) : new FilterMessage(
+                ownPos.getLatitude(), ownPos.getLongitude(), radius + margin);
+        WsMessage msg = new WsMessage();
+        msg.setFilter(filter);
         sendMessage(msg);
+        filterSent = true;
+        filterCenter = ownPos;
     }
 
-    @OnClose
+    @Override
     public void onWebSocketClose(CloseReason  reason) {
         super.onWebSocketClose(reason);
         closed.countDown();
     }
 
+    @Override
+    protected int getCompressionLevel() {
+        return connection.getConf().getCompressionLevel();
+    }
+
+    @Override
+    protected boolean isContextTakeover(Extension deflate) {
+        return PerMessageDeflate.isClientContextTakeover(deflate);
+    }
+
     @Override
     protected void handleMessage(WsMessage wsMessage) {
-        connection.receive(wsMessage.getPacket());
+        if (wsMessage.getPacket() != null) {
+            connection.receive(wsMessage.getPacket());
+        }
+        // Batched frame
+        if (wsMessage.getPackets() != null) {
+            for (String packet : wsMessage.getPackets()) {
+                connection.receive(packet);
+            }
+        }
     }
 
     public CountDownLatch getClosed() {
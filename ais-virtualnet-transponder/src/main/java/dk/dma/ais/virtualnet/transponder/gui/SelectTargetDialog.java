@@ -28,15 +28,18 @@ import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 
+import dk.dma.ais.virtualnet.common.message.TargetTableDeltaMessage;
 import dk.dma.ais.virtualnet.common.table.TargetTableEntry;
+import dk.dma.ais.virtualnet.transponder.ITargetTableListener;
 
 import javax.swing.ScrollPaneConstants;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 
-public class SelectTargetDialog extends JDialog implements ActionListener, ListSelectionListener {
+public class SelectTargetDialog extends JDialog implements ActionListener, ListSelectionListener, ITargetTableListener {
 
     private static final long serialVersionUID = 1L;
 
@@ -95,6 +98,19 @@ public class SelectTargetDialog extends JDialog implements ActionListener, ListS
                 JComponent.WHEN_IN_FOCUSED_WINDOW);
     }
 
+    /**
+     * Keep the list current with changes pushed by the server
+     */
+    @Override
+    public void targetTableChanged(final TargetTableDeltaMessage delta) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                list.applyDelta(delta);
+            }
+        });
+    }
+
     public Integer getSelectedTarget() {
         return selectedTarget;
     }
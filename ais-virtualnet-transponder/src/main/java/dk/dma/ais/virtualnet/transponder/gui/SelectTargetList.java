@@ -32,7 +32,10 @@ import java.awt.event.MouseMotionAdapter;
 import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.AbstractListModel;
 import javax.swing.JList;
@@ -45,6 +48,7 @@ import javax.swing.event.DocumentListener;
 
 import org.apache.commons.lang.StringUtils;
 
+import dk.dma.ais.virtualnet.common.message.TargetTableDeltaMessage;
 import dk.dma.ais.virtualnet.common.table.TargetTableEntry;
 
 /**
@@ -98,6 +102,14 @@ public class SelectTargetList extends JList<TargetTableEntry> {
         getFilterModel().addTarget (target);
     }
 
+    /**
+     * Applies changes to the targets. Must be called on the event dispatch thread.
+     * @param delta the changes to apply
+     */
+    public void applyDelta(TargetTableDeltaMessage delta) {
+        getFilterModel().applyDelta(delta);
+    }
+
     /**
      * Returns a reference to the associated {@code FilterField}
      * @return a reference to the associated {@code FilterField}
@@ -167,6 +179,28 @@ public class SelectTargetList extends JList<TargetTableEntry> {
             refilter();
         }
         
+        /**
+         * Replaces, adds and removes targets, keeping the list sorted by name
+         * @param delta the changes to apply
+         */
+        public void applyDelta(TargetTableDeltaMessage delta) {
+            Map<Integer, TargetTableEntry> map = new HashMap<>();
+            if (!delta.isFull()) {
+                for (TargetTableEntry target : targets) {
+                    map.put(target.getMmsi(), target);
+                }
+                for (Integer mmsi : delta.getRemoved()) {
+                    map.remove(mmsi);
+                }
+            }
+            for (TargetTableEntry target : delta.getTargets()) {
+                map.put(target.getMmsi(), target);
+            }
+            targets = new ArrayList<>(map.values());
+            Collections.sort(targets, new TargetTableEntry.NameSort());
+            refilter();
+        }
+        
         /**
          * Schedules a timed update of the list
          */
@@ -183,14 +217,25 @@ public class SelectTargetList extends JList<TargetTableEntry> {
         @Override
         public void actionPerformed(ActionEvent e) {
             String term = getFilterField().getText().toLowerCase();
+            // Keep the selected target selected when the list changes
+            TargetTableEntry selected = getSelectedValue();
+            int selectedIndex = -1;
             filterTargets.clear();
             for (TargetTableEntry target : targets) {
                 if (StringUtils.containsIgnoreCase(target.getName(), term) ||
                         StringUtils.containsIgnoreCase(Integer.toString(target.getMmsi()), term)) {
+                    if (selected != null && target.getMmsi() == selected.getMmsi()) {
+                        selectedIndex = filterTargets.size();
+                    }
                     filterTargets.add(target);
                 }
             }
             fireContentsChanged (this, 0, getSize());
+            if (selectedIndex >= 0) {
+                setSelectedIndex(selectedIndex);
+            } else {
+                clearSelection();
+            }
         }
     }
 
@@ -45,10 +45,10 @@ import javax.xml.bind.JAXBException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import dk.dma.ais.virtualnet.common.message.TargetTableMessage;
 import dk.dma.ais.virtualnet.common.table.TargetTableEntry;
 import dk.dma.ais.virtualnet.transponder.ITransponderStatusListener;
 import dk.dma.ais.virtualnet.transponder.RestException;
+import dk.dma.ais.virtualnet.transponder.TargetTableSubscription;
 import dk.dma.ais.virtualnet.transponder.Transponder;
 import dk.dma.ais.virtualnet.transponder.TransponderConfiguration;
 import dk.dma.ais.virtualnet.transponder.TransponderStatus;
@@ -264,25 +264,24 @@ public class TransponderFrame extends JFrame implements ActionListener, ITranspo
         Cursor currentCursor = getCursor();
         setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
-        TargetTableMessage message;
+        // The dialog is kept current by changes pushed by the server
+        SelectTargetDialog selectTargetDialog = new SelectTargetDialog(this, Collections.<TargetTableEntry> emptyList());
+        TargetTableSubscription subscription = new TargetTableSubscription(conf, selectTargetDialog);
         try {
-            message = Transponder.getTargets(conf.getServerHost(), conf.getServerPort(), conf.getUsername(), conf.getPassword());
-        } catch (RestException e) {
+            subscription.connect();
+        } catch (RestException | IOException e) {
             LOG.error("Failed to get list of targets");
             JOptionPane.showMessageDialog(this, "Failed to get list of targets: " + e.getMessage(), "Error",
                     JOptionPane.ERROR_MESSAGE);
             setCursor(currentCursor);
+            selectTargetDialog.dispose();
             return;
         }
         setCursor(currentCursor);
 
-        // Sort by name
-        List<TargetTableEntry> targets = message.getTargets();
-        Collections.sort(targets, new TargetTableEntry.NameSort());
-
         // Show select dialog
-        SelectTargetDialog selectTargetDialog = new SelectTargetDialog(this, targets);
         selectTargetDialog.setVisible(true);
+        subscription.close();
         if (selectTargetDialog.getSelectedTarget() != null) {
             conf.setOwnMmsi(selectTargetDialog.getSelectedTarget().intValue());
             updateValues();